@@ -1,17 +1,34 @@
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 import db.Database;
+import db.Server;
 
 public class Main {
 	private static final String EXIT = "exit";
 	private static final String PROMPT = "> ";
 
 	public static void main(String[] args) throws IOException {
+		Database db = open(args);
+		int port = port(args);
+		if (port >= 0) {
+			try (Server server = new Server(db, port)) {
+				System.out.println("listening on port " + server.port());
+				server.serve();
+			} finally {
+				db.close();
+			}
+			return;
+		}
+
 		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-		Database db = new Database();
-		System.out.print(PROMPT);
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+		out.write(PROMPT);
+		out.flush();
 
 		String line = "";
 		while ((line = in.readLine()) != null) {
@@ -20,14 +37,51 @@ public class Main {
 			}
 
 			if (!line.trim().isEmpty()) {
-				String result = db.transact(line);
-				if (result.length() > 0) {
-					System.out.println(result);
+				if (db.transact(line, out)) {
+					out.write(System.lineSeparator());
 				}
 			}
-			System.out.print(PROMPT);
+			out.write(PROMPT);
+			out.flush();
 		}
 
 		in.close();
+		out.flush();
+		db.close();
+	}
+
+	// Usage: Main [--wal <file>] [--sync every|batched|interval] [--port <n>] [--cache <bytes>] [--pool <bytes>] [--metrics on]
+	private static Database open(String[] args) throws IOException {
+		String wal = null;
+		Database.SyncPolicy sync = Database.SyncPolicy.EVERY_COMMIT;
+		long cache = 0;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("--wal")) {
+				wal = args[i + 1];
+			} else if (args[i].equals("--sync")) {
+				sync = args[i + 1].equals("interval") ? Database.SyncPolicy.INTERVAL
+						: args[i + 1].equals("batched") ? Database.SyncPolicy.BATCHED
+						: Database.SyncPolicy.EVERY_COMMIT;
+			} else if (args[i].equals("--cache")) {
+				cache = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("--pool")) {
+				Database.setBufferPoolSize(Long.parseLong(args[i + 1]));
+			} else if (args[i].equals("--metrics")) {
+				Database.setMetrics(args[i + 1].equals("on"));
+			}
+		}
+		Database db = wal == null ? new Database() : new Database(wal, sync);
+		db.setResultCacheSize(cache);
+		return db;
+	}
+
+	// The port to serve clients on, -1 for the console.
+	private static int port(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("--port")) {
+				return Integer.parseInt(args[i + 1]);
+			}
+		}
+		return -1;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import db.Database;
+
+/**
+ * One benchmark per Database.transact command, over generated tables of
+ * the given size. The tables are written to bench_data/ on first use:
+ *
+ * <pre>
+ * t(k int, v float, s string)  rows rows, rows / 10 distinct keys
+ * u(k int, w int)               rows / 10 rows, so t natural join u has about rows rows
+ * </pre>
+ *
+ * Output of print and select goes to a null writer, so rendering is
+ * measured but not printing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g"})
+public class CommandBenchmark {
+
+    static final String DIR = "bench_data/";
+
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    private Database db;
+    private String t;
+    private String u;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        t = DIR + "t" + rows;
+        u = DIR + "u" + rows;
+        TableGenerator gen = new TableGenerator(42, 0.01);
+        int keys = Math.max(rows / 10, 1);
+        if (!new File(t + ".tbl").exists()) {
+            gen.write(t, rows,
+                    new TableGenerator.Spec("k", "int", keys),
+                    new TableGenerator.Spec("v", "float", 8000),
+                    new TableGenerator.Spec("s", "string", 100));
+        }
+        if (!new File(u + ".tbl").exists()) {
+            gen.write(u, keys,
+                    new TableGenerator.Spec("k", "int", keys),
+                    new TableGenerator.Spec("w", "int", 10));
+        }
+        db = new Database();
+        check(db.transact("load " + t));
+        check(db.transact("load " + u));
+        check(db.transact("create table " + DIR + "copy as select * from " + t));
+    }
+
+    @Benchmark
+    public String load() {
+        return check(db.transact("load " + t));
+    }
+
+    @Benchmark
+    public String store() {
+        return check(db.transact("store " + DIR + "copy"));
+    }
+
+    @Benchmark
+    public String createTable() {
+        check(db.transact("create table scratch (a int, b float, c string)"));
+        return check(db.transact("drop table scratch"));
+    }
+
+    @Benchmark
+    public String createAsSelect() {
+        return check(db.transact("create table scratch as select k, v * 2 as d from " + t + ", " + u
+                + " where w < 5 and k < " + rows / 20 + " and s != 'v1'"));
+    }
+
+    @Benchmark
+    public String insert() {
+        next++;
+        return check(db.transact("insert into " + t + " values " + next + ", 1.5, 'x" + next + "'"));
+    }
+
+    @Benchmark
+    public boolean print() throws IOException {
+        return db.transact("print " + t, Writer.nullWriter());
+    }
+
+    @Benchmark
+    public boolean selectWhere() throws IOException {
+        return db.transact("select k, v from " + t + " where v > 990.0", Writer.nullWriter());
+    }
+
+    @Benchmark
+    public String merge() {
+        return check(db.transact("create table scratch as select * from " + t + ", " + u));
+    }
+
+    private static String check(String result) {
+        if (result.startsWith("ERROR")) {
+            throw new IllegalStateException(result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,125 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Writes synthetic .tbl files. The same seed and column specs always give
+ * the same file.
+ *
+ * <pre>
+ * java bench.TableGenerator [--seed n] [--novalue fraction] name rows col:type[:cardinality] ...
+ * </pre>
+ *
+ * A column's cardinality bounds the number of distinct values it holds,
+ * which controls how many rows share a join or filter key. It defaults to
+ * the row count.
+ */
+public class TableGenerator {
+
+    private final long seed;
+    private final double novalue;
+
+    public TableGenerator(long seed, double novalue) {
+        this.seed = seed;
+        this.novalue = novalue;
+    }
+
+    public static class Spec {
+        final String name;
+        final String type;
+        final int cardinality;
+
+        public Spec(String name, String type, int cardinality) {
+            if (!type.equals("int") && !type.equals("float") && !type.equals("string")) {
+                throw new IllegalArgumentException("unknown column type " + type);
+            }
+            this.name = name;
+            this.type = type;
+            this.cardinality = Math.max(cardinality, 1);
+        }
+
+        static Spec parse(String spec, int rows) {
+            String[] parts = spec.split(":");
+            if (parts.length < 2) {
+                throw new IllegalArgumentException("expected col:type[:cardinality], got " + spec);
+            }
+            int cardinality = parts.length > 2 ? Integer.parseInt(parts[2]) : rows;
+            return new Spec(parts[0], parts[1], cardinality);
+        }
+    }
+
+    // Writes path + ".tbl", returns the file.
+    public File write(String path, int rows, Spec... specs) throws IOException {
+        File file = new File(path + ".tbl");
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        Random random = new Random(seed);
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            for (int i = 0; i < specs.length; i++) {
+                out.write(specs[i].name + " " + specs[i].type);
+                out.write(i == specs.length - 1 ? "\n" : ",");
+            }
+            StringBuilder line = new StringBuilder();
+            for (int r = 0; r < rows; r++) {
+                line.setLength(0);
+                for (int i = 0; i < specs.length; i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    value(line, specs[i], random);
+                }
+                line.append('\n');
+                out.append(line);
+            }
+        }
+        return file;
+    }
+
+    private void value(StringBuilder line, Spec spec, Random random) {
+        if (novalue > 0 && random.nextDouble() < novalue) {
+            line.append("NOVALUE");
+            return;
+        }
+        int key = random.nextInt(spec.cardinality);
+        if (spec.type.equals("int")) {
+            line.append(key);
+        } else if (spec.type.equals("float")) {
+            line.append(key / 8).append('.').append(key % 8 * 125);
+        } else {
+            line.append("'v").append(key).append('\'');
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        long seed = 42;
+        double novalue = 0;
+        int i = 0;
+        while (i < args.length && args[i].startsWith("--")) {
+            if (args[i].equals("--seed")) {
+                seed = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--novalue")) {
+                novalue = Double.parseDouble(args[i + 1]);
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+            i += 2;
+        }
+        if (args.length - i < 3) {
+            System.err.println("usage: TableGenerator [--seed n] [--novalue fraction] "
+                    + "name rows col:type[:cardinality] ...");
+            System.exit(1);
+        }
+        String name = args[i];
+        int rows = Integer.parseInt(args[i + 1]);
+        Spec[] specs = new Spec[args.length - i - 2];
+        for (int k = 0; k < specs.length; k++) {
+            specs[k] = Spec.parse(args[i + 2 + k], rows);
+        }
+        new TableGenerator(seed, novalue).write(name, rows, specs);
+    }
+}
@@ -0,0 +1,321 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash aggregation of a select with aggregates or a group by clause. The
+ * rows, all of them or those the where clause leaves, are folded in
+ * batches by parallel partitions into partial aggregates per group; the
+ * partitions are then merged in order, so groups come out in the order
+ * they first appear. Without a where clause only the groups are held,
+ * never the ids of all the rows.
+ */
+class Aggregation {
+
+    private static final int BATCH = 4096;
+
+    private final Table source;
+    private final Kernel[] keys;
+    // Per item, the index of the group expression it selects, or -1 for an aggregate.
+    private final int[] key_of;
+    private final String[] functions;
+    // Per item, the kernel of the aggregated expression; null for count(*) and grouped items.
+    private final Kernel[] args;
+    private final String[] header;
+
+    Aggregation(Table source, ArrayList<Statement.Item> items, ArrayList<Expr> groups) {
+        this.source = source;
+        keys = new Kernel[groups.size()];
+        for (int g = 0; g < keys.length; g++) {
+            keys[g] = groups.get(g).compile(source);
+        }
+        key_of = new int[items.size()];
+        functions = new String[items.size()];
+        args = new Kernel[items.size()];
+        header = new String[items.size()];
+        for (int k = 0; k < items.size(); k++) {
+            Statement.Item item = items.get(k);
+            if (item.expr == null) {
+                throw new RuntimeException("* can't be selected with aggregates");
+            }
+            String type;
+            key_of[k] = -1;
+            if (item.expr instanceof Expr.Aggregate) {
+                Expr.Aggregate a = (Expr.Aggregate) item.expr;
+                functions[k] = a.function;
+                args[k] = a.arg == null ? null : a.arg.compile(source);
+                type = type(a, args[k]);
+            } else {
+                for (int g = 0; g < keys.length && key_of[k] == -1; g++) {
+                    if (groups.get(g).toString().equals(item.expr.toString())) {
+                        key_of[k] = g;
+                    }
+                }
+                if (key_of[k] == -1) {
+                    throw new RuntimeException(item.expr + " is neither grouped nor aggregated");
+                }
+                type = keys[key_of[k]].type;
+            }
+            header[k] = item.name() + " " + type;
+        }
+    }
+
+    private static String type(Expr.Aggregate a, Kernel arg) {
+        if (a.function.equals("count")) {
+            return "int";
+        } else if (arg.type.equals("string") && (a.function.equals("sum") || a.function.equals("avg"))) {
+            throw new RuntimeException("can't compute " + a.function + " of a string");
+        }
+        return a.function.equals("avg") ? "float" : arg.type;
+    }
+
+    // Folds the rows ids of the source, all of them if ids is null, into groups, which may already
+    // hold those of other rows of the same columns, and returns one row per group. Groups are keyed
+    // by their grouped values, NOVALUE being null, as a list unless there is just one.
+    Table run(LinkedHashMap<Object, Group> groups, int[] ids) {
+        List<LinkedHashMap<Object, Group>> parts =
+                Parallel.map(ids == null ? source.size() : ids.length, (from, to) -> fold(ids, from, to));
+        for (LinkedHashMap<Object, Group> part : parts) {
+            for (Map.Entry<Object, Group> e : part.entrySet()) {
+                Group g = groups.get(e.getKey());
+                if (g == null) {
+                    groups.put(e.getKey(), e.getValue());
+                } else {
+                    g.merge(e.getValue());
+                }
+            }
+        }
+        // Without a group by clause, no rows still make one group.
+        if (keys.length == 0 && groups.isEmpty()) {
+            groups.put(Collections.emptyList(), new Group(accumulators()));
+        }
+
+        Column[] data = new Column[header.length];
+        for (int k = 0; k < data.length; k++) {
+            data[k] = Column.of(header[k].split(" ")[1]);
+            for (Map.Entry<Object, Group> e : groups.entrySet()) {
+                if (key_of[k] == -1) {
+                    e.getValue().accs[k].emit(data[k]);
+                } else {
+                    append(data[k], keys.length == 1 ? e.getKey() : ((List<?>) e.getKey()).get(key_of[k]));
+                }
+            }
+        }
+        return Table.of(header, data, groups.size());
+    }
+
+    // Folds the rows from to to of rows, or rows from to to themselves if rows is null.
+    private LinkedHashMap<Object, Group> fold(int[] rows, int from, int to) {
+        LinkedHashMap<Object, Group> groups = new LinkedHashMap<>();
+        Column[] key_cols = new Column[keys.length];
+        Column[] arg_cols = new Column[args.length];
+        for (int start = from; start < to; start += BATCH) {
+            int end = Math.min(to, start + BATCH);
+            int[] ids;
+            if (rows != null) {
+                ids = Arrays.copyOfRange(rows, start, end);
+            } else {
+                ids = new int[end - start];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = start + i;
+                }
+            }
+            for (int g = 0; g < keys.length; g++) {
+                key_cols[g] = keys[g].eval(source, ids);
+            }
+            for (int k = 0; k < args.length; k++) {
+                arg_cols[k] = args[k] == null ? null : args[k].eval(source, ids);
+            }
+            for (int i = 0; i < ids.length; i++) {
+                Object key = key(key_cols, i);
+                Group g = groups.get(key);
+                if (g == null) {
+                    g = new Group(accumulators());
+                    groups.put(key, g);
+                }
+                for (int k = 0; k < g.accs.length; k++) {
+                    if (g.accs[k] != null) {
+                        g.accs[k].add(arg_cols[k], i);
+                    }
+                }
+            }
+        }
+        return groups;
+    }
+
+    // The values of the group expressions at row i, NOVALUE being null.
+    private static Object key(Column[] cols, int i) {
+        if (cols.length == 1) {
+            return value(cols[0], i);
+        }
+        Object[] ret = new Object[cols.length];
+        for (int g = 0; g < cols.length; g++) {
+            ret[g] = value(cols[g], i);
+        }
+        return Arrays.asList(ret);
+    }
+
+    private static Object value(Column c, int i) {
+        return c.isNoValue(i) ? null : c.valueAt(i);
+    }
+
+    private Acc[] accumulators() {
+        Acc[] ret = new Acc[functions.length];
+        for (int k = 0; k < ret.length; k++) {
+            if (functions[k] == null) {
+                continue;
+            } else if (functions[k].equals("count")) {
+                ret[k] = new Count();
+            } else if (functions[k].equals("sum") || functions[k].equals("avg")) {
+                ret[k] = new Sum(functions[k].equals("avg"));
+            } else {
+                ret[k] = new Extreme(functions[k].equals("min") ? 1 : -1);
+            }
+        }
+        return ret;
+    }
+
+    static class Group {
+        final Acc[] accs;
+
+        Group(Acc[] accs) {
+            this.accs = accs;
+        }
+
+        void merge(Group other) {
+            for (int k = 0; k < accs.length; k++) {
+                if (accs[k] != null) {
+                    accs[k].merge(other.accs[k]);
+                }
+            }
+        }
+    }
+
+    // Running state of one aggregate of one group. NOVALUE rows are skipped.
+    private abstract static class Acc {
+        // Adds row i of c, a null c standing for count(*).
+        abstract void add(Column c, int i);
+
+        abstract void merge(Acc other);
+
+        abstract void emit(Column out);
+    }
+
+    private static class Count extends Acc {
+        long n;
+
+        void add(Column c, int i) {
+            if (c == null || !c.isNoValue(i)) {
+                n++;
+            }
+        }
+
+        void merge(Acc other) {
+            n += ((Count) other).n;
+        }
+
+        void emit(Column out) {
+            ((IntColumn) out).add(exact(n, "count"));
+        }
+    }
+
+    // Results of int aggregates are ints, so one that doesn't fit is an error rather than wrapping.
+    private static int exact(long v, String what) {
+        if (v != (int) v) {
+            throw new RuntimeException(what + " " + v + " doesn't fit an int");
+        }
+        return (int) v;
+    }
+
+    // Sums ints exactly and floats in double precision.
+    private static class Sum extends Acc {
+        final boolean avg;
+        long n;
+        long ints;
+        double floats;
+
+        Sum(boolean avg) {
+            this.avg = avg;
+        }
+
+        void add(Column c, int i) {
+            if (c.isNoValue(i)) {
+                return;
+            }
+            n++;
+            if (c instanceof IntColumn) {
+                ints += ((IntColumn) c).get(i);
+            } else {
+                floats += c.floatAt(i);
+            }
+        }
+
+        void merge(Acc other) {
+            Sum s = (Sum) other;
+            n += s.n;
+            ints += s.ints;
+            floats += s.floats;
+        }
+
+        void emit(Column out) {
+            if (n == 0) {
+                out.appendNoValue();
+            } else if (avg) {
+                ((FloatColumn) out).add(FloatColumn.round((float) ((ints + floats) / n)));
+            } else if (out instanceof IntColumn) {
+                ((IntColumn) out).add(exact(ints, "sum"));
+            } else {
+                ((FloatColumn) out).add(FloatColumn.round((float) floats));
+            }
+        }
+    }
+
+    // min with sign 1, max with sign -1.
+    private static class Extreme extends Acc {
+        final int sign;
+        Comparable<Object> best;
+
+        Extreme(int sign) {
+            this.sign = sign;
+        }
+
+        @SuppressWarnings("unchecked")
+        void add(Column c, int i) {
+            if (!c.isNoValue(i)) {
+                offer((Comparable<Object>) c.valueAt(i));
+            }
+        }
+
+        private void offer(Comparable<Object> v) {
+            if (v != null && (best == null || sign * v.compareTo(best) < 0)) {
+                best = v;
+            }
+        }
+
+        void merge(Acc other) {
+            offer(((Extreme) other).best);
+        }
+
+        void emit(Column out) {
+            append(out, best);
+        }
+    }
+
+    // Appends a value as valueAt returns it, null being NOVALUE.
+    private static void append(Column out, Object v) {
+        if (v == null) {
+            out.appendNoValue();
+        } else if (out instanceof IntColumn) {
+            ((IntColumn) out).add((Integer) v);
+        } else if (out instanceof FloatColumn) {
+            ((FloatColumn) out).add((Float) v);
+        } else {
+            ((StringColumn) out).add((String) v);
+        }
+    }
+}
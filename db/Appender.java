@@ -0,0 +1,124 @@
+package db;
+
+/**
+ * Appends rows of Java values to a table without writing or parsing
+ * literals. A row is its values in column order followed by
+ * {@link #endRow}; a value of the wrong type for its column is refused
+ * as it is given. Rows are buffered in typed columns and appended a batch
+ * at a time, checked against the table once per batch, so the rows of a
+ * batch are all appended or, if the table changed meanwhile, none are.
+ * Call {@link #flush} or {@link #close} to append the rows still held.
+ * An appender is used by one thread at a time.
+ */
+public class Appender implements AutoCloseable {
+
+    private static final int BATCH = 4096;
+
+    private final Database db;
+    private final String table;
+    private final String[] names;
+    private final String[] types;
+    private Column[] batch;
+    // The column of the next value, and the complete rows held.
+    private int column;
+    private int rows;
+
+    Appender(Database db, String table, String[] header) {
+        this.db = db;
+        this.table = table;
+        names = new String[header.length];
+        types = new String[header.length];
+        for (int i = 0; i < header.length; i++) {
+            String[] parts = header[i].split(" ");
+            names[i] = parts[0];
+            types[i] = parts[1];
+        }
+        batch = newBatch();
+    }
+
+    public Appender append(int value) {
+        ((IntColumn) next("int")).add(value);
+        column++;
+        return this;
+    }
+
+    public Appender append(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            throw new IllegalArgumentException(value + " can't be stored");
+        }
+        ((FloatColumn) next("float")).add(FloatColumn.round(value));
+        column++;
+        return this;
+    }
+
+    public Appender append(String value) {
+        if (value == null) {
+            return appendNoValue();
+        } else if (value.indexOf('\'') >= 0) {
+            throw new IllegalArgumentException("strings can't contain quotes");
+        }
+        ((StringColumn) next("string")).add(value);
+        column++;
+        return this;
+    }
+
+    public Appender appendNoValue() {
+        next(null).appendNoValue();
+        column++;
+        return this;
+    }
+
+    // Ends the row whose values were just appended; a full batch is appended to the table.
+    public Appender endRow() {
+        if (column != types.length) {
+            throw new IllegalStateException("row has " + column + " values, " + table
+                    + " has " + types.length + " columns");
+        }
+        column = 0;
+        rows++;
+        if (rows == BATCH) {
+            flush();
+        }
+        return this;
+    }
+
+    // Appends the rows held, throwing with the error of the database if it refuses them.
+    public void flush() {
+        if (column != 0) {
+            throw new IllegalStateException("the last row of " + table + " isn't ended");
+        }
+        if (rows == 0) {
+            return;
+        }
+        String result = db.execute(new Statement.Append(table, batch, rows), new String[0]);
+        batch = newBatch();
+        rows = 0;
+        if (result.startsWith("ERROR")) {
+            throw new RuntimeException(result);
+        }
+    }
+
+    public void close() {
+        flush();
+    }
+
+    // The buffer of the next value, which must be of type unless it is NOVALUE.
+    private Column next(String type) {
+        if (column == types.length) {
+            throw new IllegalStateException("row has more values than " + table + " has columns");
+        }
+        if (type != null && !type.equals(types[column])) {
+            throw new IllegalArgumentException("column " + names[column] + " of " + table
+                    + " is " + types[column] + ", not " + type);
+        }
+        return batch[column];
+    }
+
+    private Column[] newBatch() {
+        Column[] ret = new Column[types.length];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = Column.of(types[i]);
+        }
+        return ret;
+    }
+}
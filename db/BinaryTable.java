@@ -0,0 +1,141 @@
+package db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary table file (.tbin). A header lists the row count and, for every
+ * column, its name, type and the offset and length of its data block:
+ *
+ * <pre>
+ * int magic, int version, int rows, int columns, long zone map offset, long zone map length
+ * columns * (int name length, name bytes, byte type, long offset, long length)
+ * columns * (int bitmap words, long[] NOVALUE bitmap, values)
+ * zone maps
+ * </pre>
+ *
+ * Int and float values are stored as arrays, string columns as a dictionary
+ * followed by one code per row. All numbers are little-endian. Reading maps
+ * every block into memory and leaves decoding to the first use of a column.
+ * Files of version 1 have no zone maps, which are then collected anew.
+ * A file is written next to the old one and renamed over it, as a table
+ * mapped from the old one may be what is written.
+ */
+class BinaryTable {
+
+    static final String EXTENSION = ".tbin";
+
+    private static final int MAGIC = 0x4D444254;
+    private static final int VERSION = 2;
+    private static final String[] TYPES = {"int", "float", "string"};
+
+    static void write(Table t, Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            write(t, tmp, t.columnCount());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void write(Table t, Path file, int n) throws IOException {
+        byte[][] names = new byte[n][];
+        int header = 32;
+        for (int i = 0; i < n; i++) {
+            names[i] = t.columnName(i).getBytes(StandardCharsets.UTF_8);
+            header += 4 + names[i].length + 1 + 16;
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long[] offsets = new long[n];
+            long[] lengths = new long[n];
+            ch.position(header);
+            for (int i = 0; i < n; i++) {
+                offsets[i] = ch.position();
+                t.data(i).write(ch);
+                lengths[i] = ch.position() - offsets[i];
+            }
+            ZoneMap zones = t.zoneMap();
+            long zones_offset = ch.position();
+            ByteBuffer buf = Column.buffer(zones.bytes());
+            zones.write(buf);
+            Column.writeFully(ch, buf);
+            buf = Column.buffer(header);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(t.size()).putInt(n);
+            buf.putLong(zones_offset).putLong(ch.position() - zones_offset);
+            for (int i = 0; i < n; i++) {
+                buf.putInt(names[i].length).put(names[i]);
+                buf.put((byte) typeCode(t.columnType(i)));
+                buf.putLong(offsets[i]).putLong(lengths[i]);
+            }
+            ch.position(0);
+            Column.writeFully(ch, buf);
+            ch.force(true);
+        }
+    }
+
+    static Table read(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = readFully(ch, 16);
+            int version = buf.getInt() == MAGIC ? buf.getInt() : -1;
+            if (version != 1 && version != VERSION) {
+                throw new IOException("not a binary table: " + file);
+            }
+            int rows = buf.getInt();
+            int n = buf.getInt();
+            long zones_offset = 0;
+            long zones_length = 0;
+            if (version == VERSION) {
+                buf = readFully(ch, 16);
+                zones_offset = buf.getLong();
+                zones_length = buf.getLong();
+            }
+            String[] header = new String[n];
+            ByteBuffer[] blocks = new ByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                byte[] name = new byte[readFully(ch, 4).getInt()];
+                readFully(ch, name.length).get(name);
+                buf = readFully(ch, 17);
+                header[i] = new String(name, StandardCharsets.UTF_8) + " " + TYPES[buf.get()];
+                long offset = buf.getLong();
+                long length = buf.getLong();
+                blocks[i] = ch.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+            ZoneMap zones = null;
+            if (zones_length > 0) {
+                ch.position(zones_offset);
+                zones = ZoneMap.read(readFully(ch, (int) zones_length), header);
+            }
+            return Table.mapped(header, blocks, rows, zones != null && zones.rows() == rows ? zones : null);
+        }
+    }
+
+    private static int typeCode(String type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(type)) {
+                return i;
+            }
+        }
+        throw new RuntimeException("Invalid column type.");
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, int bytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) {
+                throw new IOException("truncated binary table");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+}
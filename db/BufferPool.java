@@ -0,0 +1,168 @@
+package db;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+
+/**
+ * A bounded set of off-heap frames holding pages of page files. A page is
+ * pinned while it is read and can't be evicted until it is unpinned; the
+ * frame to reuse is chosen by the clock algorithm, which passes over the
+ * frames in turn and takes the first unpinned one not referenced since
+ * the last pass. One pool is shared by all databases in the JVM.
+ */
+class BufferPool {
+
+    static final int PAGE_SIZE = 1 << 16;
+
+    private static final int MIN_FRAMES = 16;
+    private static long size = 64L << 20;
+    private static BufferPool shared;
+
+    // Frames are looked up by page file id in the high and page number in the low half of a key.
+    private final Frame[] frames;
+    private final HashMap<Long, Frame> pages = new HashMap<>();
+    private int hand;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    static final class Frame {
+        final ByteBuffer buf;
+        private long key = -1;
+        private int pins;
+        private boolean referenced;
+        // Cleared while the page is read into the frame; readers of the same page wait for it.
+        private boolean loaded;
+        private IOException failure;
+
+        Frame() {
+            buf = ByteBuffer.allocateDirect(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private BufferPool(long bytes) {
+        frames = new Frame[(int) Math.max(MIN_FRAMES, Math.min(bytes / PAGE_SIZE, Integer.MAX_VALUE))];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new Frame();
+        }
+    }
+
+    // The pool is allocated on first use, so a database without page files never reserves it.
+    static synchronized BufferPool shared() {
+        if (shared == null) {
+            shared = new BufferPool(size);
+        }
+        return shared;
+    }
+
+    // Pages pinned in the old pool stay valid until they are unpinned.
+    static synchronized void setSize(long bytes) {
+        if (bytes < PAGE_SIZE) {
+            throw new IllegalArgumentException("buffer pool must hold at least one page");
+        }
+        size = bytes;
+        shared = null;
+    }
+
+    // Pins page of file, reading it in if it isn't held. Callers unpin it when done reading.
+    Frame pin(PageFile file, int page) {
+        long key = (long) file.id << 32 | page;
+        Frame f;
+        boolean load = false;
+        synchronized (this) {
+            f = pages.get(key);
+            if (f != null) {
+                hits++;
+            } else {
+                misses++;
+                f = victim();
+                if (f.key != -1) {
+                    pages.remove(f.key);
+                    evictions++;
+                }
+                f.key = key;
+                f.loaded = false;
+                f.failure = null;
+                pages.put(key, f);
+                load = true;
+            }
+            f.pins++;
+            f.referenced = true;
+        }
+        if (load) {
+            IOException failure = null;
+            try {
+                file.readPage(page, f.buf.duplicate());
+            } catch (IOException e) {
+                failure = e;
+                synchronized (this) {
+                    pages.remove(key);
+                    f.key = -1;
+                }
+            }
+            synchronized (f) {
+                f.failure = failure;
+                f.loaded = true;
+                f.notifyAll();
+            }
+        } else {
+            synchronized (f) {
+                while (!f.loaded) {
+                    try {
+                        f.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+        IOException failure;
+        synchronized (f) {
+            failure = f.failure;
+        }
+        if (failure != null) {
+            unpin(f);
+            throw new UncheckedIOException(failure);
+        }
+        return f;
+    }
+
+    synchronized void unpin(Frame f) {
+        f.pins--;
+    }
+
+    // Two passes of the clock clear every reference bit, so finding nothing by then means all are pinned.
+    private Frame victim() {
+        for (int step = 0; step < 2 * frames.length; step++) {
+            Frame f = frames[hand];
+            hand = (hand + 1) % frames.length;
+            if (f.pins > 0) {
+                continue;
+            }
+            if (f.referenced) {
+                f.referenced = false;
+            } else {
+                return f;
+            }
+        }
+        throw new RuntimeException("all pages of the buffer pool are pinned");
+    }
+
+    static synchronized String stats() {
+        if (shared == null) {
+            return String.format("buffer pool: %d bytes, not in use", size);
+        }
+        BufferPool p = shared;
+        synchronized (p) {
+            long reads = p.hits + p.misses;
+            int used = p.pages.size();
+            return String.format("buffer pool: %d of %d pages used (%d bytes each), %d hits, %d misses"
+                    + " (%.1f%% hit rate), %d evictions", used, p.frames.length, PAGE_SIZE, p.hits, p.misses,
+                    reads == 0 ? 0 : 100.0 * p.hits / reads, p.evictions);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package db;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads a .tbl file in parallel. The file is split into chunks at line
+ * boundaries; each chunk is block-read and its values are parsed straight
+ * from the bytes into typed columns, with the same checks an insert makes.
+ * The chunks are then appended in file order, or written to a page file
+ * as they are parsed. Rows that don't fit the header are skipped and
+ * reported with their line numbers.
+ */
+class BulkLoader {
+
+    private static final int CHUNK = 4 << 20;
+    private static final int MAX_REPORTED = 20;
+
+    final Table table;
+    final long bytes;
+    final long nanos;
+    // Line numbers, counting the header as line 1, and reasons of the rows that were skipped.
+    final IntList rejected = new IntList();
+    final ArrayList<String> reasons = new ArrayList<>();
+
+    private BulkLoader(Table table, long bytes, long nanos) {
+        this.table = table;
+        this.bytes = bytes;
+        this.nanos = nanos;
+    }
+
+    static BulkLoader load(Path file) throws IOException {
+        return load(file, null);
+    }
+
+    // A missing or empty header is reported as an IOException with the message "missing header".
+    // Given pages, the rows are written to that page file a few chunks at a time instead of being
+    // held, and the table reads them from it.
+    static BulkLoader load(Path file, Path pages) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long body = nextLine(ch, 0, size);
+            String header = new String(read(ch, 0, (int) Math.min(body, Integer.MAX_VALUE)),
+                    StandardCharsets.UTF_8).trim();
+            if (header.isEmpty()) {
+                throw new IOException("missing header");
+            }
+            Table schema = new Table(header.split("\\s*,\\s*"));
+            String[] types = new String[schema.columnCount()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = schema.columnType(i);
+            }
+
+            ArrayList<Long> bounds = new ArrayList<>();
+            bounds.add(body);
+            while (bounds.get(bounds.size() - 1) < size) {
+                bounds.add(nextLine(ch, bounds.get(bounds.size() - 1) + CHUNK, size));
+            }
+            int count = bounds.size() - 1;
+            PageFile.Writer out = pages == null ? null : new PageFile.Writer(pages, schema.header());
+            try {
+                ArrayList<ArrayList<Column>> parts = new ArrayList<>();
+                for (int i = 0; i < types.length; i++) {
+                    parts.add(new ArrayList<Column>());
+                }
+                IntList rejected = new IntList();
+                ArrayList<String> reasons = new ArrayList<>();
+                int rows = 0;
+                int line = 1;
+                int wave = out == null ? Math.max(count, 1) : Parallel.parallelism();
+                for (int first = 0; first < count; first += wave) {
+                    int at = first;
+                    List<Chunk> chunks = Parallel.map(Math.min(wave, count - first), 1, (from, to) -> {
+                        if (from == to) {
+                            return null;
+                        }
+                        long pos = bounds.get(at + from);
+                        try {
+                            return parse(read(ch, pos, (int) (bounds.get(at + to) - pos)), types);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    for (Chunk c : chunks) {
+                        if (c == null) {
+                            continue;
+                        }
+                        if (out != null) {
+                            out.append(c.data, c.rows);
+                        } else {
+                            for (int i = 0; i < types.length; i++) {
+                                parts.get(i).add(c.data[i]);
+                            }
+                        }
+                        rows += c.rows;
+                        for (int k = 0; k < c.rejected.size(); k++) {
+                            rejected.add(line + c.rejected.get(k));
+                        }
+                        reasons.addAll(c.reasons);
+                        line += c.lines;
+                    }
+                }
+
+                Table table;
+                if (out != null) {
+                    out.finish();
+                    table = Table.paged(PageFile.open(pages));
+                } else {
+                    Column[] data = new Column[types.length];
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = parts.get(i).isEmpty() ? Column.of(types[i]) : Column.concat(parts.get(i));
+                    }
+                    table = Table.of(schema.header(), data, rows);
+                }
+                BulkLoader ret = new BulkLoader(table, size, System.nanoTime() - start);
+                for (int k = 0; k < rejected.size(); k++) {
+                    ret.rejected.add(rejected.get(k));
+                }
+                ret.reasons.addAll(reasons);
+                return ret;
+            } catch (IOException | RuntimeException e) {
+                if (out != null) {
+                    out.abort();
+                }
+                throw e;
+            }
+        }
+    }
+
+    // Rows loaded, throughput, and the first of the skipped rows.
+    String report() {
+        double seconds = nanos / 1e9;
+        StringBuilder ret = new StringBuilder();
+        ret.append(String.format("loaded %d rows in %.3f s (%.1f MB/s, %.0f rows/s)", table.size(),
+                seconds, bytes / 1e6 / Math.max(seconds, 1e-9), table.size() / Math.max(seconds, 1e-9)));
+        if (rejected.size() > 0) {
+            ret.append(", rejected ").append(rejected.size());
+        }
+        for (int k = 0; k < rejected.size() && k < MAX_REPORTED; k++) {
+            ret.append("\nrejected line ").append(rejected.get(k)).append(": ").append(reasons.get(k));
+        }
+        if (rejected.size() > MAX_REPORTED) {
+            ret.append("\n... and ").append(rejected.size() - MAX_REPORTED).append(" more");
+        }
+        return ret.toString();
+    }
+
+    // The rows of a run of whole lines, parsed into columns.
+    private static class Chunk {
+        final Column[] data;
+        int rows;
+        int lines;
+        final IntList rejected = new IntList();
+        final ArrayList<String> reasons = new ArrayList<>();
+
+        Chunk(String[] types) {
+            data = new Column[types.length];
+            for (int i = 0; i < types.length; i++) {
+                data[i] = Column.of(types[i]);
+            }
+        }
+    }
+
+    private static Chunk parse(byte[] b, String[] types) {
+        Chunk c = new Chunk(types);
+        int[] from = new int[types.length];
+        int[] to = new int[types.length];
+        int pos = 0;
+        while (pos < b.length) {
+            int end = pos;
+            while (end < b.length && b[end] != '\n') {
+                end++;
+            }
+            c.lines++;
+            String reason = fields(b, pos, end, from, to);
+            if (reason == null) {
+                reason = append(b, c.data, from, to, c.rows);
+            }
+            if (reason == null) {
+                c.rows++;
+            } else if (!reason.isEmpty()) {
+                c.rejected.add(c.lines);
+                c.reasons.add(reason);
+            }
+            pos = end + 1;
+        }
+        return c;
+    }
+
+    // Finds the trimmed values of a line; returns "" for a blank line, or why the line doesn't fit.
+    private static String fields(byte[] b, int pos, int end, int[] from, int[] to) {
+        int n = 0;
+        int start = pos;
+        for (int i = pos; i <= end; i++) {
+            if (i < end && b[i] != ',') {
+                continue;
+            }
+            int s = start;
+            int e = i;
+            while (s < e && (b[s] & 0xff) <= ' ') {
+                s++;
+            }
+            while (e > s && (b[e - 1] & 0xff) <= ' ') {
+                e--;
+            }
+            if (n == 0 && i == end && s == e) {
+                return "";
+            }
+            if (n < from.length) {
+                from[n] = s;
+                to[n] = e;
+            }
+            n++;
+            start = i + 1;
+        }
+        if (n != from.length) {
+            return "expected " + from.length + " values, found " + n;
+        }
+        return null;
+    }
+
+    // Appends the values of one row, undoing it if one of them doesn't parse.
+    private static String append(byte[] b, Column[] data, int[] from, int[] to, int rows) {
+        for (int i = 0; i < data.length; i++) {
+            String reason = value(b, from[i], to[i], data[i]);
+            if (reason != null) {
+                for (int k = 0; k < i; k++) {
+                    data[k].truncate(rows);
+                }
+                return reason;
+            }
+        }
+        return null;
+    }
+
+    private static final byte[] NOVALUE = Column.NOVALUE.getBytes(StandardCharsets.US_ASCII);
+
+    // Appends one value the way an insert checks it: strings are quoted, floats have a '.'.
+    private static String value(byte[] b, int from, int to, Column c) {
+        if (to - from == NOVALUE.length && matches(b, from, NOVALUE)) {
+            c.appendNoValue();
+            return null;
+        }
+        boolean quote = false;
+        boolean dot = false;
+        for (int i = from; i < to; i++) {
+            quote |= b[i] == '\'';
+            dot |= b[i] == '.';
+        }
+        if (c instanceof StringColumn) {
+            if (!quote) {
+                return "bad string value " + text(b, from, to);
+            }
+            if (to - from >= 2 && b[from] == '\'' && b[to - 1] == '\'') {
+                from++;
+                to--;
+            }
+            ((StringColumn) c).add(new String(b, from, to - from, StandardCharsets.UTF_8));
+            return null;
+        }
+        if (quote || dot != (c instanceof FloatColumn)) {
+            return "bad " + c.type() + " value " + text(b, from, to);
+        }
+        if (c instanceof FloatColumn) {
+            try {
+                ((FloatColumn) c).add(FloatColumn.round(Float.parseFloat(text(b, from, to))));
+            } catch (NumberFormatException e) {
+                return "bad float value " + text(b, from, to);
+            }
+            return null;
+        }
+        int i = from;
+        boolean negative = i < to && b[i] == '-';
+        if (i < to && (b[i] == '-' || b[i] == '+')) {
+            i++;
+        }
+        long v = 0;
+        if (i == to || to - i > 10) {
+            return "bad int value " + text(b, from, to);
+        }
+        for (; i < to; i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return "bad int value " + text(b, from, to);
+            }
+            v = v * 10 + (b[i] - '0');
+        }
+        v = negative ? -v : v;
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            return "bad int value " + text(b, from, to);
+        }
+        ((IntColumn) c).add((int) v);
+        return null;
+    }
+
+    private static boolean matches(byte[] b, int from, byte[] word) {
+        for (int i = 0; i < word.length; i++) {
+            if (b[from + i] != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String text(byte[] b, int from, int to) {
+        return new String(b, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    // Offset just past the end of the line that pos is in, or size.
+    private static long nextLine(FileChannel ch, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        while (pos < size) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static byte[] read(FileChannel ch, long pos, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(n);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                break;
+            }
+        }
+        return buf.array();
+    }
+}
@@ -0,0 +1,76 @@
+package db;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A copy of the whole database kept next to its write-ahead log, taken
+ * whenever a table is stored, after which the log is emptied. Without it
+ * the log would replay a load against a file a later store rewrote. The
+ * tables are kept as delta segments, see DeltaStore, so a checkpoint only
+ * writes the rows inserted since the last one. The catalog lists the
+ * tables, one "table name" line each, then the commands that make the
+ * materialized views and indexes again. It is replaced atomically once
+ * the segments are written.
+ */
+class Checkpoint implements AutoCloseable {
+
+    private static final String CATALOG = "catalog";
+
+    private final Path dir;
+    private final DeltaStore segments;
+    // The tables of the last catalog.
+    private HashSet<String> stored = new HashSet<>();
+
+    Checkpoint(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        this.dir = dir;
+        segments = new DeltaStore(dir);
+    }
+
+    // Makes the database the catalog describes, if there is one, in db.
+    void restore(Database db) throws IOException {
+        Path file = dir.resolve(CATALOG);
+        if (!Files.exists(file)) {
+            return;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.startsWith("table ")) {
+                String name = line.substring("table ".length());
+                db.restore(name, segments.load(name));
+                stored.add(name);
+            } else if (!line.isEmpty()) {
+                db.redo(line);
+            }
+        }
+    }
+
+    // Writes tables, which are all but the materialized views, and a catalog that makes the rest of
+    // the database with commands.
+    void write(Map<String, Table> tables, List<String> commands) throws IOException {
+        StringBuilder catalog = new StringBuilder();
+        for (Map.Entry<String, Table> e : tables.entrySet()) {
+            segments.store(e.getKey(), e.getValue(), e.getValue().snapshot());
+            catalog.append("table ").append(e.getKey()).append('\n');
+        }
+        for (String c : commands) {
+            catalog.append(c).append('\n');
+        }
+        DeltaStore.replace(dir.resolve(CATALOG), catalog.toString());
+        for (String name : stored) {
+            if (!tables.containsKey(name)) {
+                segments.drop(name);
+            }
+        }
+        stored = new HashSet<>(tables.keySet());
+    }
+
+    public void close() {
+        segments.close();
+    }
+}
@@ -0,0 +1,219 @@
+package db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * One typed column of a table. Literals are parsed once when they are
+ * appended and rendered back to the same text form on output; NOVALUE
+ * entries are tracked in a bitmap next to the values.
+ */
+abstract class Column {
+
+    static final String NOVALUE = "NOVALUE";
+
+    protected BitSet novalue = new BitSet();
+    protected int size;
+    // Set once a snapshot shares the NOVALUE bitmap, which is then copied before it is changed.
+    private boolean shared;
+
+    static Column of(String type) {
+        if (type.equals("int")) {
+            return new IntColumn();
+        } else if (type.equals("float")) {
+            return new FloatColumn();
+        } else if (type.equals("string")) {
+            return new StringColumn();
+        }
+        throw new RuntimeException("Invalid column type.");
+    }
+
+    // Infers the type of a literal the same way the insert syntax does.
+    static String typeOf(String literal) {
+        if (literal.contains("'")) {
+            return "string";
+        } else if (literal.contains(".")) {
+            return "float";
+        }
+        return "int";
+    }
+
+    abstract String type();
+
+    abstract void appendValue(String literal);
+
+    abstract void appendFrom(Column src, int row);
+
+    abstract String renderValue(int row);
+
+    // The value at row boxed as an Integer, Float or String, used as an index key.
+    abstract Object valueAt(int row);
+
+    abstract boolean sameValue(int row, Column other, int other_row);
+
+    // Hash of the value at row, consistent with sameValue across columns of one type.
+    abstract int hashValue(int row);
+
+    // Orders values of one type; NOVALUE sorts before everything else.
+    abstract int compareValue(int row, Column other, int other_row);
+
+    int size() {
+        return size;
+    }
+
+    boolean isNoValue(int row) {
+        return novalue.get(row);
+    }
+
+    void append(String literal) {
+        if (literal.equals(NOVALUE)) {
+            appendNoValue();
+        } else {
+            appendValue(literal);
+        }
+    }
+
+    void appendNoValue() {
+        unshare();
+        novalue.set(size);
+        appendDefault();
+    }
+
+    abstract void appendDefault();
+
+    // A read-only column holding the first rows of this one. It shares the storage of this column:
+    // later appends only write past its end or into freshly grown arrays, so it never changes.
+    Column snapshot(int rows) {
+        Column c = share();
+        c.size = rows;
+        if (rows < size) {
+            c.novalue = novalue.get(0, rows);
+        } else {
+            c.novalue = novalue;
+            shared = true;
+        }
+        return c;
+    }
+
+    // A column of the same type referencing the current value arrays.
+    abstract Column share();
+
+    private void unshare() {
+        if (shared) {
+            novalue = BitSet.valueOf(novalue.toLongArray());
+            shared = false;
+        }
+    }
+
+    float floatAt(int row) {
+        throw new RuntimeException(type() + " column is not numeric");
+    }
+
+    String render(int row) {
+        if (novalue.get(row)) {
+            return NOVALUE;
+        }
+        return renderValue(row);
+    }
+
+    Column gather(int[] ids) {
+        return gather(ids, ids.length);
+    }
+
+    Column gather(int[] ids, int n) {
+        Column ret = Column.of(type());
+        for (int i = 0; i < n; i++) {
+            ret.appendFrom(this, ids[i]);
+        }
+        return ret;
+    }
+
+    // The NOVALUE bitmap of the rows ids[0..n) of this column.
+    protected BitSet gatherNoValues(int[] ids, int n) {
+        BitSet ret = new BitSet();
+        if (!novalue.isEmpty()) {
+            for (int i = 0; i < n; i++) {
+                if (novalue.get(ids[i])) {
+                    ret.set(i);
+                }
+            }
+        }
+        return ret;
+    }
+
+    // Writes the NOVALUE bitmap followed by the values in the binary table format.
+    void write(FileChannel ch) throws IOException {
+        long[] words = novalue.toLongArray();
+        ByteBuffer buf = buffer(4 + 8 * words.length);
+        buf.putInt(words.length);
+        for (long w : words) {
+            buf.putLong(w);
+        }
+        writeFully(ch, buf);
+        writeValues(ch);
+    }
+
+    abstract void writeValues(FileChannel ch) throws IOException;
+
+    static Column read(String type, ByteBuffer buf, int rows) {
+        buf = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long[] words = new long[buf.getInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buf.getLong();
+        }
+        Column c = Column.of(type);
+        c.readValues(buf, rows);
+        c.novalue = BitSet.valueOf(words);
+        c.size = rows;
+        return c;
+    }
+
+    abstract void readValues(ByteBuffer buf, int rows);
+
+    static ByteBuffer buffer(int bytes) {
+        return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    // Joins columns of one type computed for consecutive row ranges.
+    static Column concat(List<Column> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        Column ret = Column.of(parts.get(0).type());
+        for (Column part : parts) {
+            ret.appendAll(part);
+        }
+        return ret;
+    }
+
+    void appendAll(Column src) {
+        for (int i = 0; i < src.size(); i++) {
+            appendFrom(src, i);
+        }
+    }
+
+    // Marks the NOVALUE rows of src as appended at offset.
+    protected void appendNoValues(Column src, int offset) {
+        unshare();
+        for (int i = src.novalue.nextSetBit(0); i >= 0; i = src.novalue.nextSetBit(i + 1)) {
+            novalue.set(offset + i);
+        }
+    }
+
+    void truncate(int n) {
+        unshare();
+        novalue.clear(n, Math.max(n, size));
+        size = n;
+    }
+}
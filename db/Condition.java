@@ -0,0 +1,123 @@
+package db;
+
+import java.util.Collection;
+
+/**
+ * A comparison in a where clause, e.g. {@code x > 3} or {@code a + b == c}.
+ */
+class Condition {
+
+    final Expr left;
+    final String op;
+    final Expr right;
+
+    Condition(Expr left, String op, Expr right) {
+        this.left = left;
+        this.op = op;
+        this.right = right;
+    }
+
+    Condition bind(String[] params) {
+        return new Condition(left.bind(params), op, right.bind(params));
+    }
+
+    void columns(Collection<String> out) {
+        left.columns(out);
+        right.columns(out);
+    }
+
+    // Returns the ids, in order, of the rows that satisfy the condition.
+    int[] filter(Table t, int[] ids) {
+        Kernel l = left.compile(t);
+        Kernel r = right.compile(t);
+        boolean is_string = l.type.equals("string");
+        if (is_string != r.type.equals("string")) {
+            throw new RuntimeException("can't compare string and non-string");
+        }
+        int lm = mode(left, l, t);
+        int rm = mode(right, r, t);
+        Column x = operand(lm, l, t, ids);
+        Column y = operand(rm, r, t, ids);
+        IntList ret = new IntList();
+        if (is_string) {
+            StringColumn a = (StringColumn) x;
+            StringColumn b = (StringColumn) y;
+            for (int i = 0; i < ids.length; i++) {
+                int p = index(lm, ids, i);
+                int q = index(rm, ids, i);
+                if (!a.isNoValue(p) && !b.isNoValue(q) && test(a.get(p).compareTo(b.get(q)))) {
+                    ret.add(ids[i]);
+                }
+            }
+        } else if (x instanceof IntColumn && y instanceof IntColumn) {
+            int[] a = ((IntColumn) x).values();
+            int[] b = ((IntColumn) y).values();
+            for (int i = 0; i < ids.length; i++) {
+                int p = index(lm, ids, i);
+                int q = index(rm, ids, i);
+                if (!x.isNoValue(p) && !y.isNoValue(q) && test(Integer.compare(a[p], b[q]))) {
+                    ret.add(ids[i]);
+                }
+            }
+        } else {
+            for (int i = 0; i < ids.length; i++) {
+                int p = index(lm, ids, i);
+                int q = index(rm, ids, i);
+                if (x.isNoValue(p) || y.isNoValue(q)) {
+                    continue;
+                }
+                float fa = x.floatAt(p);
+                float fb = y.floatAt(q);
+                if (test(fa < fb ? -1 : (fa == fb ? 0 : 1))) {
+                    ret.add(ids[i]);
+                }
+            }
+        }
+        return ret.toArray();
+    }
+
+    boolean test(int c) {
+        if (op.equals("==")) {
+            return c == 0;
+        } else if (op.equals("!=")) {
+            return c != 0;
+        } else if (op.equals("<=")) {
+            return c <= 0;
+        } else if (op.equals(">=")) {
+            return c >= 0;
+        } else if (op.equals("<")) {
+            return c < 0;
+        }
+        return c > 0;
+    }
+
+    private static final int IN_PLACE = 0;
+    private static final int ONCE = 1;
+    private static final int EVALUATED = 2;
+
+    // Columns are read in place and literals once, anything else, including the columns of a
+    // view, is evaluated for the ids first.
+    private static int mode(Expr e, Kernel k, Table t) {
+        if (e instanceof Expr.ColumnRef && t.isMaterialized(((Kernel.Ref) k).column)) {
+            return IN_PLACE;
+        }
+        return e instanceof Expr.Literal ? ONCE : EVALUATED;
+    }
+
+    private static Column operand(int mode, Kernel k, Table t, int[] ids) {
+        if (mode == IN_PLACE) {
+            return t.data(((Kernel.Ref) k).column);
+        } else if (mode == ONCE) {
+            return k.eval(t, new int[1]);
+        }
+        return k.eval(t, ids);
+    }
+
+    private static int index(int mode, int[] ids, int i) {
+        return mode == IN_PLACE ? ids[i] : mode == ONCE ? 0 : i;
+    }
+
+    public String toString() {
+        return left + " " + op + " " + right;
+    }
+}
@@ -1,43 +1,160 @@
 package db;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-public class Database {
-
-    private HashMap<String, Table> tables;
-
-    // Various common constructs, simplifies parsing.
-    private static final String REST = "\\s*(.*)\\s*", COMMA = "\\s*,\\s*", AND = "\\s+and\\s+";
-
-    // Stage 1 syntax, contains the command name.
-    private static final Pattern CREATE_CMD = Pattern.compile("create table " + REST),
-            LOAD_CMD = Pattern.compile("load " + REST),
-            STORE_CMD = Pattern.compile("store " + REST),
-            DROP_CMD = Pattern.compile("drop table " + REST),
-            INSERT_CMD = Pattern.compile("insert into " + REST),
-            PRINT_CMD = Pattern.compile("print " + REST),
-            SELECT_CMD = Pattern.compile("select " + REST);
-
-    // Stage 2 syntax, contains the clauses of commands.
-    private static final Pattern CREATE_NEW = Pattern
-            .compile("(\\S+)\\s+\\(\\s*(\\S+\\s+\\S+\\s*" + "(?:,\\s*\\S+\\s+\\S+\\s*)*)\\)"),
-            SELECT_CLS = Pattern
-                    .compile("([^,]+?(?:,[^,]+?)*)\\s+from\\s+"
-                            + "(\\S+\\s*(?:,\\s*\\S+\\s*)*)(?:\\s+where\\s+"
-                            + "([\\w\\s+\\-*/'<>=!.]+?(?:\\s+and\\s+"
-                            + "[\\w\\s+\\-*/'<>=!.]+?)*))?"),
-            CREATE_SEL = Pattern.compile("(\\S+)\\s+as select\\s+" + SELECT_CLS.pattern()),
-            INSERT_CLS = Pattern.compile("(\\S+)\\s+values\\s+(.+?" + "\\s*(?:,\\s*.+?\\s*)*)");
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class Database implements AutoCloseable {
+
+    // When a commit to the write-ahead log counts as done, see Wal.
+    public enum SyncPolicy {
+        EVERY_COMMIT, BATCHED, INTERVAL
+    }
+
+    private static final int PLAN_CACHE_SIZE = 256;
+
+    // Statements that change a table hold the stripe of its name, so writers of different tables run at once.
+    private static final int STRIPES = 64;
+
+    private ConcurrentHashMap<String, Table> tables;
+
+    // Index name to the name of the table it belongs to.
+    private ConcurrentHashMap<String, String> indexes;
+
+    // Parsed statements keyed by their normalized text, least recently used first.
+    private LinkedHashMap<String, Plan> plans;
+
+    private Wal wal;
+
+    // The copy of the database the log starts from, see Checkpoint.
+    private Checkpoint checkpoint;
+
+    // Table name to its version, which changes whenever the table does. Versions come from one
+    // clock so that a dropped and recreated table never repeats one.
+    private final ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+
+    private final ResultCache results = new ResultCache();
+
+    private final DeltaStore deltas = new DeltaStore();
+
+    // What the bulk loader reported for the last text table loaded, shown by stats.
+    private volatile String last_load = "bulk loader: no table loaded";
+
+    // Materialized views by name, refreshed whenever a table they read changes.
+    private final ConcurrentHashMap<String, MaterializedView> views = new ConcurrentHashMap<>();
+
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    private static class Plan {
+        final Statement statement;
+        final int params;
+
+        Plan(Statement statement, int params) {
+            this.statement = statement;
+            this.params = params;
+        }
+    }
 
     public Database() {
-        tables = new HashMap<String, Table>();
+        tables = new ConcurrentHashMap<String, Table>();
+        indexes = new ConcurrentHashMap<String, String>();
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        plans = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+                return size() > PLAN_CACHE_SIZE;
+            }
+        };
+    }
+
+    // Opens a database that logs its changes to walFile, after replaying what the log already holds.
+    public Database(String walFile, SyncPolicy policy) throws IOException {
+        this(walFile, policy, policy == SyncPolicy.BATCHED ? 2 : 100);
+    }
+
+    // millis is the batching window for BATCHED and the sync interval for INTERVAL.
+    public Database(String walFile, SyncPolicy policy, long millis) throws IOException {
+        this();
+        checkpoint = new Checkpoint(Paths.get(walFile + ".ckpt"));
+        checkpoint.restore(this);
+        wal = Wal.open(new File(walFile).toPath(), policy, millis, this::redo);
+    }
+
+    void redo(String command) {
+        String result = execute(new Parser(Lexer.tokenize(command)).parse(), new String[0]);
+        if (result.startsWith("ERROR")) {
+            System.err.println("wal replay: " + command + ": " + result);
+        }
+    }
+
+    public void close() throws IOException {
+        for (Table t : tables.values()) {
+            t.close();
+        }
+        deltas.close();
+        if (wal != null) {
+            wal.close();
+            checkpoint.close();
+        }
+    }
+
+    // Puts a table of the checkpoint back.
+    void restore(String name, Table t) {
+        putTable(name, t);
+    }
+
+    // Writes a checkpoint of every table and, once it is durable, empties the log. Views and
+    // indexes are kept as the commands that make them, views after the views they read.
+    private void checkpoint() throws IOException {
+        HashMap<String, Table> stored = new HashMap<String, Table>();
+        for (Map.Entry<String, Table> e : tables.entrySet()) {
+            if (!views.containsKey(e.getKey())) {
+                stored.put(e.getKey(), e.getValue());
+            }
+        }
+        ArrayList<String> commands = new ArrayList<String>();
+        TreeSet<String> made = new TreeSet<String>();
+        for (String name : views.keySet()) {
+            createCommands(name, made, commands);
+        }
+        for (Map.Entry<String, String> e : indexes.entrySet()) {
+            Table t = tables.get(e.getValue());
+            for (Index idx : t == null ? new ArrayList<Index>() : t.indexes()) {
+                if (idx.name.equals(e.getKey())) {
+                    commands.add("create index " + idx.name + " on " + e.getValue() + " (" + idx.column
+                            + ") using " + idx.kind());
+                }
+            }
+        }
+        checkpoint.write(stored, commands);
+        wal.truncate();
+    }
+
+    private void createCommands(String name, TreeSet<String> made, ArrayList<String> commands) {
+        MaterializedView v = views.get(name);
+        if (v == null || !made.add(name)) {
+            return;
+        }
+        for (String table : v.select.tables) {
+            createCommands(table, made, commands);
+        }
+        commands.add("create materialized view " + name + " as " + v.select);
     }
 
     public static void main(String[] args) {
@@ -55,191 +172,783 @@ public class Database {
         db.transact("print t5");
     }
 
+    // Number of threads used for scans, filters, projections and join probes.
+    public static void setParallelism(int threads) {
+        Parallel.setParallelism(threads);
+    }
+
+    // Inputs with fewer rows than this are processed on the calling thread.
+    public static void setParallelThreshold(int rows) {
+        Parallel.setThreshold(rows);
+    }
+
+    // Sorts whose keys take more than this many bytes are spilled to temp files.
+    public static void setSortMemory(long bytes) {
+        Sort.setBudget(bytes);
+    }
+
+    // Keeps the output of selects up to this many bytes, 0 (the default) turns the cache off.
+    public void setResultCacheSize(long bytes) {
+        results.setBudget(bytes);
+    }
+
+    public String resultCacheStats() {
+        return results.stats();
+    }
+
+    // Bytes of off-heap frames that paged tables are read through, shared by all databases.
+    public static void setBufferPoolSize(long bytes) {
+        BufferPool.setSize(bytes);
+    }
+
+    public static String bufferPoolStats() {
+        return BufferPool.stats();
+    }
+
+    // Collects latency histograms and row counts, see Metrics; off by default.
+    public static void setMetrics(boolean on) {
+        Metrics.setEnabled(on);
+    }
+
     public String transact(String query) {
-        Matcher m;
+        StringWriter out = new StringWriter();
         try {
-            if ((m = CREATE_CMD.matcher(query)).matches()) {
-                return createTable(m.group(1));
-            } else if ((m = LOAD_CMD.matcher(query)).matches()) {
-                return load(m.group(1));
-            } else if ((m = STORE_CMD.matcher(query)).matches()) {
-                return store(m.group(1));
-            } else if ((m = DROP_CMD.matcher(query)).matches()) {
-                return dropTable(m.group(1));
-            } else if ((m = INSERT_CMD.matcher(query)).matches()) {
-                return insertRow(m.group(1));
-            } else if ((m = PRINT_CMD.matcher(query)).matches()) {
-                return print(m.group(1));
-            } else if ((m = SELECT_CMD.matcher(query)).matches()) {
-                return select(m.group(1));
-            } else {
-                return "ERROR: Malformed query: " + query + "\n";
+            transact(query, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    // Runs a command and streams its output to out, returns whether anything was written.
+    public boolean transact(String query, Writer out) throws IOException {
+        long start = Metrics.start();
+        long bytes = start == Metrics.OFF ? -1 : Metrics.allocatedBytes();
+        Statement s;
+        try {
+            s = bind(query);
+        } catch (RuntimeException e) {
+            Metrics.error();
+            return write(out, "ERROR: " + e.getMessage() + "\n");
+        }
+        try {
+            return run(s, out);
+        } finally {
+            Metrics.command(start, bytes);
+        }
+    }
+
+    public ResultSet query(String query) {
+        return query(bind(query));
+    }
+
+    public ResultSet query(String query, int offset, int limit) {
+        return query(bind(query)).page(offset, limit);
+    }
+
+    ResultSet query(Statement s) {
+        ResultSet rs = s.open(this);
+        if (rs == null) {
+            throw new RuntimeException("not a query");
+        }
+        return rs;
+    }
+
+    // Literals become parameters so that commands differing only in values share a plan.
+    private Statement bind(String query) {
+        long start = Metrics.start();
+        ArrayList<Token> tokens = Lexer.tokenize(query);
+        ArrayList<String> literals = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            Token t = tokens.get(i);
+            if (t.isLiteral()) {
+                literals.add(t.text);
+                tokens.set(i, new Token(Token.Kind.PARAM, "?", t.pos));
+            }
+        }
+        Plan plan = plan(tokens);
+        if (plan.params != literals.size()) {
+            throw new RuntimeException("unbound parameter in " + query);
+        }
+        Metrics.end(start, Metrics.Phase.PARSE);
+        start = Metrics.start();
+        Statement ret = plan.statement.bind(literals.toArray(new String[0]));
+        Metrics.end(start, Metrics.Phase.PLAN);
+        return ret;
+    }
+
+    // Appends rows of Java values to a table in batches, logged and seen by queries like inserts.
+    public Appender appender(String table) {
+        Table t = tables.get(table);
+        if (t == null) {
+            throw new RuntimeException(table + " table doesn't exist");
+        }
+        return new Appender(this, table, t.header());
+    }
+
+    public PreparedQuery prepare(String query) {
+        Plan plan = plan(Lexer.tokenize(query));
+        return new PreparedQuery(this, plan.statement, plan.params);
+    }
+
+    private Plan plan(ArrayList<Token> tokens) {
+        StringBuilder key = new StringBuilder();
+        for (Token t : tokens) {
+            key.append(t.text).append(' ');
+        }
+        Plan plan;
+        synchronized (plans) {
+            plan = plans.get(key.toString());
+        }
+        if (plan == null) {
+            Parser p = new Parser(tokens);
+            plan = new Plan(p.parse(), p.params());
+            synchronized (plans) {
+                plans.put(key.toString(), plan);
             }
+        }
+        return plan;
+    }
+
+    String execute(Statement plan, String[] params) {
+        long start = Metrics.start();
+        long bytes = start == Metrics.OFF ? -1 : Metrics.allocatedBytes();
+        StringWriter out = new StringWriter();
+        try {
+            run(plan.bind(params), out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            Metrics.command(start, bytes);
+        }
+        return out.toString();
+    }
+
+    private boolean run(Statement s, Writer out) throws IOException {
+        try {
+            if (s instanceof Statement.Select && results.enabled()) {
+                return write(out, cachedSelect((Statement.Select) s));
+            }
+            ResultSet rs = s.open(this);
+            if (rs == null) {
+                return write(out, change(s));
+            }
+            long start = Metrics.start();
+            try {
+                TableWriter.write(rs, out);
+            } finally {
+                rs.close();
+            }
+            Metrics.end(start, Metrics.Phase.RENDER, 1, "render", null, rs.rows(), rs.rows());
+            return true;
         } catch (RuntimeException e) {
+            Metrics.error();
             e.printStackTrace();
-            return "ERROR: " + e.getMessage();
+            return write(out, "ERROR: " + e.getMessage());
         }
     }
 
-    private String createTable(String expr) {
-        Matcher m;
-        if ((m = CREATE_NEW.matcher(expr)).matches()) {
-            return createNewTable(m.group(1), m.group(2).split(COMMA));
-        } else if ((m = CREATE_SEL.matcher(expr)).matches()) {
-            return createSelectedTable(m.group(1), m.group(2), m.group(3), m.group(4));
-        } else {
-            return "ERROR: Malformed create: " + expr + "\n";
+    // The versions are read before the tables, so a result is never kept under a version older than its data.
+    private String cachedSelect(Statement.Select select) {
+        StringBuilder key = new StringBuilder();
+        for (String name : select.tables) {
+            key.append(name).append('@').append(versions.getOrDefault(name, 0L)).append(' ');
+        }
+        key.append(select);
+        String ret = results.get(key.toString());
+        if (ret == null) {
+            ret = select(select);
+            results.put(key.toString(), ret);
+        }
+        return ret;
+    }
+
+    // Called after a table has changed.
+    private void changed(String name) {
+        versions.put(name, clock.incrementAndGet());
+        refreshViews(name);
+    }
+
+    // Brings the views that read name up to date, which changes the views that read them in turn.
+    private void refreshViews(String name) {
+        for (MaterializedView v : views.values()) {
+            if (v.reads(name)) {
+                refresh(v);
+            }
+        }
+    }
+
+    // The view is published under the lock its refresh takes, so refreshes of one view by inserts
+    // into different tables are published in the order they ran. Views are locked in the order
+    // they read each other, which has no cycles.
+    private void refresh(MaterializedView v) {
+        synchronized (v) {
+            Table t;
+            try {
+                t = v.refresh(this);
+            } catch (RuntimeException e) {
+                // A table of the view is gone; the view is computed anew once it is back.
+                return;
+            }
+            if (t == null) {
+                changed(v.name);
+            } else {
+                replace(v.name, t);
+            }
+        }
+    }
+
+    // Runs a statement holding the stripes of the names it writes, taken in order so that two
+    // statements never wait on each other. The log record is appended under the same stripes,
+    // which keeps its order that of execution; waiting for the commit happens after they are released.
+    // A load or store with a log holds every stripe, as the checkpoint after it reads every table;
+    // a load isn't logged, since replaying it would read the file as it is then. Once the log has
+    // failed, the change it failed to take and every later one end in an error.
+    private String change(Statement s) {
+        TreeSet<Integer> held = new TreeSet<Integer>();
+        String[] writes = s.writes(this);
+        boolean checkpoints = wal != null && (s instanceof Statement.Load || s instanceof Statement.Store);
+        if (checkpoints) {
+            for (int i = 0; i < STRIPES; i++) {
+                held.add(i);
+            }
+        } else if (writes != null) {
+            for (String name : writes) {
+                held.add(Math.floorMod(name.hashCode(), STRIPES));
+            }
+        }
+        String result;
+        long lsn = -1;
+        for (int i : held) {
+            stripes[i].lock();
+        }
+        try {
+            if (wal != null) {
+                wal.check();
+            }
+            result = s.execute(this);
+            String redo = wal == null ? null : s.redo();
+            if (redo != null && !result.startsWith("ERROR")) {
+                lsn = wal.append(redo);
+            } else if (checkpoints && !result.startsWith("ERROR")) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            return "ERROR: checkpoint failed: " + e.getMessage();
+        } finally {
+            for (int i : held.descendingSet()) {
+                stripes[i].unlock();
+            }
+        }
+        if (lsn >= 0) {
+            wal.commit(lsn);
         }
+        return result;
     }
 
-    private String createNewTable(String name, String[] cols) {
-        name = name.trim();
+    private static boolean write(Writer out, String s) throws IOException {
+        out.write(s);
+        return s.length() > 0;
+    }
+
+    String createNewTable(String name, String[] cols) {
         Table t = new Table(cols);
-        tables.put(name, t);
+        putTable(name, t);
+        return "";
+    }
+
+    String createSelectedTable(String name, Statement.Select select) {
+        Table t = selectTable(select);
+        putTable(name, t);
         return "";
     }
 
-    private String createSelectedTable(String name, String exprs, String tbls, String conds) {
-        name = name.trim();
-        if (exprs == null) {
-            exprs = "";
+    String createView(String name, Statement.Select select) {
+        for (String table : select.tables) {
+            if (dependsOn(table, name)) {
+                return "ERROR: view " + name + " would read itself";
+            }
         }
-        if (tbls == null) {
-            tbls = "";
+        MaterializedView v = new MaterializedView(name, select);
+        putTable(name, v.refresh(this));
+        views.put(name, v);
+        // Takes in the rows inserted before the view was registered.
+        refresh(v);
+        return "";
+    }
+
+    // Whether table is name or a view that reads it, directly or through other views.
+    private boolean dependsOn(String table, String name) {
+        if (table.equals(name)) {
+            return true;
         }
-        if (conds == null) {
-            conds = "";
+        MaterializedView v = views.get(table);
+        if (v != null) {
+            for (String t : v.select.tables) {
+                if (dependsOn(t, name)) {
+                    return true;
+                }
+            }
         }
-        String[] expressions = exprs.split(COMMA);
-        String[] tableNames = tbls.split(COMMA);
-        String[] conditions = conds.split(AND);
-        Table t = null;
-        for (int i = 0; i < tableNames.length; i++) {
-            tableNames[i] = tableNames[i].trim();
-            if (t == null) {
-                t = this.tables.get(tableNames[i]);
-            } else {
-                t = t.merge(this.tables.get(tableNames[i]));
+        return false;
+    }
+
+    // Without a format, loads whichever of the text, binary, paged and delta files was written last.
+    String load(String name, String format) {
+        File bin = new File(name + BinaryTable.EXTENSION);
+        File txt = new File(name + ".tbl");
+        File pages = new File(name + PageFile.EXTENSION);
+        if (format == null) {
+            String[] formats = {"text", "binary", "paged", "delta"};
+            File[] files = {txt, bin, pages, new File(name + DeltaStore.EXTENSION)};
+            format = "text";
+            long newest = Long.MIN_VALUE;
+            for (int i = 0; i < files.length; i++) {
+                if (files[i].exists() && files[i].lastModified() >= newest) {
+                    format = formats[i];
+                    newest = files[i].lastModified();
+                }
+            }
+        }
+        if (format.equals("text")) {
+            return load(name);
+        } else if (format.equals("paged")) {
+            return loadPaged(name, pages, txt);
+        } else if (format.equals("delta")) {
+            try {
+                putTable(name, deltas.load(name));
+            } catch (NoSuchFileException e) {
+                return "ERROR: couldn't find table " + name + " (LOAD).";
+            } catch (IOException e) {
+                return "ERROR: couldn't read table " + name + " (LOAD).";
             }
+            return "";
         }
-        for (int k = 0; k < conditions.length; k++) {
-            conditions[k] = conditions[k].trim();
-            t = t.select(expressions, conditions[k]);
+        try {
+            putTable(name, BinaryTable.read(bin.toPath()));
+        } catch (NoSuchFileException e) {
+            return "ERROR: couldn't find table " + name + " (LOAD).";
+        } catch (IOException e) {
+            return "ERROR: couldn't read table " + name + " (LOAD).";
         }
-        this.tables.put(name, t);
         return "";
     }
 
-    private String load(String name) {
-        name = name.trim();
+    // Loads a text table with the parallel bulk loader, which skips the rows that don't match the
+    // header; how it went is kept for stats.
+    String load(String name) {
+        BulkLoader loaded;
         try {
-            BufferedReader br = new BufferedReader(new FileReader(name + ".tbl"));
-            String header = br.readLine();
-            if (header == null) {
-                br.close();
-                return "ERROR: missing header";
-            }
-            String[] columns = header.split(COMMA);
-            Table table = new Table(columns);
-            String row;
-            while ((row = br.readLine()) != null) {
-                row = row.trim();
-                if (row.equals("")) {
-                    break;
-                }
-                table.insert(new Row(row.split(COMMA)));
-            }
-            tables.put(name, table);
-            br.close();
-        } catch (FileNotFoundException e) {
+            loaded = BulkLoader.load(new File(name + ".tbl").toPath());
+        } catch (NoSuchFileException e) {
             return "ERROR: couldn't find table " + name + " (LOAD).";
         } catch (IOException e) {
-            return "ERROR: ??";
+            return "missing header".equals(e.getMessage()) ? "ERROR: missing header" : "ERROR: ??";
         }
+        loaded.table.statistics();
+        putTable(name, loaded.table);
+        last_load = "bulk loader: " + name + " " + loaded.report();
         return "";
     }
 
-    private String store(String name) {
-        name = name.trim();
+    // Opens a paged table, first writing its page file from the text one if there is none.
+    private String loadPaged(String name, File pages, File txt) {
         try {
-            if (!tables.containsKey(name)) {
-                return "ERROR: table does not exist.";
+            if (pages.exists() || !txt.exists()) {
+                putTable(name, Table.paged(PageFile.open(pages.toPath())));
+                return "";
             }
-            PrintStream pr = new PrintStream(name + ".tbl");
-            if (tables.get(name) == null) {
-                pr.close();
-                return "ERROR: no table to store";
+            BulkLoader loaded = BulkLoader.load(txt.toPath(), pages.toPath());
+            loaded.table.statistics();
+            putTable(name, loaded.table);
+            last_load = "bulk loader: " + name + " " + loaded.report();
+            return "";
+        } catch (NoSuchFileException e) {
+            return "ERROR: couldn't find table " + name + " (LOAD).";
+        } catch (IOException e) {
+            return "missing header".equals(e.getMessage()) ? "ERROR: missing header"
+                    : "ERROR: couldn't read table " + name + " (LOAD).";
+        }
+    }
+
+    // Stores in the text format unless the binary, paged or delta one is asked for. Storing the
+    // same table again in the delta format only writes the rows inserted since.
+    String store(String name, String format) {
+        if (format == null || format.equals("text")) {
+            return store(name);
+        }
+        Table t = tables.get(name);
+        if (t == null) {
+            return "ERROR: table does not exist.";
+        }
+        Table snapshot = t.snapshot();
+        try {
+            if (format.equals("delta")) {
+                deltas.store(name, t, snapshot);
+            } else if (format.equals("paged")) {
+                PageFile.write(snapshot, new File(name + PageFile.EXTENSION).toPath());
+            } else {
+                BinaryTable.write(snapshot, new File(name + BinaryTable.EXTENSION).toPath());
             }
-            pr.println(tables.get(name));
-            pr.close();
-        } catch (FileNotFoundException e) {
-            return "ERROR: couldn't find table (STORE).";
+        } catch (IOException e) {
+            return "ERROR: couldn't write table (STORE).";
+        }
+        return "";
+    }
+
+    String store(String name) {
+        Table t = tables.get(name);
+        if (t == null) {
+            return "ERROR: table does not exist.";
+        }
+        try (Writer out = new BufferedWriter(new FileWriter(name + ".tbl"))) {
+            TableWriter.write(t.snapshot().cursor(), out);
+            out.write(System.lineSeparator());
+        } catch (IOException e) {
+            return "ERROR: couldn't write table (STORE).";
         }
         return "";
     }
 
-    private String dropTable(String name) {
-        name = name.trim();
-        if (tables.get(name) == null) {
+    String dropTable(String name) {
+        Table t = tables.remove(name);
+        if (t == null) {
             return "ERROR: no table to drop";
         }
+        views.remove(name);
+        changed(name);
+        t.close();
+
+        for (Index idx : t.indexes()) {
+            indexes.remove(idx.name);
+        }
+        return "";
+    }
+
+    String createIndex(String name, String tableName, String column, String kind) {
+        Table t = tables.get(tableName);
+        if (t == null) {
+            return "ERROR: " + tableName + " table doesn't exist";
+        }
+        if (indexes.putIfAbsent(name, tableName) != null) {
+            return "ERROR: index " + name + " already exists";
+        }
+        try {
+            t.createIndex(name, column, kind);
+        } catch (RuntimeException e) {
+            indexes.remove(name);
+            throw e;
+        }
+        return "";
+    }
+
+    // The table an index is on, null if there is no such index.
+    String indexTable(String name) {
+        return indexes.get(name);
+    }
 
-        tables.remove(name);
+    String dropIndex(String name) {
+        String tableName = indexes.remove(name);
+        if (tableName == null) {
+            return "ERROR: no index to drop";
+        }
+        Table t = tables.get(tableName);
+        if (t != null) {
+            t.dropIndex(name);
+        }
         return "";
     }
 
-    private String insertRow(String expr) {
-        Matcher m = INSERT_CLS.matcher(expr);
-        if (!m.matches()) {
-            return "ERROR: Malformed insert: " + expr + "\n";
+    // Replaces a table, which is no longer maintained if it was a view.
+    private void putTable(String name, Table t) {
+        views.remove(name);
+        replace(name, t);
+    }
+
+    // Replaces a table, rebuilding the indexes of the old one that still apply.
+    private void replace(String name, Table t) {
+        Table old = tables.put(name, t);
+        changed(name);
+        if (old == null || old == t) {
+            return;
+        }
+        old.close();
+        for (Index idx : old.indexes()) {
+            if (t.hasColumn(idx.column)) {
+                t.createIndex(idx.name, idx.column, idx.kind());
+            } else {
+                indexes.remove(idx.name);
+            }
         }
-        String tableName = m.group(1);
-        String row = m.group(2);
-        return tables.get(tableName).insert(new Row(row));
     }
 
-    private String print(String name) {
-        name = name.trim();
-        Table t = tables.get(name);
+    String insertRows(String tableName, String[][] rows) {
+        Table t = tables.get(tableName);
         if (t == null) {
+            return "ERROR: " + tableName + " table doesn't exist";
+        } else if (views.containsKey(tableName)) {
+            return "ERROR: " + tableName + " is a materialized view";
+        }
+        String result = t.insert(rows);
+        if (result.isEmpty()) {
+            changed(tableName);
+        }
+        return result;
+    }
+
+    String appendRows(String tableName, Column[] data, int rows) {
+        Table t = tables.get(tableName);
+        if (t == null) {
+            return "ERROR: " + tableName + " table doesn't exist";
+        } else if (views.containsKey(tableName)) {
+            return "ERROR: " + tableName + " is a materialized view";
+        }
+        String result = t.append(data, rows);
+        if (result.isEmpty()) {
+            changed(tableName);
+        }
+        return result;
+    }
+
+    String print(String name) {
+        ResultSet rs = cursor(name);
+        if (rs == null) {
             return "ERROR: " + name + " table doesn't exist";
+        }
+        return render(rs);
+    }
+
+    String select(Statement.Select select) {
+        return render(cursor(select));
+    }
+
+    // Runs select with a trace of its operators, rendering them as a tree.
+    String explainAnalyze(Statement.Select select) {
+        long bytes = Metrics.allocatedBytes();
+        long start = System.nanoTime();
+        Metrics.Trace trace = Metrics.trace();
+        try {
+            select(select);
+        } finally {
+            Metrics.untrace();
+        }
+        long nanos = System.nanoTime() - start;
+        return trace.render(nanos, bytes < 0 ? -1 : Metrics.allocatedBytes() - bytes);
+    }
+
+    String stats(String action) {
+        if (action == null) {
+            return Metrics.report() + System.lineSeparator() + results.stats()
+                    + System.lineSeparator() + BufferPool.stats() + System.lineSeparator() + last_load;
+        } else if (action.equals("reset")) {
+            Metrics.reset();
         } else {
-            return t.toString();
+            Metrics.setEnabled(action.equals("on"));
         }
+        return "";
     }
 
-    private String select(String expr) {
-        Matcher m = SELECT_CLS.matcher(expr);
-        if (!m.matches()) {
-            return "ERROR: Malformed select: " + expr + "\n";
+    ResultSet cursor(String name) {
+        Table t = tables.get(name);
+        return t == null ? null : t.snapshot().cursor();
+    }
+
+    ResultSet cursor(Statement.Select select) {
+        ArrayList<Condition> rest = new ArrayList<>();
+        Table t = from(select, rest);
+        if (select.isAggregate()) {
+            t = aggregate(t, select, rest);
+            return t.cursor(Statement.Item.all(), new ArrayList<Condition>(), select);
         }
-        return select(m.group(1), m.group(2), m.group(3));
+        return t.cursor(select.items, rest, select);
     }
 
-    private String select(String exprs, String tbls, String conds) {
-        if (exprs == null) {
-            exprs = "";
+    private static String render(ResultSet rs) {
+        long start = Metrics.start();
+        StringWriter out = new StringWriter();
+        try {
+            TableWriter.write(rs, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            rs.close();
         }
-        if (tbls == null) {
-            tbls = "";
+        Metrics.end(start, Metrics.Phase.RENDER, 1, "render", null, rs.rows(), rs.rows());
+        return out.toString();
+    }
+
+    private static Table aggregate(Table t, Statement.Select select, ArrayList<Condition> rest) {
+        long start = Metrics.start();
+        Table ret = t.aggregate(select.items, select.groups, rest);
+        Metrics.end(start, Metrics.Phase.AGGREGATE, 1, "aggregate", select.items, t.size(), ret.size());
+        return ret;
+    }
+
+    private Table selectTable(Statement.Select select) {
+        ArrayList<Condition> rest = new ArrayList<>();
+        Table t = from(select, rest);
+        if (select.isAggregate()) {
+            t = aggregate(t, select, rest);
+            return t.select(Statement.Item.all(), new ArrayList<Condition>(), select);
         }
-        if (conds == null) {
-            conds = "";
+        return t.select(select.items, rest, select);
+    }
+
+    private Table from(Statement.Select select, ArrayList<Condition> rest) {
+        return from(select, snapshots(select), rest);
+    }
+
+    // Merges the tables of a select, given in its order, adding the conditions still to be applied to rest.
+    Table from(Statement.Select select, ArrayList<Table> from, ArrayList<Condition> rest) {
+        if (from.size() == 1) {
+            rest.addAll(select.conds);
+            scanned(select.tables.get(0), from.get(0));
+            return from.get(0);
         }
-        String[] expressions = exprs.split(COMMA);
-        String[] tableNames = tbls.split(COMMA);
-        String[] conditions = conds.split(AND);
-        Table t = null;
-        for (int i = 0; i < tableNames.length; i++) {
-            if (t == null) {
-                t = this.tables.get(tableNames[i]);
-            } else {
-                t = t.merge(this.tables.get(tableNames[i]));
+
+        // Merged out of order, every table carries the ids of its rows to put the result back in order.
+        Planner plan = new Planner(select, from);
+        boolean reordered = plan.isReordered();
+        String[] ids = new String[from.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "#" + i;
+            if (reordered) {
+                from.set(i, from.get(i).numbered(ids[i]));
             }
         }
-        for (int k = 0; k < conditions.length; k++) {
-            t = t.select(expressions, conditions[k]);
+        int first = plan.order[0];
+        Table t = filter(select.tables.get(first), from.get(first), plan.local.get(first));
+        for (int s = 1; s < plan.order.length; s++) {
+            int i = plan.order[s];
+            Table next = filter(select.tables.get(i), from.get(i), plan.local.get(i));
+            ArrayList<Condition> join = plan.joins.get(s);
+            String[] ran = new String[1];
+            long start = Metrics.start();
+            Table merged = t.merge(next, join, plan.algorithm[s], ran);
+            Metrics.end(start, Metrics.Phase.JOIN, 2, ran[0], join, (long) t.size() + next.size(), merged.size());
+            t = merged;
+        }
+        rest.addAll(plan.rest);
+        if (reordered) {
+            long start = Metrics.start();
+            t = t.inOrder(ids, plan.header);
+            Metrics.end(start, Metrics.Phase.SORT, 1, "restore order", select.tables, t.size(), t.size());
+        }
+        return t;
+    }
+
+    Table table(String name) {
+        Table ret = tables.get(name);
+        if (ret == null) {
+            throw new RuntimeException(name + " table doesn't exist");
+        }
+        return ret;
+    }
+
+    private ArrayList<Table> snapshots(Statement.Select select) {
+        ArrayList<Table> ret = new ArrayList<>();
+        for (String name : select.tables) {
+            ret.add(table(name).snapshot());
+        }
+        return ret;
+    }
+
+    // The plan of a select with the estimated rows of each operator, without running it.
+    String explain(Statement.Select select) {
+        ArrayList<Table> from = snapshots(select);
+        Metrics.Trace plan = new Metrics.Trace();
+        double merged;
+        double rows;
+        Planner planner = null;
+        ArrayList<Condition> rest = new ArrayList<>();
+        StringBuilder ret = new StringBuilder();
+        if (from.size() == 1) {
+            Table t = from.get(0);
+            plan.add(0, estimate("scan", select.tables.get(0), t.size(), t.size()));
+            rest.addAll(select.conds);
+            merged = t.size();
+            rows = merged;
+            Statistics st = rest.isEmpty() ? null : t.statistics();
+            for (Condition c : rest) {
+                rows *= Planner.selectivity(c, t, st);
+            }
+        } else {
+            planner = new Planner(select, from);
+            for (int s = 0; s < planner.order.length; s++) {
+                int i = planner.order[s];
+                Table t = from.get(i);
+                plan.add(0, estimate("scan", select.tables.get(i), t.size(), t.size()));
+                if (!planner.local.get(i).isEmpty()) {
+                    plan.add(1, estimate("filter", planner.local.get(i), t.size(), planner.scanned[i]));
+                }
+                if (s > 0) {
+                    plan.add(2, estimate(planner.algorithm[s], planner.joins.get(s),
+                            planner.merged[s - 1] + planner.scanned[i], planner.merged[s]));
+                }
+            }
+            merged = planner.merged[planner.order.length - 1];
+            if (planner.isReordered()) {
+                plan.add(1, estimate("restore order", select.tables, merged, merged));
+            }
+            rest.addAll(planner.rest);
+            rows = merged * Math.pow(Planner.UNKNOWN, rest.size());
+            ret.append(String.format("join order %s, estimated %.0f rows merged (%.0f as written)%n",
+                    order(select.tables, planner.order), planner.cost, planner.written_cost));
+        }
+        if (!rest.isEmpty()) {
+            plan.add(1, estimate("filter", rest, merged, rows));
+        }
+        if (select.isAggregate()) {
+            double groups = 1;
+            for (Expr g : select.groups) {
+                groups *= g instanceof Expr.ColumnRef ? distinct(from, planner, ((Expr.ColumnRef) g).name, rows) : rows;
+            }
+            groups = Math.max(select.groups.isEmpty() ? 1 : 0, Math.min(groups, rows));
+            plan.add(1, estimate("aggregate", select.items, rows, groups));
+            rows = groups;
+        }
+        if (!select.order.isEmpty() || select.limit != null || select.offset != null) {
+            double out = Math.max(0, rows - select.offset());
+            out = select.limit() < 0 ? out : Math.min(out, select.limit());
+            plan.add(1, estimate(select.order.isEmpty() ? "limit" : "sort",
+                    select.order.isEmpty() ? select.limit : select.order, rows, out));
+            rows = out;
+        }
+        plan.add(1, estimate("project", select.isAggregate() ? Statement.Item.all() : select.items, rows, rows));
+        return ret.append(plan.render()).toString().stripTrailing();
+    }
+
+    private static Metrics.Op estimate(String name, Object detail, double in, double out) {
+        return new Metrics.Op(name, detail, -1, Math.round(in), Math.round(out));
+    }
+
+    private static double distinct(ArrayList<Table> from, Planner planner, String column, double rows) {
+        if (planner != null) {
+            return planner.distinct(column, rows);
+        }
+        Table t = from.get(0);
+        int k = t.columnIndex(column);
+        return k == -1 ? rows : Math.max(1, Math.min(rows, t.statistics().distinct(k)));
+    }
+
+    private static String order(ArrayList<String> names, int[] order) {
+        StringBuilder ret = new StringBuilder();
+        for (int i : order) {
+            ret.append(ret.length() == 0 ? "" : ", ").append(names.get(i));
+        }
+        return ret.toString();
+    }
+
+    private static void scanned(String name, Table t) {
+        Metrics.end(Metrics.start(), Metrics.Phase.SCAN, 0, "scan", name, t.size(), t.size());
+    }
+
+    // The rows of a table of a merge that satisfy the conditions on its own columns.
+    private static Table filter(String name, Table t, ArrayList<Condition> conds) {
+        scanned(name, t);
+        if (conds.isEmpty()) {
+            return t;
         }
-        return t.toString();
+        return t.filter(conds);
     }
 }
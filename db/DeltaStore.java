@@ -0,0 +1,278 @@
+package db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores tables incrementally as segments in the binary table format: a
+ * base holding the rows of the first store, then one delta per later
+ * store holding the rows appended since. The manifest t.manifest lists
+ * the segments of table t, base first, one "file rows" line each. It is
+ * replaced atomically once the segments it adds are forced to disk, and
+ * segments it no longer lists are deleted only once the new manifest is,
+ * so after a crash it never lists a half-written or deleted one.
+ * Once a table has MAX_DELTAS deltas, a background thread merges its
+ * segments into a new base. Stores and compactions of one table take
+ * turns; neither blocks queries or inserts.
+ */
+class DeltaStore implements AutoCloseable {
+
+    static final String EXTENSION = ".manifest";
+
+    private static final int MAX_DELTAS = 8;
+
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "delta compactor");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Path dir;
+    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+    // Per table stored or loaded, the number of its rows the segments hold.
+    private final Map<Table, Integer> persisted = new WeakHashMap<>();
+
+    // Keeps the files in the working directory.
+    DeltaStore() {
+        this(Paths.get(""));
+    }
+
+    DeltaStore(Path dir) {
+        this.dir = dir;
+    }
+
+    // Writes the rows of table not yet in its segments as a delta, or all of them as a new base
+    // when the segments hold another table of the same name. rows is a snapshot of table.
+    void store(String name, Table table, Table rows) throws IOException {
+        boolean compact;
+        synchronized (lock(name)) {
+            Manifest m = Manifest.read(dir, name);
+            Integer stored;
+            synchronized (persisted) {
+                stored = persisted.get(table);
+            }
+            ArrayList<Path> obsolete = new ArrayList<>();
+            if (m != null && stored != null && stored == m.rows() && rows.size() >= stored) {
+                if (rows.size() == stored) {
+                    return;
+                }
+                Path delta = m.next();
+                BinaryTable.write(rows.rows(stored, rows.size()), delta);
+                m.add(delta, rows.size() - stored);
+            } else {
+                Manifest fresh = new Manifest(dir, name);
+                if (m != null) {
+                    fresh.seq = m.seq;
+                    obsolete.addAll(m.files);
+                }
+                Path base = fresh.next();
+                BinaryTable.write(rows, base);
+                fresh.add(base, rows.size());
+                m = fresh;
+            }
+            m.write();
+            delete(obsolete);
+            synchronized (persisted) {
+                persisted.put(table, rows.size());
+            }
+            compact = m.files.size() > MAX_DELTAS;
+        }
+        if (compact) {
+            compactor.submit(() -> compact(name));
+        }
+    }
+
+    // The table the segments of name hold, the deltas appended to the base.
+    Table load(String name) throws IOException {
+        synchronized (lock(name)) {
+            Manifest m = Manifest.read(dir, name);
+            if (m == null) {
+                throw new NoSuchFileException(name + EXTENSION);
+            }
+            Table t = read(m);
+            synchronized (persisted) {
+                persisted.put(t, t.size());
+            }
+            return t;
+        }
+    }
+
+    // Merges the segments of name into a new base. Tables stored or loaded before still count
+    // their rows as held, so their next store writes a delta against the new base.
+    void compact(String name) {
+        synchronized (lock(name)) {
+            try {
+                Manifest m = Manifest.read(dir, name);
+                if (m == null || m.files.size() < 2) {
+                    return;
+                }
+                Table t = read(m);
+                Manifest merged = new Manifest(dir, name);
+                merged.seq = m.seq;
+                Path base = merged.next();
+                BinaryTable.write(t, base);
+                merged.add(base, t.size());
+                merged.write();
+                delete(m.files);
+            } catch (IOException | RuntimeException e) {
+                // The manifest is only replaced once the new base is written, so the old one stands.
+                System.err.println("compaction of " + name + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Deletes the manifest of name and then its segments.
+    void drop(String name) throws IOException {
+        synchronized (lock(name)) {
+            Manifest m = Manifest.read(dir, name);
+            if (m != null) {
+                Files.deleteIfExists(dir.resolve(name + EXTENSION));
+                delete(m.files);
+            }
+        }
+    }
+
+    private static Table read(Manifest m) throws IOException {
+        Table t = BinaryTable.read(m.files.get(0));
+        for (int i = 1; i < m.files.size(); i++) {
+            Table delta = BinaryTable.read(m.files.get(i));
+            Column[] cols = new Column[delta.columnCount()];
+            for (int k = 0; k < cols.length; k++) {
+                cols[k] = delta.data(k);
+            }
+            String result = t.append(cols, delta.size());
+            if (!result.isEmpty()) {
+                throw new IOException("delta " + m.files.get(i) + " doesn't match its base");
+            }
+        }
+        if (t.size() != m.rows()) {
+            throw new IOException("segments of " + m.name + " hold " + t.size() + " rows, not " + m.rows());
+        }
+        return t;
+    }
+
+    private static void delete(List<Path> files) {
+        for (Path f : files) {
+            try {
+                Files.deleteIfExists(f);
+            } catch (IOException e) {
+                // A segment no manifest lists is never read again.
+            }
+        }
+    }
+
+    private Object lock(String name) {
+        return locks.computeIfAbsent(name, k -> new Object());
+    }
+
+    // Lets the compactions already asked for finish.
+    public void close() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The segments of a table. Segment files are numbered in the order they are written.
+    private static class Manifest {
+        final Path dir;
+        final String name;
+        final ArrayList<Path> files = new ArrayList<>();
+        final ArrayList<Integer> rows = new ArrayList<>();
+        int seq;
+
+        Manifest(Path dir, String name) {
+            this.dir = dir;
+            this.name = name;
+        }
+
+        static Manifest read(Path dir, String name) throws IOException {
+            Path file = dir.resolve(name + EXTENSION);
+            if (!Files.exists(file)) {
+                return null;
+            }
+            Manifest m = new Manifest(dir, name);
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length != 2) {
+                    throw new IOException("bad manifest line: " + line);
+                }
+                m.add(file.resolveSibling(parts[0]), Integer.parseInt(parts[1]));
+                String seg = parts[0].substring(0, parts[0].length() - BinaryTable.EXTENSION.length());
+                m.seq = Math.max(m.seq, Integer.parseInt(seg.substring(seg.lastIndexOf('.') + 1)) + 1);
+            }
+            return m;
+        }
+
+        int rows() {
+            int ret = 0;
+            for (int r : rows) {
+                ret += r;
+            }
+            return ret;
+        }
+
+        Path next() {
+            return dir.resolve(name + "." + seq++ + BinaryTable.EXTENSION);
+        }
+
+        void add(Path file, int n) {
+            files.add(file);
+            rows.add(n);
+        }
+
+        void write() throws IOException {
+            Path file = dir.resolve(name + EXTENSION);
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < files.size(); i++) {
+                text.append(files.get(i).getFileName()).append(' ').append(rows.get(i)).append('\n');
+            }
+            replace(file, text.toString());
+        }
+    }
+
+    // Replaces file with text by way of a forced temporary file. The directory is forced before the
+    // rename, so files written into it before are durable first, and after it.
+    static void replace(Path file, String text) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            ch.force(true);
+        }
+        Path dir = file.toAbsolutePath().getParent();
+        forceDirectory(dir);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(dir);
+    }
+
+    // Makes the entries of a directory durable. Not every platform can open a directory, where this
+    // does nothing.
+    private static void forceDirectory(Path dir) {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            // The rename still happened; it may just not survive a crash on such a platform.
+        }
+    }
+}
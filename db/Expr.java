@@ -0,0 +1,204 @@
+package db;
+
+import java.util.Collection;
+
+/**
+ * Expression tree of a query. Before it is evaluated, a tree is compiled
+ * against the table it reads into a {@link Kernel}, which computes a column
+ * at a time over the rows picked by a row id vector.
+ */
+abstract class Expr {
+
+    // Checks the types of the tree against the columns of t once and resolves its operators.
+    abstract Kernel compile(Table t);
+
+    String type(Table t) {
+        return compile(t).type;
+    }
+
+    // Replaces parameters by the literals bound to them.
+    abstract Expr bind(String[] params);
+
+    abstract void columns(Collection<String> out);
+
+    static class ColumnRef extends Expr {
+        final String name;
+
+        ColumnRef(String name) {
+            this.name = name;
+        }
+
+        Kernel compile(Table t) {
+            int i = t.columnIndex(name);
+            if (i == -1) {
+                throw new RuntimeException("no such column " + name);
+            }
+            return new Kernel.Ref(t.columnType(i), i);
+        }
+
+        Expr bind(String[] params) {
+            return this;
+        }
+
+        void columns(Collection<String> out) {
+            out.add(name);
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    static class Literal extends Expr {
+        final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+
+        boolean isNoValue() {
+            return text.equals(Column.NOVALUE);
+        }
+
+        String type() {
+            if (isNoValue()) {
+                throw new RuntimeException("NOVALUE can't be used in an expression");
+            }
+            return Column.typeOf(text);
+        }
+
+        Kernel compile(Table t) {
+            return new Kernel.Constant(type(), text);
+        }
+
+        Expr bind(String[] params) {
+            return this;
+        }
+
+        void columns(Collection<String> out) {
+        }
+
+        public String toString() {
+            return text;
+        }
+    }
+
+    static class Param extends Expr {
+        final int index;
+
+        Param(int index) {
+            this.index = index;
+        }
+
+        Kernel compile(Table t) {
+            throw new RuntimeException("parameter " + (index + 1) + " is not bound");
+        }
+
+        Expr bind(String[] params) {
+            if (params == null || index >= params.length || params[index] == null) {
+                throw new RuntimeException("parameter " + (index + 1) + " is not bound");
+            }
+            return new Literal(params[index]);
+        }
+
+        void columns(Collection<String> out) {
+        }
+
+        public String toString() {
+            return "?";
+        }
+    }
+
+    static class Negate extends Expr {
+        final Expr expr;
+
+        Negate(Expr expr) {
+            this.expr = expr;
+        }
+
+        Kernel compile(Table t) {
+            return Kernel.negate(expr.compile(t));
+        }
+
+        Expr bind(String[] params) {
+            Expr e = expr.bind(params);
+            if (e instanceof Literal && !((Literal) e).isNoValue()) {
+                String text = ((Literal) e).text;
+                return new Literal(text.startsWith("-") ? text.substring(1) : "-" + text);
+            }
+            return new Negate(e);
+        }
+
+        void columns(Collection<String> out) {
+            expr.columns(out);
+        }
+
+        public String toString() {
+            return "-" + expr;
+        }
+    }
+
+    static class Binary extends Expr {
+        final String op;
+        final Expr left;
+        final Expr right;
+
+        Binary(String op, Expr left, Expr right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        Kernel compile(Table t) {
+            return Kernel.arithmetic(op, left.compile(t), right.compile(t));
+        }
+
+        Expr bind(String[] params) {
+            return new Binary(op, left.bind(params), right.bind(params));
+        }
+
+        void columns(Collection<String> out) {
+            left.columns(out);
+            right.columns(out);
+        }
+
+        public String toString() {
+            return "(" + left + " " + op + " " + right + ")";
+        }
+    }
+
+    // count, sum, avg, min or max over the rows of a group; a null arg stands for count(*).
+    static class Aggregate extends Expr {
+        final String function;
+        final Expr arg;
+
+        Aggregate(String function, Expr arg) {
+            this.function = function;
+            this.arg = arg;
+        }
+
+        static boolean isFunction(String name) {
+            return name.equals("count") || name.equals("sum") || name.equals("avg")
+                    || name.equals("min") || name.equals("max");
+        }
+
+        // Aggregates are computed by an Aggregation, not by kernels over single rows.
+        Kernel compile(Table t) {
+            throw new RuntimeException(this + " can only be selected on its own");
+        }
+
+        Expr bind(String[] params) {
+            return new Aggregate(function, arg == null ? null : arg.bind(params));
+        }
+
+        void columns(Collection<String> out) {
+            if (arg != null) {
+                arg.columns(out);
+            }
+        }
+
+        public String toString() {
+            return function + "(" + (arg == null ? "*" : arg.toString()) + ")";
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package db;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+class FloatColumn extends Column {
+
+    private float[] values = new float[16];
+
+    FloatColumn() {
+    }
+
+    // Wraps a vector of size values, e.g. one an expression kernel wrote.
+    FloatColumn(float[] values, BitSet novalue, int size) {
+        this.values = values.length == 0 ? this.values : values;
+        this.novalue = novalue;
+        this.size = size;
+    }
+
+    String type() {
+        return "float";
+    }
+
+    // Floats are kept to the three decimals they are shown with, rounded the way %.3f rounds them,
+    // so what is compared and joined is what is printed.
+    static float round(float v) {
+        double x = v * 1000.0;
+        if (Math.abs(x) < 1e12) {
+            double floor = Math.floor(x);
+            double frac = x - floor;
+            // Away from a tie the nearest integer is the one %.3f picks.
+            if (Math.abs(frac - 0.5) > 1e-6) {
+                double m = frac < 0.5 ? floor : floor + 1;
+                return m == 0 ? (v < 0 ? -0f : 0f) : (float) (m / 1000);
+            }
+        } else if (Float.isNaN(v) || Float.isInfinite(v)) {
+            return v;
+        }
+        float r = new BigDecimal(Double.toString(v)).setScale(3, RoundingMode.HALF_UP).floatValue();
+        return r == 0 && v < 0 ? -0f : r;
+    }
+
+    float get(int row) {
+        return values[row];
+    }
+
+    // The backing array, valid up to size.
+    float[] values() {
+        return values;
+    }
+
+    float floatAt(int row) {
+        return values[row];
+    }
+
+    void add(float v) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = v;
+    }
+
+    void appendAll(Column src) {
+        int n = src.size();
+        if (size + n > values.length) {
+            values = Arrays.copyOf(values, Math.max(size + n, size * 2));
+        }
+        System.arraycopy(((FloatColumn) src).values, 0, values, size, n);
+        appendNoValues(src, size);
+        size += n;
+    }
+
+    Column share() {
+        FloatColumn c = new FloatColumn();
+        c.values = values;
+        return c;
+    }
+
+    Column gather(int[] ids, int n) {
+        float[] ret = new float[n];
+        for (int i = 0; i < n; i++) {
+            ret[i] = values[ids[i]];
+        }
+        return new FloatColumn(ret, gatherNoValues(ids, n), n);
+    }
+
+    void appendValue(String literal) {
+        add(round(Float.parseFloat(literal)));
+    }
+
+    void appendDefault() {
+        add(0);
+    }
+
+    void appendFrom(Column src, int row) {
+        if (src.isNoValue(row)) {
+            appendNoValue();
+        } else {
+            add(((FloatColumn) src).values[row]);
+        }
+    }
+
+    void writeValues(FileChannel ch) throws IOException {
+        ByteBuffer buf = buffer(4 * size);
+        buf.asFloatBuffer().put(values, 0, size);
+        buf.position(4 * size);
+        writeFully(ch, buf);
+    }
+
+    void readValues(ByteBuffer buf, int rows) {
+        values = new float[Math.max(rows, 16)];
+        buf.asFloatBuffer().get(values, 0, rows);
+        buf.position(buf.position() + 4 * rows);
+    }
+
+    Object valueAt(int row) {
+        return Float.valueOf(values[row]);
+    }
+
+    String renderValue(int row) {
+        return String.format("%.3f", values[row]);
+    }
+
+    boolean sameValue(int row, Column other, int other_row) {
+        if (isNoValue(row) || other.isNoValue(other_row)) {
+            return isNoValue(row) && other.isNoValue(other_row);
+        }
+        return values[row] == ((FloatColumn) other).values[other_row];
+    }
+
+    int hashValue(int row) {
+        if (isNoValue(row)) {
+            return 0;
+        }
+        // -0.0 and 0.0 are the same value to sameValue.
+        return values[row] == 0f ? 0 : Float.hashCode(values[row]);
+    }
+
+    int compareValue(int row, Column other, int other_row) {
+        if (isNoValue(row) || other.isNoValue(other_row)) {
+            return Boolean.compare(!isNoValue(row), !other.isNoValue(other_row));
+        }
+        // -0.0 and 0.0 compare equal, as sameValue has them, so sort-merge and hash joins agree.
+        float a = values[row];
+        float b = ((FloatColumn) other).values[other_row];
+        return a == b ? 0 : Float.compare(a, b);
+    }
+}
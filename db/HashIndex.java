@@ -0,0 +1,47 @@
+package db;
+
+import java.util.HashMap;
+
+class HashIndex extends Index {
+
+    private HashMap<Object, IntList> entries = new HashMap<>();
+
+    HashIndex(String name, String column) {
+        super(name, column);
+    }
+
+    String kind() {
+        return "hash";
+    }
+
+    void add(Object key, int row) {
+        IntList rows = entries.get(key);
+        if (rows == null) {
+            rows = new IntList(1);
+            entries.put(key, rows);
+        }
+        rows.add(row);
+    }
+
+    boolean supports(String op) {
+        return op.equals("==") || op.equals("!=");
+    }
+
+    int[] lookup(String op, Object key, Column col) {
+        IntList rows = entries.get(key);
+        if (op.equals("==")) {
+            return rows == null ? new int[0] : rows.toArray();
+        }
+        // Every row with a value except the matching ones, both lists are ascending.
+        IntList ret = new IntList();
+        int k = 0;
+        for (int i = 0; i < col.size(); i++) {
+            if (rows != null && k < rows.size() && rows.get(k) == i) {
+                k++;
+            } else if (!col.isNoValue(i)) {
+                ret.add(i);
+            }
+        }
+        return ret.toArray();
+    }
+}
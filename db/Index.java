@@ -0,0 +1,58 @@
+package db;
+
+/**
+ * Secondary index on one column of a table. Rows holding NOVALUE are not
+ * indexed since they never satisfy a comparison.
+ */
+abstract class Index {
+
+    final String name;
+    final String column;
+
+    Index(String name, String column) {
+        this.name = name;
+        this.column = column;
+    }
+
+    static Index create(String name, String column, String kind) {
+        if (kind.equals("hash")) {
+            return new HashIndex(name, column);
+        } else if (kind.equals("ordered")) {
+            return new OrderedIndex(name, column);
+        }
+        throw new RuntimeException("unknown index type " + kind);
+    }
+
+    abstract String kind();
+
+    abstract void add(Object key, int row);
+
+    abstract boolean supports(String op);
+
+    // Ids of the rows whose value compares to key with op, in ascending order.
+    abstract int[] lookup(String op, Object key, Column col);
+
+    // Converts a literal to a key for a column of the given type, or null if it doesn't fit.
+    static Object key(String type, String literal) {
+        String literal_type = Column.typeOf(literal);
+        if (type.equals("string")) {
+            return literal_type.equals("string") ? StringColumn.unquote(literal) : null;
+        } else if (literal_type.equals("string")) {
+            return null;
+        } else if (type.equals("float")) {
+            return Float.valueOf(literal);
+        } else if (literal_type.equals("int")) {
+            return Integer.valueOf(literal);
+        }
+        return null;
+    }
+
+    // Adds the rows of col, which are those from from of the table.
+    void addAll(Column col, int from) {
+        for (int i = 0; i < col.size(); i++) {
+            if (!col.isNoValue(i)) {
+                add(col.valueAt(i), from + i);
+            }
+        }
+    }
+}
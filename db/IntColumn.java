@@ -0,0 +1,128 @@
+package db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+class IntColumn extends Column {
+
+    private int[] values = new int[16];
+
+    IntColumn() {
+    }
+
+    // Wraps a vector of size values, e.g. one an expression kernel wrote.
+    IntColumn(int[] values, BitSet novalue, int size) {
+        this.values = values.length == 0 ? this.values : values;
+        this.novalue = novalue;
+        this.size = size;
+    }
+
+    String type() {
+        return "int";
+    }
+
+    int get(int row) {
+        return values[row];
+    }
+
+    // The backing array, valid up to size.
+    int[] values() {
+        return values;
+    }
+
+    float floatAt(int row) {
+        return values[row];
+    }
+
+    void add(int v) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = v;
+    }
+
+    void appendAll(Column src) {
+        int n = src.size();
+        if (size + n > values.length) {
+            values = Arrays.copyOf(values, Math.max(size + n, size * 2));
+        }
+        System.arraycopy(((IntColumn) src).values, 0, values, size, n);
+        appendNoValues(src, size);
+        size += n;
+    }
+
+    Column share() {
+        IntColumn c = new IntColumn();
+        c.values = values;
+        return c;
+    }
+
+    Column gather(int[] ids, int n) {
+        int[] ret = new int[n];
+        for (int i = 0; i < n; i++) {
+            ret[i] = values[ids[i]];
+        }
+        return new IntColumn(ret, gatherNoValues(ids, n), n);
+    }
+
+    void appendValue(String literal) {
+        add(Integer.parseInt(literal));
+    }
+
+    void appendDefault() {
+        add(0);
+    }
+
+    void appendFrom(Column src, int row) {
+        if (src.isNoValue(row)) {
+            appendNoValue();
+        } else {
+            add(((IntColumn) src).values[row]);
+        }
+    }
+
+    void writeValues(FileChannel ch) throws IOException {
+        ByteBuffer buf = buffer(4 * size);
+        buf.asIntBuffer().put(values, 0, size);
+        buf.position(4 * size);
+        writeFully(ch, buf);
+    }
+
+    void readValues(ByteBuffer buf, int rows) {
+        values = new int[Math.max(rows, 16)];
+        buf.asIntBuffer().get(values, 0, rows);
+        buf.position(buf.position() + 4 * rows);
+    }
+
+    Object valueAt(int row) {
+        return Integer.valueOf(values[row]);
+    }
+
+    String renderValue(int row) {
+        return Integer.toString(values[row]);
+    }
+
+    boolean sameValue(int row, Column other, int other_row) {
+        if (isNoValue(row) || other.isNoValue(other_row)) {
+            return isNoValue(row) && other.isNoValue(other_row);
+        }
+        return values[row] == ((IntColumn) other).values[other_row];
+    }
+
+    int hashValue(int row) {
+        if (isNoValue(row)) {
+            return 0;
+        }
+        return Integer.hashCode(values[row]);
+    }
+
+    int compareValue(int row, Column other, int other_row) {
+        if (isNoValue(row) || other.isNoValue(other_row)) {
+            return Boolean.compare(!isNoValue(row), !other.isNoValue(other_row));
+        }
+        return Integer.compare(values[row], ((IntColumn) other).values[other_row]);
+    }
+}
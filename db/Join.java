@@ -0,0 +1,200 @@
+package db;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Natural join of two tables on their shared key columns. The matching
+ * pairs are returned as row ids, ordered by left row and then by right row,
+ * which is the order a nested loop over both tables produces.
+ */
+class Join {
+
+    final int[] left;
+    final int[] right;
+
+    Join(int[] left, int[] right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    int size() {
+        return left.length;
+    }
+
+    static final String CROSS = "cross join";
+    static final String HASH = "hash join";
+    static final String MERGE = "merge join";
+
+    // The algorithm to join on the keys with: sort-merge if it is asked for, or null, and both
+    // inputs are in fact ordered on the keys, hash join otherwise.
+    static String choose(String algorithm, Column[] left_keys, int left_size, Column[] right_keys, int right_size) {
+        if ((algorithm == null || algorithm.equals(MERGE))
+                && isSorted(left_keys, left_size) && isSorted(right_keys, right_size)) {
+            return MERGE;
+        }
+        return HASH;
+    }
+
+    // Joins with the algorithm choose returned.
+    static Join of(String algorithm, Column[] left_keys, int left_size, Column[] right_keys, int right_size) {
+        if (algorithm.equals(MERGE)) {
+            return sortMerge(left_keys, left_size, right_keys, right_size);
+        }
+        return hash(left_keys, left_size, right_keys, right_size);
+    }
+
+    static Join cross(int left_size, int right_size) {
+        long size = (long) left_size * right_size;
+        if (size > Integer.MAX_VALUE) {
+            throw new RuntimeException("merge of " + left_size + " and " + right_size + " rows is too large");
+        }
+        int[] left = new int[(int) size];
+        int[] right = new int[left.length];
+        int n = 0;
+        for (int i = 0; i < left_size; i++) {
+            for (int j = 0; j < right_size; j++) {
+                left[n] = i;
+                right[n] = j;
+                n++;
+            }
+        }
+        return new Join(left, right);
+    }
+
+    // Builds a chained hash table on the smaller input and probes it with the other one.
+    static Join hash(Column[] left_keys, int left_size, Column[] right_keys, int right_size) {
+        boolean build_left = left_size < right_size;
+        Column[] build = build_left ? left_keys : right_keys;
+        Column[] probe = build_left ? right_keys : left_keys;
+        int build_size = build_left ? left_size : right_size;
+        int probe_size = build_left ? right_size : left_size;
+
+        int buckets = Integer.highestOneBit(Math.max(build_size, 1) * 2 - 1) << 1;
+        int mask = buckets - 1;
+        int[] heads = new int[buckets];
+        Arrays.fill(heads, -1);
+        int[] next = new int[build_size];
+        // Inserted back to front so every chain lists its rows in ascending order.
+        for (int i = build_size - 1; i >= 0; i--) {
+            int b = hash(build, i) & mask;
+            next[i] = heads[b];
+            heads[b] = i;
+        }
+
+        // Ranges of the probe side run in parallel, each yields its pairs in probe order.
+        List<IntList[]> parts = Parallel.map(probe_size, (from, to) -> {
+            IntList probe_ids = new IntList();
+            IntList build_ids = new IntList();
+            for (int p = from; p < to; p++) {
+                int b = hash(probe, p) & mask;
+                for (int i = heads[b]; i != -1; i = next[i]) {
+                    if (same(build, i, probe, p)) {
+                        probe_ids.add(p);
+                        build_ids.add(i);
+                    }
+                }
+            }
+            return new IntList[] {probe_ids, build_ids};
+        });
+        IntList probe_ids = parts.get(0)[0];
+        IntList build_ids = parts.get(0)[1];
+        for (int k = 1; k < parts.size(); k++) {
+            probe_ids.addAll(parts.get(k)[0]);
+            build_ids.addAll(parts.get(k)[1]);
+        }
+        if (!build_left) {
+            return new Join(probe_ids.toArray(), build_ids.toArray());
+        }
+        return orderByLeft(build_ids, probe_ids, left_size);
+    }
+
+    // Merges two inputs that are both sorted on the key columns.
+    static Join sortMerge(Column[] left_keys, int left_size, Column[] right_keys, int right_size) {
+        IntList left = new IntList();
+        IntList right = new IntList();
+        int i = 0;
+        int j = 0;
+        while (i < left_size && j < right_size) {
+            int c = compare(left_keys, i, right_keys, j);
+            if (c < 0) {
+                i++;
+            } else if (c > 0) {
+                j++;
+            } else {
+                int i_end = i + 1;
+                while (i_end < left_size && compare(left_keys, i_end, right_keys, j) == 0) {
+                    i_end++;
+                }
+                int j_end = j + 1;
+                while (j_end < right_size && compare(left_keys, i, right_keys, j_end) == 0) {
+                    j_end++;
+                }
+                for (int a = i; a < i_end; a++) {
+                    for (int b = j; b < j_end; b++) {
+                        left.add(a);
+                        right.add(b);
+                    }
+                }
+                i = i_end;
+                j = j_end;
+            }
+        }
+        return new Join(left.toArray(), right.toArray());
+    }
+
+    static boolean isSorted(Column[] keys, int size) {
+        for (int i = 1; i < size; i++) {
+            if (compare(keys, i - 1, keys, i) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Stable counting sort of the pairs by left row id.
+    private static Join orderByLeft(IntList left, IntList right, int left_size) {
+        int[] start = new int[left_size + 1];
+        for (int k = 0; k < left.size(); k++) {
+            start[left.get(k) + 1]++;
+        }
+        for (int i = 0; i < left_size; i++) {
+            start[i + 1] += start[i];
+        }
+        int[] l = new int[left.size()];
+        int[] r = new int[right.size()];
+        for (int k = 0; k < left.size(); k++) {
+            int pos = start[left.get(k)]++;
+            l[pos] = left.get(k);
+            r[pos] = right.get(k);
+        }
+        return new Join(l, r);
+    }
+
+    private static int hash(Column[] keys, int row) {
+        int h = 1;
+        for (Column c : keys) {
+            h = 31 * h + c.hashValue(row);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean same(Column[] a, int i, Column[] b, int j) {
+        for (int k = 0; k < a.length; k++) {
+            if (!a[k].sameValue(i, b[k], j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int compare(Column[] a, int i, Column[] b, int j) {
+        for (int k = 0; k < a.length; k++) {
+            int c = a[k].compareValue(i, b[k], j);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+}
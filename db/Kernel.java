@@ -0,0 +1,274 @@
+package db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An expression compiled against the columns of one table. Types are
+ * checked and operators resolved when it is compiled, so evaluating it
+ * over a batch of rows is a tight loop per node that writes a primitive
+ * vector; a row is NOVALUE if any of its operands is.
+ */
+abstract class Kernel {
+
+    final String type;
+
+    Kernel(String type) {
+        this.type = type;
+    }
+
+    // Values for the rows ids of t, in order.
+    abstract Column eval(Table t, int[] ids);
+
+    static Kernel arithmetic(String op, Kernel left, Kernel right) {
+        if (left.type.equals("string") || right.type.equals("string")) {
+            if (!left.type.equals(right.type)) {
+                throw new RuntimeException("can't compute string and non-string");
+            }
+            if (!op.equals("+")) {
+                throw new RuntimeException("invalid operator for strings");
+            }
+            return new Concat(left, right);
+        }
+        if (left.type.equals("int") && right.type.equals("int")) {
+            return new IntArithmetic(op.charAt(0), left, right);
+        }
+        return new FloatArithmetic(op.charAt(0), toFloat(left), toFloat(right));
+    }
+
+    static Kernel negate(Kernel k) {
+        if (k.type.equals("string")) {
+            throw new RuntimeException("can't negate a string");
+        }
+        return k.type.equals("int") ? new IntNegate(k) : new FloatNegate(k);
+    }
+
+    private static Kernel toFloat(Kernel k) {
+        return k.type.equals("int") ? new ToFloat(k) : k;
+    }
+
+    private static BitSet union(Column x, Column y) {
+        BitSet ret = (BitSet) x.novalue.clone();
+        ret.or(y.novalue);
+        return ret;
+    }
+
+    // Reads column i of the table.
+    static class Ref extends Kernel {
+        final int column;
+
+        Ref(String type, int column) {
+            super(type);
+            this.column = column;
+        }
+
+        Column eval(Table t, int[] ids) {
+            return t.gather(column, ids);
+        }
+    }
+
+    static class Constant extends Kernel {
+        final String text;
+
+        Constant(String type, String text) {
+            super(type);
+            this.text = text;
+        }
+
+        Column eval(Table t, int[] ids) {
+            int n = ids.length;
+            if (type.equals("int")) {
+                int[] ret = new int[n];
+                Arrays.fill(ret, Integer.parseInt(text));
+                return new IntColumn(ret, new BitSet(), n);
+            } else if (type.equals("float")) {
+                float[] ret = new float[n];
+                Arrays.fill(ret, Float.parseFloat(text));
+                return new FloatColumn(ret, new BitSet(), n);
+            }
+            StringColumn ret = new StringColumn();
+            String s = StringColumn.unquote(text);
+            for (int i = 0; i < n; i++) {
+                ret.add(s);
+            }
+            return ret;
+        }
+    }
+
+    static class ToFloat extends Kernel {
+        final Kernel arg;
+
+        ToFloat(Kernel arg) {
+            super("float");
+            this.arg = arg;
+        }
+
+        Column eval(Table t, int[] ids) {
+            IntColumn x = (IntColumn) arg.eval(t, ids);
+            int[] a = x.values();
+            float[] ret = new float[ids.length];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = a[i];
+            }
+            return new FloatColumn(ret, x.novalue, ret.length);
+        }
+    }
+
+    static class IntNegate extends Kernel {
+        final Kernel arg;
+
+        IntNegate(Kernel arg) {
+            super("int");
+            this.arg = arg;
+        }
+
+        Column eval(Table t, int[] ids) {
+            IntColumn x = (IntColumn) arg.eval(t, ids);
+            int[] a = x.values();
+            int[] ret = new int[ids.length];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = -a[i];
+            }
+            return new IntColumn(ret, x.novalue, ret.length);
+        }
+    }
+
+    static class FloatNegate extends Kernel {
+        final Kernel arg;
+
+        FloatNegate(Kernel arg) {
+            super("float");
+            this.arg = arg;
+        }
+
+        Column eval(Table t, int[] ids) {
+            FloatColumn x = (FloatColumn) arg.eval(t, ids);
+            float[] a = x.values();
+            float[] ret = new float[ids.length];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = -a[i];
+            }
+            return new FloatColumn(ret, x.novalue, ret.length);
+        }
+    }
+
+    static class IntArithmetic extends Kernel {
+        final char op;
+        final Kernel left;
+        final Kernel right;
+
+        IntArithmetic(char op, Kernel left, Kernel right) {
+            super("int");
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        Column eval(Table t, int[] ids) {
+            IntColumn x = (IntColumn) left.eval(t, ids);
+            IntColumn y = (IntColumn) right.eval(t, ids);
+            int[] a = x.values();
+            int[] b = y.values();
+            BitSet novalue = union(x, y);
+            int n = ids.length;
+            int[] ret = new int[n];
+            switch (op) {
+                case '+':
+                    for (int i = 0; i < n; i++) {
+                        ret[i] = a[i] + b[i];
+                    }
+                    break;
+                case '-':
+                    for (int i = 0; i < n; i++) {
+                        ret[i] = a[i] - b[i];
+                    }
+                    break;
+                case '*':
+                    for (int i = 0; i < n; i++) {
+                        ret[i] = a[i] * b[i];
+                    }
+                    break;
+                default:
+                    // NOVALUE rows hold 0, only a real zero divisor is an error.
+                    for (int i = 0; i < n; i++) {
+                        if (b[i] != 0 || !novalue.get(i)) {
+                            ret[i] = a[i] / b[i];
+                        }
+                    }
+            }
+            return new IntColumn(ret, novalue, n);
+        }
+    }
+
+    static class FloatArithmetic extends Kernel {
+        final char op;
+        final Kernel left;
+        final Kernel right;
+
+        FloatArithmetic(char op, Kernel left, Kernel right) {
+            super("float");
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        Column eval(Table t, int[] ids) {
+            FloatColumn x = (FloatColumn) left.eval(t, ids);
+            FloatColumn y = (FloatColumn) right.eval(t, ids);
+            float[] a = x.values();
+            float[] b = y.values();
+            int n = ids.length;
+            float[] ret = new float[n];
+            switch (op) {
+                case '+':
+                    for (int i = 0; i < n; i++) {
+                        ret[i] = a[i] + b[i];
+                    }
+                    break;
+                case '-':
+                    for (int i = 0; i < n; i++) {
+                        ret[i] = a[i] - b[i];
+                    }
+                    break;
+                case '*':
+                    for (int i = 0; i < n; i++) {
+                        ret[i] = a[i] * b[i];
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < n; i++) {
+                        ret[i] = a[i] / b[i];
+                    }
+            }
+            for (int i = 0; i < n; i++) {
+                ret[i] = FloatColumn.round(ret[i]);
+            }
+            return new FloatColumn(ret, union(x, y), n);
+        }
+    }
+
+    static class Concat extends Kernel {
+        final Kernel left;
+        final Kernel right;
+
+        Concat(Kernel left, Kernel right) {
+            super("string");
+            this.left = left;
+            this.right = right;
+        }
+
+        Column eval(Table t, int[] ids) {
+            StringColumn x = (StringColumn) left.eval(t, ids);
+            StringColumn y = (StringColumn) right.eval(t, ids);
+            StringColumn ret = new StringColumn();
+            for (int i = 0; i < ids.length; i++) {
+                if (x.isNoValue(i) || y.isNoValue(i)) {
+                    ret.appendNoValue();
+                } else {
+                    ret.add(x.get(i) + y.get(i));
+                }
+            }
+            return ret;
+        }
+    }
+}
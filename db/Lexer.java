@@ -0,0 +1,88 @@
+package db;
+
+import java.util.ArrayList;
+
+/**
+ * Splits a query into tokens in a single pass. Identifiers may contain
+ * '.' and '/' so that file names can be used with load and store.
+ */
+class Lexer {
+
+    private final String query;
+    private int pos;
+
+    Lexer(String query) {
+        this.query = query;
+    }
+
+    static ArrayList<Token> tokenize(String query) {
+        return new Lexer(query).tokens();
+    }
+
+    ArrayList<Token> tokens() {
+        ArrayList<Token> ret = new ArrayList<>();
+        while (true) {
+            while (pos < query.length() && Character.isWhitespace(query.charAt(pos))) {
+                pos++;
+            }
+            if (pos == query.length()) {
+                ret.add(new Token(Token.Kind.EOF, "", pos));
+                return ret;
+            }
+            ret.add(next());
+        }
+    }
+
+    private Token next() {
+        int start = pos;
+        char c = query.charAt(pos);
+        if (Character.isLetter(c) || c == '_') {
+            while (pos < query.length() && isIdentChar(query.charAt(pos))) {
+                pos++;
+            }
+            return new Token(Token.Kind.IDENT, query.substring(start, pos), start);
+        }
+        // A float may start at its point, as in .5, if a digit follows it.
+        if (Character.isDigit(c) || c == '.' && pos + 1 < query.length() && Character.isDigit(query.charAt(pos + 1))) {
+            while (pos < query.length() && Character.isDigit(query.charAt(pos))) {
+                pos++;
+            }
+            Token.Kind kind = Token.Kind.INT;
+            if (pos < query.length() && query.charAt(pos) == '.') {
+                kind = Token.Kind.FLOAT;
+                pos++;
+                while (pos < query.length() && Character.isDigit(query.charAt(pos))) {
+                    pos++;
+                }
+            }
+            return new Token(kind, query.substring(start, pos), start);
+        }
+        if (c == '\'') {
+            int end = query.indexOf('\'', pos + 1);
+            if (end == -1) {
+                throw new RuntimeException("Malformed query: unterminated string at " + start);
+            }
+            pos = end + 1;
+            return new Token(Token.Kind.STRING, query.substring(start, pos), start);
+        }
+        if (pos + 1 < query.length()) {
+            String two = query.substring(pos, pos + 2);
+            if (two.equals("==") || two.equals("!=") || two.equals("<=") || two.equals(">=")) {
+                pos += 2;
+                return new Token(Token.Kind.SYMBOL, two, start);
+            }
+        }
+        pos++;
+        if (c == '?') {
+            return new Token(Token.Kind.PARAM, "?", start);
+        }
+        if ("(),*+-/<>".indexOf(c) != -1) {
+            return new Token(Token.Kind.SYMBOL, String.valueOf(c), start);
+        }
+        throw new RuntimeException("Malformed query: unexpected '" + c + "' at " + start);
+    }
+
+    private static boolean isIdentChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '/';
+    }
+}
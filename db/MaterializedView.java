@@ -0,0 +1,106 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+/**
+ * A table kept equal to the result of a select as rows are inserted into
+ * the tables the select reads. Tables only grow, so a view refreshes
+ * from the rows inserted since it last did: those of one table are
+ * merged with the rows of the others the view has already taken in, and
+ * filtered and projected alone, so every combination of rows is counted
+ * once. The result is appended to the view, or, for a select with
+ * aggregates, folded into its groups, which then make the view anew.
+ * A select that orders or limits its rows or reads a table twice, and
+ * any select once one of its tables is replaced, is run again in full.
+ */
+class MaterializedView {
+
+    final String name;
+    final Statement.Select select;
+    private final boolean incremental;
+    // Per table of the select, the table the view has taken rows from and how many of them.
+    private final Table[] sources;
+    private final int[] seen;
+    // The groups of an aggregating select, from all the rows taken in.
+    private LinkedHashMap<Object, Aggregation.Group> groups;
+    private Table table;
+
+    MaterializedView(String name, Statement.Select select) {
+        this.name = name;
+        this.select = select;
+        sources = new Table[select.tables.size()];
+        seen = new int[sources.length];
+        incremental = select.order.isEmpty() && select.limit == null && select.offset == null
+                && new HashSet<>(select.tables).size() == select.tables.size();
+    }
+
+    boolean reads(String table) {
+        return select.tables.contains(table);
+    }
+
+    // Brings the view up to date with tables, returning its table if that is a new one and null if
+    // the rows were appended to the same table or nothing changed.
+    synchronized Table refresh(Database db) {
+        Table[] current = new Table[sources.length];
+        Table[] snapshots = new Table[sources.length];
+        boolean replaced = table == null || !incremental;
+        for (int i = 0; i < current.length; i++) {
+            current[i] = db.table(select.tables.get(i));
+            snapshots[i] = current[i].snapshot();
+            replaced |= current[i] != sources[i] || snapshots[i].size() < seen[i];
+        }
+        if (replaced) {
+            groups = select.isAggregate() ? new LinkedHashMap<Object, Aggregation.Group>() : null;
+            table = compute(db, snapshots);
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = current[i];
+                seen[i] = snapshots[i].size();
+            }
+            return table;
+        }
+
+        Table ret = null;
+        for (int i = 0; i < sources.length; i++) {
+            if (snapshots[i].size() == seen[i]) {
+                continue;
+            }
+            Table[] from = new Table[sources.length];
+            for (int j = 0; j < from.length; j++) {
+                from[j] = j == i ? snapshots[i].rows(seen[i], snapshots[i].size()) : snapshots[j].prefix(seen[j]);
+            }
+            Table delta = compute(db, from);
+            if (groups != null) {
+                table = delta;
+                ret = delta;
+            } else if (delta.size() > 0) {
+                Column[] cols = new Column[delta.columnCount()];
+                for (int k = 0; k < cols.length; k++) {
+                    cols[k] = delta.data(k);
+                }
+                String result = table.append(cols, delta.size());
+                if (!result.isEmpty()) {
+                    throw new RuntimeException(result);
+                }
+            }
+            seen[i] = snapshots[i].size();
+        }
+        return ret;
+    }
+
+    // The select over the given tables, its aggregates folded into groups.
+    private Table compute(Database db, Table[] from) {
+        ArrayList<Table> tables = new ArrayList<>();
+        for (Table t : from) {
+            tables.add(t);
+        }
+        ArrayList<Condition> rest = new ArrayList<>();
+        Table t = db.from(select, tables, rest);
+        if (groups != null) {
+            t = t.aggregate(select.items, select.groups, rest, groups);
+            return t.select(Statement.Item.all(), new ArrayList<Condition>(), select);
+        }
+        return t.select(select.items, rest, select);
+    }
+}
@@ -0,0 +1,377 @@
+package db;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms and row counts per phase of a command, and the bytes
+ * each command allocates. Operators call {@link #start} and {@link #end}
+ * around their work; while metrics are off and no explain analyze runs,
+ * start is a volatile read and end returns at once. Operators also build
+ * the trace of an explain analyze on the thread that runs it.
+ */
+class Metrics {
+
+    enum Phase {
+        PARSE, PLAN, SCAN, JOIN, AGGREGATE, SORT, PROJECT, RENDER, COMMAND
+    }
+
+    // What start returns when nothing is being measured.
+    static final long OFF = Long.MIN_VALUE;
+
+    private static volatile boolean enabled;
+    // Number of explain analyze traces running on any thread.
+    private static volatile int tracing;
+    private static final ThreadLocal<Trace> TRACE = new ThreadLocal<>();
+
+    private static final Histogram[] latency = new Histogram[Phase.values().length];
+    private static final LongAdder[] rows_in = new LongAdder[latency.length];
+    private static final LongAdder[] rows_out = new LongAdder[latency.length];
+    private static final Histogram allocated = new Histogram();
+    private static final LongAdder errors = new LongAdder();
+    private static final LongAdder blocks = new LongAdder();
+    private static final LongAdder blocks_skipped = new LongAdder();
+    private static boolean registered;
+
+    static {
+        for (int p = 0; p < latency.length; p++) {
+            latency[p] = new Histogram();
+            rows_in[p] = new LongAdder();
+            rows_out[p] = new LongAdder();
+        }
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Turning metrics on also registers them with JMX as db:type=Metrics.
+    static synchronized void setEnabled(boolean on) {
+        enabled = on;
+        if (on && !registered) {
+            registered = true;
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(),
+                        new ObjectName("db:type=Metrics"));
+            } catch (JMException e) {
+                // Another class loader registered them, which serves as well.
+            }
+        }
+    }
+
+    static long start() {
+        return enabled || tracing > 0 ? System.nanoTime() : OFF;
+    }
+
+    // Records the time since start of a phase that isn't an operator, such as parsing.
+    static void end(long start, Phase phase) {
+        if (start != OFF && enabled) {
+            latency[phase.ordinal()].add(System.nanoTime() - start);
+        }
+    }
+
+    // Records an operator that read rows_in rows and produced rows_out, taking the time since start.
+    // It consumes the results of the last inputs operators of the trace, which become its children;
+    // detail is only rendered for a trace.
+    static void end(long start, Phase phase, int inputs, String name, Object detail, long in, long out) {
+        if (start != OFF) {
+            record(phase, inputs, name, detail, System.nanoTime() - start, in, out);
+        }
+    }
+
+    static void record(Phase phase, int inputs, String name, Object detail, long nanos, long in, long out) {
+        if (enabled) {
+            latency[phase.ordinal()].add(nanos);
+            rows_in[phase.ordinal()].add(in);
+            rows_out[phase.ordinal()].add(out);
+        }
+        Trace trace = tracing > 0 ? TRACE.get() : null;
+        if (trace != null) {
+            trace.add(inputs, new Op(name, detail, nanos, in, out));
+        }
+    }
+
+    // Counts the blocks a filter went over by zone maps and how many of them it skipped.
+    static void blocks(long all, long skipped) {
+        if (enabled) {
+            blocks.add(all);
+            blocks_skipped.add(skipped);
+        }
+    }
+
+    static void error() {
+        if (enabled) {
+            errors.increment();
+        }
+    }
+
+    // Bytes allocated so far by the current thread, -1 where the runtime can't tell.
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    // Records a whole command, given what start and allocatedBytes returned before it ran.
+    static void command(long start, long bytes) {
+        if (start == OFF || !enabled) {
+            return;
+        }
+        latency[Phase.COMMAND.ordinal()].add(System.nanoTime() - start);
+        if (bytes >= 0) {
+            allocated.add(allocatedBytes() - bytes);
+        }
+    }
+
+    static void reset() {
+        for (int p = 0; p < latency.length; p++) {
+            latency[p].reset();
+            rows_in[p].reset();
+            rows_out[p].reset();
+        }
+        allocated.reset();
+        errors.reset();
+        blocks.reset();
+        blocks_skipped.reset();
+    }
+
+    static String report() {
+        if (!enabled) {
+            return "metrics are off, turn them on with stats on";
+        }
+        StringBuilder ret = new StringBuilder(String.format("%-10s%10s%12s%12s%12s%12s%14s%14s",
+                "phase", "count", "mean ms", "p50 ms", "p99 ms", "max ms", "rows in", "rows out"));
+        for (Phase phase : Phase.values()) {
+            Histogram h = latency[phase.ordinal()];
+            ret.append(String.format("%n%-10s%10d%12.3f%12.3f%12.3f%12.3f%14d%14d", phase.name().toLowerCase(),
+                    h.count(), h.mean() / 1e6, h.percentile(0.5) / 1e6, h.percentile(0.99) / 1e6, h.max() / 1e6,
+                    rows_in[phase.ordinal()].sum(), rows_out[phase.ordinal()].sum()));
+        }
+        ret.append(String.format("%nallocated %.0f bytes per command on average, %d in all; %d errors",
+                allocated.mean(), allocated.sum(), errors.sum()));
+        ret.append(String.format("%nzone maps skipped %d of %d blocks", blocks_skipped.sum(), blocks.sum()));
+        return ret.toString();
+    }
+
+    // Starts an explain analyze trace of what the current thread runs next.
+    static Trace trace() {
+        Trace trace = new Trace();
+        TRACE.set(trace);
+        synchronized (Metrics.class) {
+            tracing++;
+        }
+        return trace;
+    }
+
+    static void untrace() {
+        TRACE.remove();
+        synchronized (Metrics.class) {
+            tracing--;
+        }
+    }
+
+    // Counts of values in power of two buckets, with their sum and maximum.
+    static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder sum = new LongAdder();
+        private volatile long max;
+
+        Histogram() {
+            for (int b = 0; b < buckets.length; b++) {
+                buckets[b] = new LongAdder();
+            }
+        }
+
+        void add(long v) {
+            v = Math.max(v, 0);
+            buckets[64 - Long.numberOfLeadingZeros(v)].increment();
+            sum.add(v);
+            if (v > max) {
+                synchronized (this) {
+                    max = Math.max(max, v);
+                }
+            }
+        }
+
+        long count() {
+            long ret = 0;
+            for (LongAdder b : buckets) {
+                ret += b.sum();
+            }
+            return ret;
+        }
+
+        long sum() {
+            return sum.sum();
+        }
+
+        long max() {
+            return max;
+        }
+
+        double mean() {
+            long n = count();
+            return n == 0 ? 0 : (double) sum() / n;
+        }
+
+        // The upper bound of the bucket the given fraction of the values falls in, capped by the maximum.
+        long percentile(double fraction) {
+            long n = count();
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b].sum();
+                if (n > 0 && seen >= Math.ceil(fraction * n)) {
+                    return Math.min(max, b == 0 ? 0 : (1L << b) - 1);
+                }
+            }
+            return 0;
+        }
+
+        synchronized void reset() {
+            for (LongAdder b : buckets) {
+                b.reset();
+            }
+            sum.reset();
+            max = 0;
+        }
+    }
+
+    // One operator of an explain analyze, with the operators whose rows it read.
+    static class Op {
+        final String name;
+        final Object detail;
+        final long nanos;
+        final long in;
+        final long out;
+        final ArrayList<Op> children = new ArrayList<>();
+
+        Op(String name, Object detail, long nanos, long in, long out) {
+            this.name = name;
+            this.detail = detail;
+            this.nanos = nanos;
+            this.in = in;
+            this.out = out;
+        }
+
+        void render(StringBuilder out, int depth) {
+            for (int i = 0; i < depth; i++) {
+                out.append("  ");
+            }
+            out.append(name);
+            String d = detail instanceof Collection ? join((Collection<?>) detail)
+                    : detail == null ? "" : detail.toString();
+            if (!d.isEmpty()) {
+                out.append(' ').append(d);
+            }
+            // Negative nanos mark the estimates of a plan that wasn't run.
+            out.append(nanos < 0 ? " (est " : " (");
+            out.append(children.isEmpty() ? String.format("%d rows", this.out)
+                    : String.format("%d -> %d rows", in, this.out));
+            out.append(nanos < 0 ? String.format(")%n") : String.format(", %.3f ms)%n", nanos / 1e6));
+            for (Op c : children) {
+                c.render(out, depth + 1);
+            }
+        }
+
+        private static String join(Collection<?> items) {
+            StringBuilder ret = new StringBuilder();
+            for (Object o : items) {
+                ret.append(ret.length() == 0 ? "" : ", ").append(o);
+            }
+            return ret.toString();
+        }
+    }
+
+    // The operators a command ran, put together into a tree as they finish.
+    static class Trace {
+        private final ArrayList<Op> stack = new ArrayList<>();
+
+        void add(int inputs, Op op) {
+            int from = Math.max(0, stack.size() - inputs);
+            op.children.addAll(stack.subList(from, stack.size()));
+            stack.subList(from, stack.size()).clear();
+            stack.add(op);
+        }
+
+        String render() {
+            StringBuilder ret = new StringBuilder();
+            for (int i = stack.size() - 1; i >= 0; i--) {
+                stack.get(i).render(ret, 0);
+            }
+            return ret.toString();
+        }
+
+        // Every operator's time is its own, not counting that of its children.
+        String render(long nanos, long bytes) {
+            StringBuilder ret = new StringBuilder(render());
+            ret.append(String.format("total %.3f ms", nanos / 1e6));
+            if (bytes >= 0) {
+                ret.append(String.format(", %d bytes allocated", bytes));
+            }
+            return ret.toString();
+        }
+    }
+
+    private static class Bean implements MetricsMXBean {
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        public void setEnabled(boolean on) {
+            Metrics.setEnabled(on);
+        }
+
+        public long getCommands() {
+            return latency[Phase.COMMAND.ordinal()].count();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getBytesAllocated() {
+            return allocated.sum();
+        }
+
+        public Map<String, Double> getMeanMillis() {
+            Map<String, Double> ret = new LinkedHashMap<>();
+            for (Phase p : Phase.values()) {
+                ret.put(p.name().toLowerCase(), latency[p.ordinal()].mean() / 1e6);
+            }
+            return ret;
+        }
+
+        public Map<String, Double> getP99Millis() {
+            Map<String, Double> ret = new LinkedHashMap<>();
+            for (Phase p : Phase.values()) {
+                ret.put(p.name().toLowerCase(), latency[p.ordinal()].percentile(0.99) / 1e6);
+            }
+            return ret;
+        }
+
+        public Map<String, Long> getRowsOut() {
+            Map<String, Long> ret = new LinkedHashMap<>();
+            for (Phase p : Phase.values()) {
+                ret.put(p.name().toLowerCase(), rows_out[p.ordinal()].sum());
+            }
+            return ret;
+        }
+
+        public String getReport() {
+            return report();
+        }
+
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
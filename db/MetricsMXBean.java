@@ -0,0 +1,31 @@
+package db;
+
+import java.util.Map;
+
+/**
+ * The metrics of the databases in this JVM as seen over JMX, registered
+ * as db:type=Metrics once metrics are turned on. Latencies and row counts
+ * are keyed by phase.
+ */
+public interface MetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean on);
+
+    long getCommands();
+
+    long getErrors();
+
+    long getBytesAllocated();
+
+    Map<String, Double> getMeanMillis();
+
+    Map<String, Double> getP99Millis();
+
+    Map<String, Long> getRowsOut();
+
+    String getReport();
+
+    void reset();
+}
@@ -0,0 +1,65 @@
+package db;
+
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Index kept in key order in a skip list, serves equality and range lookups.
+ */
+class OrderedIndex extends Index {
+
+    private ConcurrentSkipListMap<Object, IntList> entries =
+            new ConcurrentSkipListMap<>(OrderedIndex::compare);
+
+    OrderedIndex(String name, String column) {
+        super(name, column);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    String kind() {
+        return "ordered";
+    }
+
+    void add(Object key, int row) {
+        IntList rows = entries.get(key);
+        if (rows == null) {
+            rows = new IntList(1);
+            entries.put(key, rows);
+        }
+        rows.add(row);
+    }
+
+    boolean supports(String op) {
+        return !op.equals("!=");
+    }
+
+    int[] lookup(String op, Object key, Column col) {
+        NavigableMap<Object, IntList> range;
+        if (op.equals("==")) {
+            IntList rows = entries.get(key);
+            return rows == null ? new int[0] : rows.toArray();
+        } else if (op.equals("<")) {
+            range = entries.headMap(key, false);
+        } else if (op.equals("<=")) {
+            range = entries.headMap(key, true);
+        } else if (op.equals(">")) {
+            range = entries.tailMap(key, false);
+        } else {
+            range = entries.tailMap(key, true);
+        }
+        IntList ret = new IntList();
+        for (IntList rows : range.values()) {
+            for (int i = 0; i < rows.size(); i++) {
+                ret.add(rows.get(i));
+            }
+        }
+        int[] ids = ret.toArray();
+        Arrays.sort(ids);
+        return ids;
+    }
+}
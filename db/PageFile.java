@@ -0,0 +1,405 @@
+package db;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Paged table file (.tpg), read a page at a time through the buffer pool
+ * so that a table needn't fit in memory. The file is a sequence of pages
+ * of {@link BufferPool#PAGE_SIZE} bytes:
+ *
+ * <pre>
+ * page 0: int magic, int version, int page size, int rows, int columns, long directory offset,
+ *         columns * (int name length, name bytes, byte type)
+ * pages of one column each: ROWS_PER_PAGE bits of NOVALUE bitmap, ROWS_PER_PAGE int values
+ * directory: columns * (int pages, int[] page numbers, and for a string column
+ *            int dictionary size, dictionary size * (int length, bytes)), zone maps
+ * </pre>
+ *
+ * Floats are stored as their bits and strings as codes into the column's
+ * dictionary, which is held in memory while the file is open, as are the
+ * zone maps. Files of version 1 have none. All numbers are little-endian.
+ * The file is closed once the table it was opened for is closed and every
+ * snapshot of that table is garbage collected.
+ */
+class PageFile {
+
+    static final String EXTENSION = ".tpg";
+
+    private static final int MAGIC = 0x4D445047;
+    private static final int VERSION = 2;
+    private static final String[] TYPES = {"int", "float", "string"};
+    // As many rows as fit a page with a bit and four bytes each, a multiple of 64.
+    static final int ROWS_PER_PAGE = BufferPool.PAGE_SIZE * 8 / 33 / 64 * 64;
+    private static final int BITMAP = ROWS_PER_PAGE / 8;
+    private static final AtomicInteger next_id = new AtomicInteger();
+    private static final Cleaner cleaner = Cleaner.create();
+
+    final int id = next_id.incrementAndGet();
+    final String[] header;
+    final int rows;
+    private final FileChannel ch;
+    private final int[][] pages;
+    private final String[][] dicts;
+    final ZoneMap zones;
+    // The tables reading the file, counting the one it was opened for until that is closed.
+    private final AtomicInteger readers = new AtomicInteger(1);
+
+    private PageFile(FileChannel ch, String[] header, int rows, int[][] pages, String[][] dicts, ZoneMap zones) {
+        this.ch = ch;
+        this.header = header;
+        this.rows = rows;
+        this.pages = pages;
+        this.dicts = dicts;
+        this.zones = zones;
+    }
+
+    // The file stays open for as long as the tables reading it.
+    static PageFile open(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer buf = read(ch, 0, BufferPool.PAGE_SIZE);
+            int version = buf.getInt() == MAGIC ? buf.getInt() : -1;
+            if (version != 1 && version != VERSION || buf.getInt() != BufferPool.PAGE_SIZE) {
+                throw new IOException("not a paged table: " + file);
+            }
+            int rows = buf.getInt();
+            int n = buf.getInt();
+            long directory = buf.getLong();
+            String[] header = new String[n];
+            for (int i = 0; i < n; i++) {
+                header[i] = string(buf) + " " + TYPES[buf.get()];
+            }
+            buf = read(ch, directory, (int) (ch.size() - directory));
+            int[][] pages = new int[n][];
+            String[][] dicts = new String[n][];
+            for (int i = 0; i < n; i++) {
+                pages[i] = new int[buf.getInt()];
+                for (int p = 0; p < pages[i].length; p++) {
+                    pages[i][p] = buf.getInt();
+                }
+                if (header[i].endsWith(" string")) {
+                    dicts[i] = new String[buf.getInt()];
+                    for (int d = 0; d < dicts[i].length; d++) {
+                        dicts[i][d] = string(buf);
+                    }
+                }
+            }
+            ZoneMap zones = version == VERSION ? ZoneMap.read(buf, header) : null;
+            return new PageFile(ch, header, rows, pages, dicts, zones != null && zones.rows() == rows ? zones : null);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    // Writes the rows of t, a batch at a time, so a paged table is never held whole.
+    static void write(Table t, Path file) throws IOException {
+        Writer out = new Writer(file, t.header());
+        try {
+            int batch = ROWS_PER_PAGE;
+            int[] ids = new int[batch];
+            Column[] cols = new Column[t.columnCount()];
+            for (int start = 0; start < t.size(); start += batch) {
+                int n = Math.min(batch, t.size() - start);
+                for (int k = 0; k < n; k++) {
+                    ids[k] = start + k;
+                }
+                for (int c = 0; c < cols.length; c++) {
+                    cols[c] = t.gather(c, ids, n);
+                }
+                out.append(cols, n);
+            }
+            out.finish();
+        } catch (IOException | RuntimeException e) {
+            out.abort();
+            throw e;
+        }
+    }
+
+    // Counts reader as reading the file until it is garbage collected.
+    void share(Object reader) {
+        readers.incrementAndGet();
+        cleaner.register(reader, this::release);
+    }
+
+    // Closes the file once no table reads it any more. Its pages left in the buffer pool are never
+    // asked for again and go as they are evicted.
+    void release() {
+        if (readers.decrementAndGet() > 0) {
+            return;
+        }
+        try {
+            ch.close();
+        } catch (IOException e) {
+            // Nothing is read from it again either way.
+        }
+    }
+
+    void readPage(int page, ByteBuffer into) throws IOException {
+        long pos = (long) page * BufferPool.PAGE_SIZE;
+        while (into.hasRemaining()) {
+            if (ch.read(into, pos + into.position()) < 0) {
+                throw new IOException("truncated paged table");
+            }
+        }
+    }
+
+    Column column(int c) {
+        int[] ids = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            ids[i] = i;
+        }
+        return gather(c, ids, ids.length);
+    }
+
+    // The first n rows of ids of column c, read page by page through the buffer pool.
+    Column gather(int c, int[] ids, int n) {
+        BufferPool pool = BufferPool.shared();
+        int[] values = new int[n];
+        BitSet novalue = new BitSet();
+        BufferPool.Frame f = null;
+        int at = -1;
+        try {
+            for (int i = 0; i < n; i++) {
+                int page = ids[i] / ROWS_PER_PAGE;
+                if (page != at) {
+                    if (f != null) {
+                        pool.unpin(f);
+                        f = null;
+                    }
+                    f = pool.pin(this, pages[c][page]);
+                    at = page;
+                }
+                int k = ids[i] - page * ROWS_PER_PAGE;
+                if ((f.buf.get(k >>> 3) >> (k & 7) & 1) != 0) {
+                    novalue.set(i);
+                } else {
+                    values[i] = f.buf.getInt(BITMAP + 4 * k);
+                }
+            }
+        } finally {
+            if (f != null) {
+                pool.unpin(f);
+            }
+        }
+        String type = header[c].substring(header[c].indexOf(' ') + 1);
+        if (type.equals("int")) {
+            return new IntColumn(values, novalue, n);
+        } else if (type.equals("float")) {
+            float[] floats = new float[n];
+            for (int i = 0; i < n; i++) {
+                floats[i] = Float.intBitsToFloat(values[i]);
+            }
+            return new FloatColumn(floats, novalue, n);
+        }
+        StringColumn ret = new StringColumn();
+        for (int i = 0; i < n; i++) {
+            if (novalue.get(i)) {
+                ret.appendNoValue();
+            } else {
+                ret.add(dicts[c][values[i]]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Writes a page file from batches of rows. Pages go to a temporary file
+     * as they fill, which replaces the file when it is finished, so tables
+     * still reading the old file keep reading it.
+     */
+    static class Writer {
+        private final Path file;
+        private final Path tmp;
+        private final String[] header;
+        private final FileChannel ch;
+        private final ByteBuffer[] page;
+        private final int[] fill;
+        private final ArrayList<IntList> pages = new ArrayList<>();
+        private final ArrayList<HashMap<String, Integer>> codes = new ArrayList<>();
+        private final ArrayList<ArrayList<String>> dicts = new ArrayList<>();
+        private final ZoneMap zones;
+        private int next = 1;
+        private int rows;
+
+        Writer(Path file, String[] header) throws IOException {
+            this.file = file;
+            this.header = header;
+            tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            page = new ByteBuffer[header.length];
+            fill = new int[header.length];
+            zones = new ZoneMap(header);
+            for (int c = 0; c < header.length; c++) {
+                page[c] = ByteBuffer.allocate(BufferPool.PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                pages.add(new IntList());
+                codes.add(new HashMap<String, Integer>());
+                dicts.add(new ArrayList<String>());
+            }
+        }
+
+        // Appends the first n rows of columns typed as the header says.
+        void append(Column[] cols, int n) throws IOException {
+            for (int c = 0; c < cols.length; c++) {
+                Column col = cols[c];
+                ByteBuffer p = page[c];
+                for (int row = 0; row < n; row++) {
+                    int k = fill[c]++;
+                    if (col.isNoValue(row)) {
+                        p.put(k >>> 3, (byte) (p.get(k >>> 3) | 1 << (k & 7)));
+                    } else if (col instanceof IntColumn) {
+                        p.putInt(BITMAP + 4 * k, ((IntColumn) col).get(row));
+                    } else if (col instanceof FloatColumn) {
+                        p.putInt(BITMAP + 4 * k, Float.floatToRawIntBits(((FloatColumn) col).get(row)));
+                    } else {
+                        p.putInt(BITMAP + 4 * k, code(c, ((StringColumn) col).get(row)));
+                    }
+                    if (fill[c] == ROWS_PER_PAGE) {
+                        flush(c);
+                    }
+                }
+            }
+            zones.add(cols, 0, n);
+            rows += n;
+        }
+
+        private int code(int c, String v) {
+            Integer code = codes.get(c).get(v);
+            if (code == null) {
+                code = dicts.get(c).size();
+                dicts.get(c).add(v);
+                codes.get(c).put(v, code);
+            }
+            return code;
+        }
+
+        private void flush(int c) throws IOException {
+            ByteBuffer p = page[c];
+            p.clear();
+            pages.get(c).add(next);
+            long pos = (long) next++ * BufferPool.PAGE_SIZE;
+            while (p.hasRemaining()) {
+                pos += ch.write(p, pos);
+            }
+            Arrays.fill(p.array(), (byte) 0);
+            p.clear();
+            fill[c] = 0;
+        }
+
+        // Writes the last pages, the directory and the header, and puts the file in place.
+        void finish() throws IOException {
+            for (int c = 0; c < header.length; c++) {
+                if (fill[c] > 0) {
+                    flush(c);
+                }
+            }
+            long directory = (long) next * BufferPool.PAGE_SIZE;
+            int size = zones.bytes();
+            for (int c = 0; c < header.length; c++) {
+                size += 4 + 4 * pages.get(c).size();
+                if (header[c].endsWith(" string")) {
+                    size += 4;
+                    for (String s : dicts.get(c)) {
+                        size += 4 + s.getBytes(StandardCharsets.UTF_8).length;
+                    }
+                }
+            }
+            ByteBuffer buf = Column.buffer(size);
+            for (int c = 0; c < header.length; c++) {
+                buf.putInt(pages.get(c).size());
+                for (int p = 0; p < pages.get(c).size(); p++) {
+                    buf.putInt(pages.get(c).get(p));
+                }
+                if (header[c].endsWith(" string")) {
+                    buf.putInt(dicts.get(c).size());
+                    for (String s : dicts.get(c)) {
+                        putString(buf, s);
+                    }
+                }
+            }
+            zones.write(buf);
+            buf.flip();
+            write(buf, directory);
+
+            buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(BufferPool.PAGE_SIZE).putInt(rows).putInt(header.length);
+            buf.putLong(directory);
+            try {
+                for (String h : header) {
+                    String[] parts = h.split(" ");
+                    putString(buf, parts[0]);
+                    buf.put((byte) typeCode(parts[1]));
+                }
+            } catch (BufferOverflowException e) {
+                throw new IOException("too many columns for a paged table");
+            }
+            buf.clear();
+            write(buf, 0);
+            ch.force(false);
+            ch.close();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        void abort() {
+            try {
+                ch.close();
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                // The temporary file is overwritten by the next attempt.
+            }
+        }
+
+        private void write(ByteBuffer buf, long pos) throws IOException {
+            while (buf.hasRemaining()) {
+                pos += ch.write(buf, pos);
+            }
+        }
+    }
+
+    private static int typeCode(String type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(type)) {
+                return i;
+            }
+        }
+        throw new RuntimeException("Invalid column type.");
+    }
+
+    private static void putString(ByteBuffer buf, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        buf.putInt(b.length).put(b);
+    }
+
+    private static String string(ByteBuffer buf) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("truncated paged table");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+}
@@ -0,0 +1,116 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs work over row ranges on a fork/join pool. Inputs smaller than the
+ * threshold, or a parallelism of 1, run on the calling thread.
+ */
+class Parallel {
+
+    private static volatile ForkJoinPool pool =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static volatile int threshold = 50000;
+
+    interface RangeTask<T> {
+        T apply(int from, int to);
+    }
+
+    static synchronized void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        ForkJoinPool old = pool;
+        pool = new ForkJoinPool(threads);
+        old.shutdown();
+    }
+
+    static int parallelism() {
+        return pool.getParallelism();
+    }
+
+    static void setThreshold(int rows) {
+        threshold = Math.max(rows, 1);
+    }
+
+    // Results of task over consecutive ranges covering [0, n), in range order.
+    static <T> List<T> map(int n, RangeTask<T> task) {
+        ForkJoinPool p = pool;
+        if (p.getParallelism() == 1 || n < threshold) {
+            ArrayList<T> ret = new ArrayList<>(1);
+            ret.add(task.apply(0, n));
+            return ret;
+        }
+        // A few ranges per thread keeps the threads busy when ranges take uneven time.
+        int chunk = Math.max(threshold / 4, (n + 4 * p.getParallelism() - 1) / (4 * p.getParallelism()));
+        return p.invoke(new Split<T>(task, 0, n, chunk));
+    }
+
+    // Results of task over ranges of at most chunk items, run in parallel however small n is.
+    static <T> List<T> map(int n, int chunk, RangeTask<T> task) {
+        ForkJoinPool p = pool;
+        if (p.getParallelism() == 1 || n <= chunk) {
+            ArrayList<T> ret = new ArrayList<>();
+            int from = 0;
+            do {
+                int to = Math.min(n, from + chunk);
+                ret.add(task.apply(from, to));
+                from = to;
+            } while (from < n);
+            return ret;
+        }
+        return p.invoke(new Split<T>(task, 0, n, chunk));
+    }
+
+    static int[] concat(List<int[]> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        int n = 0;
+        for (int[] part : parts) {
+            n += part.length;
+        }
+        int[] ret = new int[n];
+        int pos = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, ret, pos, part.length);
+            pos += part.length;
+        }
+        return ret;
+    }
+
+    private static class Split<T> extends RecursiveTask<List<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeTask<T> task;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        Split(RangeTask<T> task, int from, int to, int chunk) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        protected List<T> compute() {
+            if (to - from <= chunk) {
+                ArrayList<T> ret = new ArrayList<>(1);
+                ret.add(task.apply(from, to));
+                return ret;
+            }
+            int mid = from + (to - from) / 2;
+            Split<T> left = new Split<>(task, from, mid, chunk);
+            left.fork();
+            List<T> ret = new ArrayList<>();
+            List<T> right = new Split<>(task, mid, to, chunk).compute();
+            ret.addAll(left.join());
+            ret.addAll(right);
+            return ret;
+        }
+    }
+}
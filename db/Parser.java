@@ -0,0 +1,298 @@
+package db;
+
+import java.util.ArrayList;
+
+/**
+ * Recursive-descent parser that turns the tokens of one command into a
+ * {@link Statement}. Arithmetic follows the usual precedence, with unary
+ * minus binding tighter than '*' and '/', which bind tighter than '+' and '-'.
+ */
+class Parser {
+
+    private final ArrayList<Token> tokens;
+    private int pos;
+    private int params;
+
+    Parser(ArrayList<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    // Parses a whole command, anything left over after the statement is an error.
+    Statement parse() {
+        Statement s = statement();
+        expectEnd();
+        return s;
+    }
+
+    int params() {
+        return params;
+    }
+
+    Statement statement() {
+        if (accept("create")) {
+            if (accept("index")) {
+                String name = name();
+                expect("on");
+                String table = name();
+                expect("(");
+                String column = name();
+                expect(")");
+                String kind = accept("using") ? name() : "ordered";
+                return new Statement.CreateIndex(name, table, column, kind);
+            }
+            if (accept("materialized")) {
+                expect("view");
+                String name = name();
+                expect("as");
+                return new Statement.CreateView(name, select());
+            }
+            expect("table");
+            String name = name();
+            if (accept("as")) {
+                return new Statement.CreateAs(name, select());
+            }
+            expect("(");
+            ArrayList<String> cols = new ArrayList<>();
+            do {
+                cols.add(name() + " " + name());
+            } while (accept(","));
+            expect(")");
+            return new Statement.CreateTable(name, cols.toArray(new String[0]));
+        } else if (accept("load")) {
+            return new Statement.Load(name(), format());
+        } else if (accept("store")) {
+            return new Statement.Store(name(), format());
+        } else if (accept("drop")) {
+            if (accept("index")) {
+                return new Statement.DropIndex(name());
+            }
+            expect("table");
+            return new Statement.Drop(name());
+        } else if (accept("insert")) {
+            expect("into");
+            String table = name();
+            expect("values");
+            ArrayList<Expr[]> rows = new ArrayList<>();
+            if (peek().is("(")) {
+                do {
+                    expect("(");
+                    rows.add(values());
+                    expect(")");
+                } while (accept(","));
+            } else {
+                rows.add(values());
+            }
+            return new Statement.Insert(table, rows.toArray(new Expr[0][]));
+        } else if (accept("print")) {
+            return new Statement.Print(name());
+        } else if (accept("explain")) {
+            boolean analyze = accept("analyze");
+            return new Statement.Explain(select(), analyze);
+        } else if (accept("stats")) {
+            if (peek().kind == Token.Kind.EOF) {
+                return new Statement.Stats(null);
+            }
+            Token action = next();
+            if (!(action.is("on") || action.is("off") || action.is("reset"))) {
+                throw error(action);
+            }
+            return new Statement.Stats(action.text);
+        } else if (peek().is("select")) {
+            return select();
+        }
+        throw error();
+    }
+
+    Statement.Select select() {
+        expect("select");
+        ArrayList<Statement.Item> items = new ArrayList<>();
+        do {
+            if (accept("*")) {
+                items.add(new Statement.Item(null, null));
+            } else {
+                Expr e = expr();
+                items.add(new Statement.Item(e, accept("as") ? name() : null));
+            }
+        } while (accept(","));
+        expect("from");
+        ArrayList<String> tables = new ArrayList<>();
+        do {
+            tables.add(name());
+        } while (accept(","));
+        ArrayList<Condition> conds = new ArrayList<>();
+        if (accept("where")) {
+            do {
+                conds.add(condition());
+            } while (accept("and"));
+        }
+        ArrayList<Expr> groups = new ArrayList<>();
+        if (accept("group")) {
+            expect("by");
+            do {
+                groups.add(expr());
+            } while (accept(","));
+        }
+        ArrayList<Statement.Order> order = new ArrayList<>();
+        if (accept("order")) {
+            expect("by");
+            do {
+                String column = name();
+                boolean desc = accept("desc");
+                if (!desc) {
+                    accept("asc");
+                }
+                order.add(new Statement.Order(column, desc));
+            } while (accept(","));
+        }
+        Expr limit = null;
+        Expr offset = null;
+        if (accept("limit")) {
+            limit = value();
+            if (accept("offset")) {
+                offset = value();
+            }
+        }
+        return new Statement.Select(items, tables, conds, groups, order, limit, offset);
+    }
+
+    private Condition condition() {
+        Expr left = expr();
+        Token op = next();
+        if (!(op.is("==") || op.is("!=") || op.is("<=") || op.is(">=")
+                || op.is("<") || op.is(">"))) {
+            throw error(op);
+        }
+        return new Condition(left, op.text, expr());
+    }
+
+    private Expr expr() {
+        Expr e = term();
+        while (peek().is("+") || peek().is("-")) {
+            String op = next().text;
+            e = new Expr.Binary(op, e, term());
+        }
+        return e;
+    }
+
+    private Expr term() {
+        Expr e = unary();
+        while (peek().is("*") || peek().is("/")) {
+            String op = next().text;
+            e = new Expr.Binary(op, e, unary());
+        }
+        return e;
+    }
+
+    private Expr unary() {
+        if (accept("-")) {
+            return new Expr.Negate(unary());
+        }
+        return primary();
+    }
+
+    private Expr primary() {
+        Token t = next();
+        if (t.isLiteral()) {
+            return new Expr.Literal(t.text);
+        } else if (t.kind == Token.Kind.PARAM) {
+            return new Expr.Param(params++);
+        } else if (t.kind == Token.Kind.IDENT && Expr.Aggregate.isFunction(t.text) && accept("(")) {
+            Expr arg = t.text.equals("count") && accept("*") ? null : expr();
+            expect(")");
+            return new Expr.Aggregate(t.text, arg);
+        } else if (t.kind == Token.Kind.IDENT) {
+            return new Expr.ColumnRef(t.text);
+        } else if (t.is("(")) {
+            Expr e = expr();
+            expect(")");
+            return e;
+        }
+        throw error(t);
+    }
+
+    // A value of an insert: a literal, NOVALUE or a parameter, optionally negated.
+    private Expr[] values() {
+        ArrayList<Expr> ret = new ArrayList<>();
+        do {
+            ret.add(value());
+        } while (accept(","));
+        return ret.toArray(new Expr[0]);
+    }
+
+    private Expr value() {
+        if (accept("-")) {
+            return new Expr.Negate(value());
+        }
+        Token t = next();
+        if (t.isLiteral() || t.is(Column.NOVALUE)) {
+            return new Expr.Literal(t.text);
+        } else if (t.kind == Token.Kind.PARAM) {
+            return new Expr.Param(params++);
+        }
+        throw error(t);
+    }
+
+    private String format() {
+        if (accept("binary")) {
+            return "binary";
+        } else if (accept("text")) {
+            return "text";
+        } else if (accept("paged")) {
+            return "paged";
+        } else if (accept("delta")) {
+            return "delta";
+        }
+        return null;
+    }
+
+    private String name() {
+        Token t = next();
+        if (t.kind != Token.Kind.IDENT) {
+            throw error(t);
+        }
+        return t.text;
+    }
+
+    private Token peek() {
+        return tokens.get(pos);
+    }
+
+    private Token next() {
+        Token t = tokens.get(pos);
+        if (t.kind != Token.Kind.EOF) {
+            pos++;
+        }
+        return t;
+    }
+
+    private boolean accept(String s) {
+        if (peek().is(s)) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String s) {
+        if (!accept(s)) {
+            throw error();
+        }
+    }
+
+    private void expectEnd() {
+        if (peek().kind != Token.Kind.EOF) {
+            throw error();
+        }
+    }
+
+    private RuntimeException error() {
+        return error(peek());
+    }
+
+    private RuntimeException error(Token t) {
+        if (t.kind == Token.Kind.EOF) {
+            return new RuntimeException("Malformed query: unexpected end");
+        }
+        return new RuntimeException("Malformed query: unexpected '" + t.text + "' at " + t.pos);
+    }
+}
@@ -0,0 +1,327 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Plans the merges of a select over several tables. Conditions on the
+ * columns of one table are applied to it first; the rest are checked by
+ * the first merge that brings their columns together. The order of the
+ * merges is the one whose intermediate results are estimated to be the
+ * smallest in all, from the row counts, distinct values and value ranges
+ * of the tables' statistics. Merges are natural joins, so the order
+ * doesn't change which rows come out; the caller puts them back in the
+ * order that merging left to right gives.
+ */
+class Planner {
+
+    // Orders are searched exhaustively up to this many tables, beyond it they are merged as written.
+    private static final int MAX_TABLES = 10;
+    // Selectivity of a condition nothing is known about.
+    static final double UNKNOWN = 1.0 / 3;
+
+    final ArrayList<Table> tables;
+    // Per table, the conditions on its own columns.
+    final ArrayList<ArrayList<Condition>> local = new ArrayList<>();
+    // The tables in the order they are merged.
+    final int[] order;
+    // Per step of order, the conditions the merge with that table checks; none for the first.
+    final ArrayList<ArrayList<Condition>> joins = new ArrayList<>();
+    // Conditions no merge could check, left for the scan of the result.
+    final ArrayList<Condition> rest = new ArrayList<>();
+    // Columns of the result of merging left to right, with the type of the first table that has them.
+    final String[] header;
+    // Estimated rows per table once its conditions are applied, and per step of order after its merge.
+    final double[] scanned;
+    final double[] merged;
+    // Per step of order, the join the merge runs, see Join. Sort-merge is chosen for the first
+    // merge when the statistics have both tables ordered on the keys; the merge still checks.
+    final String[] algorithm;
+    // Estimated cost, the sum of the rows of the merges, of order and of merging as written.
+    final double cost;
+    final double written_cost;
+
+    private final ArrayList<Condition> pending = new ArrayList<>();
+    private final Statistics[] stats;
+    // Estimated distinct values per table and column once its conditions are applied.
+    private final ArrayList<HashMap<String, Double>> distinct = new ArrayList<>();
+
+    Planner(Statement.Select select, ArrayList<Table> tables) {
+        this.tables = tables;
+        int n = tables.size();
+        stats = new Statistics[n];
+        scanned = new double[n];
+        for (int i = 0; i < n; i++) {
+            local.add(new ArrayList<Condition>());
+            stats[i] = tables.get(i).statistics();
+        }
+        for (Condition c : select.conds) {
+            ArrayList<String> cols = new ArrayList<>();
+            c.columns(cols);
+            boolean pushed = false;
+            for (int i = 0; i < n; i++) {
+                if (hasColumns(tables.get(i), cols)) {
+                    local.get(i).add(c);
+                    pushed = true;
+                }
+            }
+            if (!pushed) {
+                pending.add(c);
+            }
+        }
+
+        LinkedHashMap<String, String> types = new LinkedHashMap<>();
+        boolean consistent = true;
+        for (int i = 0; i < n; i++) {
+            Table t = tables.get(i);
+            double rows = t.size();
+            for (Condition c : local.get(i)) {
+                rows *= selectivity(c, t, stats[i]);
+            }
+            scanned[i] = rows;
+            HashMap<String, Double> d = new HashMap<>();
+            for (int k = 0; k < t.columnCount(); k++) {
+                d.put(t.columnName(k), Math.max(1, Math.min(stats[i].distinct(k), rows)));
+                String type = types.putIfAbsent(t.columnName(k), t.columnType(k));
+                consistent &= type == null || type.equals(t.columnType(k));
+            }
+            distinct.add(d);
+        }
+        header = new String[types.size()];
+        int k = 0;
+        for (String name : types.keySet()) {
+            header[k++] = name + " " + types.get(name);
+        }
+
+        int[] written = new int[n];
+        for (int i = 0; i < n; i++) {
+            written[i] = i;
+        }
+        written_cost = cost(written);
+        // Differently typed shared columns make the merge empty with a header that depends on the order.
+        int[] best = consistent && n >= 3 && n <= MAX_TABLES ? search() : written;
+        // Putting the rows of another order back in order costs about one more pass over them.
+        order = cost(best) + rows(best) < written_cost ? best : written;
+        cost = cost(order);
+
+        merged = new double[n];
+        algorithm = new String[n];
+        int covered = 1 << order[0];
+        merged[0] = scanned[order[0]];
+        joins.add(new ArrayList<Condition>());
+        ArrayList<Condition> left = new ArrayList<>(pending);
+        for (int s = 1; s < n; s++) {
+            int t = order[s];
+            merged[s] = join(merged[s - 1], covered, t);
+            ArrayList<String> keys = shared(covered, t);
+            algorithm[s] = keys.isEmpty() ? Join.CROSS
+                    : s == 1 && isSorted(order[0], keys) && isSorted(t, keys) ? Join.MERGE : Join.HASH;
+            covered |= 1 << t;
+            ArrayList<Condition> checked = new ArrayList<>();
+            for (int c = 0; c < left.size(); c++) {
+                if (covers(covered, left.get(c))) {
+                    checked.add(left.remove(c--));
+                }
+            }
+            joins.add(checked);
+        }
+        rest.addAll(left);
+    }
+
+    boolean isReordered() {
+        for (int i = 0; i < order.length; i++) {
+            if (order[i] != i) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Estimated distinct values of a column of the merged tables, at most rows.
+    double distinct(String column, double rows) {
+        double ret = rows;
+        for (HashMap<String, Double> d : distinct) {
+            if (d.containsKey(column)) {
+                ret = Math.min(ret, d.get(column));
+            }
+        }
+        return Math.max(1, ret);
+    }
+
+    // The left-deep order with the least cost, by dynamic programming over the sets of tables.
+    private int[] search() {
+        int n = tables.size();
+        int sets = 1 << n;
+        double[] cost = new double[sets];
+        double[] rows = new double[sets];
+        int[] last = new int[sets];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < n; i++) {
+            cost[1 << i] = 0;
+            rows[1 << i] = scanned[i];
+            last[1 << i] = i;
+        }
+        for (int set = 1; set < sets; set++) {
+            if (cost[set] == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            for (int t = 0; t < n; t++) {
+                if ((set & 1 << t) != 0) {
+                    continue;
+                }
+                double r = join(rows[set], set, t);
+                int next = set | 1 << t;
+                if (cost[set] + r < cost[next]) {
+                    cost[next] = cost[set] + r;
+                    rows[next] = r;
+                    last[next] = t;
+                }
+            }
+        }
+        int[] ret = new int[n];
+        for (int set = sets - 1, s = n - 1; s >= 0; s--) {
+            ret[s] = last[set];
+            set &= ~(1 << last[set]);
+        }
+        return ret;
+    }
+
+    // Estimated rows of merging the tables in order.
+    private double rows(int[] order) {
+        double rows = scanned[order[0]];
+        int covered = 1 << order[0];
+        for (int s = 1; s < order.length; s++) {
+            rows = join(rows, covered, order[s]);
+            covered |= 1 << order[s];
+        }
+        return rows;
+    }
+
+    private double cost(int[] order) {
+        double rows = scanned[order[0]];
+        double ret = 0;
+        int covered = 1 << order[0];
+        for (int s = 1; s < order.length; s++) {
+            rows = join(rows, covered, order[s]);
+            ret += rows;
+            covered |= 1 << order[s];
+        }
+        return ret;
+    }
+
+    // Estimated rows of merging the tables of set, holding rows rows, with table t. Each shared
+    // column divides the pairs by the larger number of distinct values on either side.
+    private double join(double rows, int set, int t) {
+        double ret = rows * scanned[t];
+        for (String key : shared(set, t)) {
+            double d = 1;
+            for (int i = 0; i < tables.size(); i++) {
+                if ((set & 1 << i) != 0 && distinct.get(i).containsKey(key)) {
+                    d = Math.max(d, Math.min(distinct.get(i).get(key), rows));
+                }
+            }
+            ret /= Math.max(d, distinct.get(t).get(key));
+        }
+        int with = set | 1 << t;
+        for (Condition c : pending) {
+            if (covers(with, c) && !covers(set, c)) {
+                ret *= UNKNOWN;
+            }
+        }
+        return ret;
+    }
+
+    // Columns of table t that one of the tables of set has too.
+    private ArrayList<String> shared(int set, int t) {
+        ArrayList<String> ret = new ArrayList<>();
+        Table table = tables.get(t);
+        for (int k = 0; k < table.columnCount(); k++) {
+            for (int i = 0; i < tables.size(); i++) {
+                if ((set & 1 << i) != 0 && tables.get(i).hasColumn(table.columnName(k))) {
+                    ret.add(table.columnName(k));
+                    break;
+                }
+            }
+        }
+        return ret;
+    }
+
+    private boolean covers(int set, Condition c) {
+        ArrayList<String> cols = new ArrayList<>();
+        c.columns(cols);
+        for (String col : cols) {
+            boolean found = false;
+            for (int i = 0; i < tables.size() && !found; i++) {
+                found = (set & 1 << i) != 0 && tables.get(i).hasColumn(col);
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Whether table t is ordered on the columns, which it is if it is ordered on each of them.
+    private boolean isSorted(int t, ArrayList<String> columns) {
+        for (String column : columns) {
+            if (!stats[t].isSorted(tables.get(t).columnIndex(column))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Estimated fraction of the rows of t that satisfy c: from the distinct values for equality
+    // with a literal and from the range of values for an ordering, a third for anything else.
+    static double selectivity(Condition c, Table t, Statistics st) {
+        Expr col = c.left;
+        Expr lit = c.right;
+        String op = c.op;
+        if (col instanceof Expr.Literal && lit instanceof Expr.ColumnRef) {
+            col = c.right;
+            lit = c.left;
+            op = op.equals("<") ? ">" : op.equals(">") ? "<"
+                    : op.equals("<=") ? ">=" : op.equals(">=") ? "<=" : op;
+        }
+        if (!(col instanceof Expr.ColumnRef) || !(lit instanceof Expr.Literal)) {
+            return UNKNOWN;
+        }
+        int k = t.columnIndex(((Expr.ColumnRef) col).name);
+        if (k == -1) {
+            return UNKNOWN;
+        }
+        Expr.Literal l = (Expr.Literal) lit;
+        if (l.isNoValue()) {
+            return 0;
+        }
+        double values = 1 - st.noValueFraction(k);
+        double d = Math.max(1, st.distinct(k));
+        if (op.equals("==")) {
+            return values / d;
+        } else if (op.equals("!=")) {
+            return values * (1 - 1 / d);
+        }
+        Object min = st.min(k);
+        Object max = st.max(k);
+        if (!(min instanceof Number) || Column.typeOf(l.text).equals("string")) {
+            return UNKNOWN;
+        }
+        double lo = ((Number) min).doubleValue();
+        double hi = ((Number) max).doubleValue();
+        double v = Double.parseDouble(l.text);
+        double below = hi == lo ? (v > lo ? 1 : 0) : (v - lo) / (hi - lo);
+        below = Math.max(0, Math.min(1, below));
+        return values * (op.startsWith("<") ? below : 1 - below);
+    }
+
+    private static boolean hasColumns(Table t, ArrayList<String> cols) {
+        for (String col : cols) {
+            if (!t.hasColumn(col)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,58 @@
+package db;
+
+/**
+ * A compiled command that can be executed many times with different
+ * parameter values. Parameters are written as '?' in the query and are
+ * numbered from 1 in the order they appear.
+ */
+public class PreparedQuery {
+
+    private final Database db;
+    private final Statement plan;
+    private final String[] params;
+
+    PreparedQuery(Database db, Statement plan, int params) {
+        this.db = db;
+        this.plan = plan;
+        this.params = new String[params];
+    }
+
+    public int parameterCount() {
+        return params.length;
+    }
+
+    public PreparedQuery setInt(int index, int value) {
+        return set(index, Integer.toString(value));
+    }
+
+    public PreparedQuery setFloat(int index, float value) {
+        return set(index, Float.toString(value));
+    }
+
+    public PreparedQuery setString(int index, String value) {
+        if (value.indexOf('\'') >= 0) {
+            throw new IllegalArgumentException("strings can't contain quotes");
+        }
+        return set(index, "'" + value + "'");
+    }
+
+    public PreparedQuery setNoValue(int index) {
+        return set(index, Column.NOVALUE);
+    }
+
+    public String execute() {
+        return db.execute(plan, params.clone());
+    }
+
+    public ResultSet executeQuery() {
+        return db.query(plan.bind(params.clone()));
+    }
+
+    private PreparedQuery set(int index, String literal) {
+        if (index < 1 || index > params.length) {
+            throw new IndexOutOfBoundsException("no parameter " + index);
+        }
+        params[index - 1] = literal;
+        return this;
+    }
+}
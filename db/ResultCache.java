@@ -0,0 +1,79 @@
+package db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rendered results of selects, keyed by the normalized query and the
+ * versions of the tables it reads. A change to a table gives it a new
+ * version, so stale results are never looked up again and age out of
+ * the cache. The cache holds at most a budget of bytes, evicting the
+ * least recently used results first; a budget of 0 turns it off.
+ */
+class ResultCache {
+
+    // Rough cost of an entry besides its characters.
+    private static final int ENTRY_BYTES = 64;
+
+    private final LinkedHashMap<String, String> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long budget;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    synchronized boolean enabled() {
+        return budget > 0;
+    }
+
+    synchronized void setBudget(long bytes) {
+        budget = Math.max(bytes, 0);
+        evict();
+    }
+
+    // The cached result for key, or null.
+    synchronized String get(String key) {
+        String ret = results.get(key);
+        if (ret == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return ret;
+    }
+
+    // Results that alone take more than the budget are not kept.
+    synchronized void put(String key, String result) {
+        long size = size(key, result);
+        if (size > budget) {
+            return;
+        }
+        String old = results.put(key, result);
+        if (old != null) {
+            bytes -= size(key, old);
+        }
+        bytes += size;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, String>> it = results.entrySet().iterator();
+        while (bytes > budget && it.hasNext()) {
+            Map.Entry<String, String> e = it.next();
+            bytes -= size(e.getKey(), e.getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static long size(String key, String result) {
+        return 2L * (key.length() + result.length()) + ENTRY_BYTES;
+    }
+
+    synchronized String stats() {
+        long lookups = hits + misses;
+        return String.format("result cache: %d entries, %d of %d bytes, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                results.size(), bytes, budget, hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions);
+    }
+}
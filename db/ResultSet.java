@@ -0,0 +1,128 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Cursor over the rows of a query result. Rows are produced in batches as
+ * the cursor advances, so only a small part of the result is held at once.
+ * Columns are numbered from 1.
+ */
+public class ResultSet implements AutoCloseable {
+
+    private static final int BATCH = 1024;
+
+    private Table source;
+    private int[] ids;
+    private Kernel[] kernels;
+    private String[] names;
+    private String[] types;
+    private int pos;
+    private int end;
+
+    private Column[] batch;
+    private int batch_size;
+    private int row;
+    // Rows projected so far and the time it took, recorded as one operator when the cursor is closed.
+    private int rows;
+    private long project_nanos;
+    private ArrayList<Statement.Item> items;
+
+    ResultSet(Table source, int[] ids, ArrayList<Statement.Item> items) {
+        this.source = source;
+        this.ids = ids;
+        this.kernels = source.compile(items);
+        this.items = items;
+        String[] header = source.header(items);
+        names = new String[header.length];
+        types = new String[header.length];
+        for (int i = 0; i < header.length; i++) {
+            String[] tmp = header[i].split(" ");
+            names[i] = tmp[0];
+            types[i] = tmp[1];
+        }
+        end = ids.length;
+    }
+
+    // Restricts the rows to at most limit of them after skipping offset rows.
+    ResultSet page(int offset, int limit) {
+        pos = Math.min(end, pos + Math.max(offset, 0));
+        end = (int) Math.min(end, (long) pos + Math.max(limit, 0));
+        return this;
+    }
+
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    public String getColumnName(int col) {
+        return names[col - 1];
+    }
+
+    public String getColumnType(int col) {
+        return types[col - 1];
+    }
+
+    public boolean next() {
+        row++;
+        if (batch == null || row >= batch_size) {
+            if (ids == null || pos >= end) {
+                batch = null;
+                return false;
+            }
+            int n = Math.min(BATCH, end - pos);
+            long start = Metrics.start();
+            batch = source.project(kernels, Arrays.copyOfRange(ids, pos, pos + n));
+            if (start != Metrics.OFF) {
+                project_nanos += System.nanoTime() - start;
+            }
+            rows += n;
+            batch_size = n;
+            pos += n;
+            row = 0;
+        }
+        return true;
+    }
+
+    public boolean isNoValue(int col) {
+        return current(col).isNoValue(row);
+    }
+
+    public int getInt(int col) {
+        Column c = current(col);
+        if (!(c instanceof IntColumn)) {
+            throw new IllegalStateException("column " + col + " is not an int");
+        }
+        return ((IntColumn) c).get(row);
+    }
+
+    public float getFloat(int col) {
+        return current(col).floatAt(row);
+    }
+
+    // The value of a column in its literal form, the same as it is printed.
+    public String getString(int col) {
+        return current(col).render(row);
+    }
+
+    // Number of rows the cursor has produced.
+    int rows() {
+        return rows;
+    }
+
+    public void close() {
+        if (source != null && project_nanos > 0) {
+            Metrics.record(Metrics.Phase.PROJECT, 1, "project", items, project_nanos, rows, rows);
+        }
+        source = null;
+        ids = null;
+        batch = null;
+    }
+
+    private Column current(int col) {
+        if (batch == null) {
+            throw new IllegalStateException("no current row");
+        }
+        return batch[col - 1];
+    }
+}
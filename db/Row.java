@@ -63,13 +63,6 @@ class Row {
     }
 
     public String toString() {
-        String ret = "";
-        for (int i = 0; i < literals.length; i++) {
-            ret += literals[i];
-            if (i != literals.length - 1) {
-                ret += ",";
-            }
-        }
-        return ret;
+        return String.join(",", literals);
     }
 }
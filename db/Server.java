@@ -0,0 +1,108 @@
+package db;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves one database to many clients over TCP. Every connection is a
+ * session speaking the same line protocol as the console: a prompt, one
+ * command per line, its output, and "exit" to hang up. Sessions run on
+ * virtual threads where the runtime has them.
+ */
+public class Server implements AutoCloseable {
+
+    private static final String EXIT = "exit";
+    private static final String PROMPT = "> ";
+
+    private final Database db;
+    private final ServerSocket socket;
+    private final ExecutorService sessions;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+    // Listens on the loopback address; port 0 picks a free one.
+    public Server(Database db, int port) throws IOException {
+        this.db = db;
+        this.socket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.sessions = executor();
+    }
+
+    public int port() {
+        return socket.getLocalPort();
+    }
+
+    // Accepts clients until the server is closed.
+    public void serve() throws IOException {
+        while (true) {
+            Socket client;
+            try {
+                client = socket.accept();
+            } catch (SocketException e) {
+                if (socket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            clients.add(client);
+            sessions.execute(() -> session(client));
+        }
+    }
+
+    private void session(Socket client) {
+        try (Socket c = client;
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new BufferedWriter(
+                        new OutputStreamWriter(c.getOutputStream(), StandardCharsets.UTF_8))) {
+            out.write(PROMPT);
+            out.flush();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (EXIT.equals(line)) {
+                    break;
+                }
+                if (!line.trim().isEmpty()) {
+                    if (db.transact(line, out)) {
+                        out.write(System.lineSeparator());
+                    }
+                }
+                out.write(PROMPT);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away, nothing to answer.
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    // Stops accepting and hangs up on the connected clients.
+    public void close() throws IOException {
+        socket.close();
+        for (Socket c : clients) {
+            c.close();
+        }
+        sessions.shutdown();
+    }
+
+    // A virtual thread per session on Java 21, a cached thread pool before that.
+    private static ExecutorService executor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
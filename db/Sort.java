@@ -0,0 +1,406 @@
+package db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Orders the rows of a query by key kernels. A limit keeps only the best
+ * rows in a bounded heap; without one the keys are sorted in memory, or,
+ * when they would take more than the memory budget, in sorted runs spilled
+ * to temp files and merged. Sorting is stable and NOVALUE sorts first.
+ */
+class Sort {
+
+    private static final int BATCH = 4096;
+    // Runs merged at once; more are first merged in passes into longer runs, so few files are open.
+    private static final int FAN_IN = 64;
+
+    private static volatile long budget = 64L << 20;
+
+    interface IntComparator {
+        int compare(int a, int b);
+    }
+
+    static void setBudget(long bytes) {
+        budget = Math.max(bytes, 1);
+    }
+
+    // The ids ordered by the keys; with a limit of at least 0, at most limit of them after offset.
+    static int[] order(Table t, int[] ids, Kernel[] keys, boolean[] desc, int offset, int limit) {
+        int n = ids.length;
+        if (limit >= 0 && (long) offset + limit < n) {
+            int[] top = top(t, ids, keys, desc, offset + limit);
+            return Arrays.copyOfRange(top, Math.min(offset, top.length), top.length);
+        }
+        int[] ret;
+        long row_bytes = 4;
+        for (Kernel k : keys) {
+            row_bytes += k.type.equals("string") ? 40 : 8;
+        }
+        int run = (int) Math.max(1, Math.min(n, budget / row_bytes));
+        ret = run < n ? external(t, ids, keys, desc, run) : sorted(t, ids, keys, desc);
+        if (limit < 0 && offset == 0) {
+            return ret;
+        }
+        int from = Math.min(offset, n);
+        int to = limit < 0 ? n : (int) Math.min(n, (long) from + limit);
+        return Arrays.copyOfRange(ret, from, to);
+    }
+
+    private static int[] sorted(Table t, int[] ids, Kernel[] keys, boolean[] desc) {
+        Column[] cols = eval(t, ids, keys);
+        int[] pos = identity(ids.length);
+        sort(pos, (a, b) -> compare(cols, a, cols, b, desc));
+        for (int i = 0; i < pos.length; i++) {
+            pos[i] = ids[pos[i]];
+        }
+        return pos;
+    }
+
+    // Keeps the best k rows in a heap with the worst of them on top. The keys of the rows that
+    // entered the heap are copied into held, which is compacted when it grows past the heap.
+    private static int[] top(Table t, int[] ids, Kernel[] keys, boolean[] desc, int k) {
+        if (k == 0) {
+            return new int[0];
+        }
+        Column[] held = new Column[keys.length];
+        for (int j = 0; j < keys.length; j++) {
+            held[j] = Column.of(keys[j].type);
+        }
+        IntList held_pos = new IntList();
+        int[] heap = new int[k];
+        int size = 0;
+        for (int from = 0; from < ids.length; from += BATCH) {
+            int to = Math.min(ids.length, from + BATCH);
+            Column[] cols = eval(t, Arrays.copyOfRange(ids, from, to), keys);
+            for (int i = 0; i < to - from; i++) {
+                // Ties go to the earlier row, which is always the held one.
+                if (size == k && compare(cols, i, held, heap[0], desc) >= 0) {
+                    continue;
+                }
+                int slot = held_pos.size();
+                for (int j = 0; j < keys.length; j++) {
+                    held[j].appendFrom(cols[j], i);
+                }
+                held_pos.add(from + i);
+                if (size < k) {
+                    heap[size] = slot;
+                    up(heap, size++, held, held_pos, desc);
+                } else {
+                    heap[0] = slot;
+                    down(heap, size, held, held_pos, desc);
+                }
+            }
+            if (held_pos.size() > 2 * k + BATCH) {
+                IntList live = new IntList();
+                for (int j = 0; j < keys.length; j++) {
+                    held[j] = held[j].gather(heap, size);
+                }
+                for (int i = 0; i < size; i++) {
+                    live.add(held_pos.get(heap[i]));
+                    heap[i] = i;
+                }
+                held_pos = live;
+            }
+        }
+        final Column[] h = held;
+        final IntList hp = held_pos;
+        int[] ret = Arrays.copyOf(heap, size);
+        sort(ret, (a, b) -> {
+            int c = compare(h, a, h, b, desc);
+            return c != 0 ? c : Integer.compare(hp.get(a), hp.get(b));
+        });
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = ids[hp.get(ret[i])];
+        }
+        return ret;
+    }
+
+    // Whether held slot a comes after slot b in the order.
+    private static boolean worse(Column[] held, IntList pos, int a, int b, boolean[] desc) {
+        int c = compare(held, a, held, b, desc);
+        return c > 0 || (c == 0 && pos.get(a) > pos.get(b));
+    }
+
+    private static void up(int[] heap, int i, Column[] held, IntList pos, boolean[] desc) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(held, pos, heap[i], heap[parent], desc)) {
+                return;
+            }
+            swap(heap, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void down(int[] heap, int size, Column[] held, IntList pos, boolean[] desc) {
+        int i = 0;
+        while (true) {
+            int worst = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                if (worse(held, pos, heap[child], heap[worst], desc)) {
+                    worst = child;
+                }
+            }
+            if (worst == i) {
+                return;
+            }
+            swap(heap, i, worst);
+            i = worst;
+        }
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int tmp = a[i];
+        a[i] = a[j];
+        a[j] = tmp;
+    }
+
+    // Sorts runs of the given number of rows in memory, spills each to a temp file and merges them.
+    private static int[] external(Table t, int[] ids, Kernel[] keys, boolean[] desc, int run) {
+        ArrayList<Path> files = new ArrayList<>();
+        List<Path> runs = new ArrayList<>();
+        try {
+            for (int from = 0; from < ids.length; from += run) {
+                int to = Math.min(ids.length, from + run);
+                Column[] cols = eval(t, Arrays.copyOfRange(ids, from, to), keys);
+                int[] pos = identity(to - from);
+                sort(pos, (a, b) -> compare(cols, a, cols, b, desc));
+                Path file = Files.createTempFile("sort", ".run");
+                files.add(file);
+                runs.add(file);
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(file)))) {
+                    for (int p : pos) {
+                        out.writeInt(from + p);
+                        for (Column c : cols) {
+                            write(out, c, p);
+                        }
+                    }
+                }
+            }
+            while (runs.size() > FAN_IN) {
+                List<Path> longer = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += FAN_IN) {
+                    Path file = Files.createTempFile("sort", ".run");
+                    files.add(file);
+                    longer.add(file);
+                    try (DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(Files.newOutputStream(file)))) {
+                        merge(runs.subList(i, Math.min(runs.size(), i + FAN_IN)), keys, desc, out, null, null);
+                    }
+                }
+                for (Path file : runs) {
+                    Files.deleteIfExists(file);
+                }
+                runs = longer;
+            }
+            int[] ret = new int[ids.length];
+            merge(runs, keys, desc, null, ids, ret);
+            return ret;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (Path file : files) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // Left for the temp directory's own cleanup.
+                }
+            }
+        }
+    }
+
+    // Merges runs by their keys and positions, into the run out if it isn't null and otherwise
+    // into ret as the ids at their positions.
+    private static void merge(List<Path> files, Kernel[] keys, boolean[] desc, DataOutputStream out,
+            int[] ids, int[] ret) throws IOException {
+        ArrayList<Run> runs = new ArrayList<>();
+        try {
+            PriorityQueue<Run> merge = new PriorityQueue<>((a, b) -> a.compareTo(b, desc));
+            for (Path file : files) {
+                Run r = new Run(file, keys);
+                runs.add(r);
+                if (r.next()) {
+                    merge.add(r);
+                }
+            }
+            int n = 0;
+            while (!merge.isEmpty()) {
+                Run r = merge.poll();
+                if (out != null) {
+                    r.write(out);
+                } else {
+                    ret[n++] = ids[r.pos];
+                }
+                if (r.next()) {
+                    merge.add(r);
+                }
+            }
+        } finally {
+            for (Run r : runs) {
+                r.close();
+            }
+        }
+    }
+
+    private static void write(DataOutputStream out, Column c, int row) throws IOException {
+        if (c.isNoValue(row)) {
+            out.writeBoolean(false);
+            return;
+        }
+        out.writeBoolean(true);
+        if (c instanceof IntColumn) {
+            out.writeInt(((IntColumn) c).get(row));
+        } else if (c instanceof FloatColumn) {
+            out.writeFloat(((FloatColumn) c).get(row));
+        } else {
+            out.writeUTF(((StringColumn) c).get(row));
+        }
+    }
+
+    // A spilled run read back one row at a time; a null key stands for NOVALUE.
+    private static class Run {
+        final DataInputStream in;
+        final String[] types;
+        final Object[] key;
+        int pos;
+
+        Run(Path file, Kernel[] keys) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            types = new String[keys.length];
+            for (int j = 0; j < keys.length; j++) {
+                types[j] = keys[j].type;
+            }
+            key = new Object[keys.length];
+        }
+
+        boolean next() throws IOException {
+            try {
+                pos = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            for (int j = 0; j < key.length; j++) {
+                if (!in.readBoolean()) {
+                    key[j] = null;
+                } else if (types[j].equals("int")) {
+                    key[j] = in.readInt();
+                } else if (types[j].equals("float")) {
+                    key[j] = in.readFloat();
+                } else {
+                    key[j] = in.readUTF();
+                }
+            }
+            return true;
+        }
+
+        // Writes the current row as it was read.
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(pos);
+            for (int j = 0; j < key.length; j++) {
+                out.writeBoolean(key[j] != null);
+                if (key[j] instanceof Integer) {
+                    out.writeInt((Integer) key[j]);
+                } else if (key[j] instanceof Float) {
+                    out.writeFloat((Float) key[j]);
+                } else if (key[j] != null) {
+                    out.writeUTF((String) key[j]);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        int compareTo(Run other, boolean[] desc) {
+            for (int j = 0; j < key.length; j++) {
+                Object a = key[j];
+                Object b = other.key[j];
+                // -0.0 and 0.0 are equal here too, as in FloatColumn.compareValue.
+                int c = a == null || b == null ? Boolean.compare(a != null, b != null)
+                        : a instanceof Float && (Float) a == (float) (Float) b ? 0
+                        : ((Comparable<Object>) a).compareTo(b);
+                if (c != 0) {
+                    return desc[j] ? -c : c;
+                }
+            }
+            return Integer.compare(pos, other.pos);
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing was written through it.
+            }
+        }
+    }
+
+    private static Column[] eval(Table t, int[] ids, Kernel[] keys) {
+        Column[] ret = new Column[keys.length];
+        for (int j = 0; j < keys.length; j++) {
+            ret[j] = keys[j].eval(t, ids);
+        }
+        return ret;
+    }
+
+    private static int compare(Column[] a, int i, Column[] b, int j, boolean[] desc) {
+        for (int k = 0; k < a.length; k++) {
+            int c = a[k].compareValue(i, b[k], j);
+            if (c != 0) {
+                return desc[k] ? -c : c;
+            }
+        }
+        return 0;
+    }
+
+    private static int[] identity(int n) {
+        int[] ret = new int[n];
+        for (int i = 0; i < n; i++) {
+            ret[i] = i;
+        }
+        return ret;
+    }
+
+    // Stable merge sort of a, falling back to insertion sort on short ranges.
+    static void sort(int[] a, IntComparator cmp) {
+        int[] tmp = a.clone();
+        sort(tmp, a, 0, a.length, cmp);
+    }
+
+    // Sorts src[from, to) into dst; both hold the same values on entry.
+    private static void sort(int[] src, int[] dst, int from, int to, IntComparator cmp) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {
+                int v = dst[i];
+                int j = i - 1;
+                while (j >= from && cmp.compare(dst[j], v) > 0) {
+                    dst[j + 1] = dst[j];
+                    j--;
+                }
+                dst[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sort(dst, src, from, mid, cmp);
+        sort(dst, src, mid, to, cmp);
+        for (int i = from, p = from, q = mid; i < to; i++) {
+            if (q >= to || (p < mid && cmp.compare(src[p], src[q]) <= 0)) {
+                dst[i] = src[p++];
+            } else {
+                dst[i] = src[q++];
+            }
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package db;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+
+/**
+ * Parsed form of a command. A statement may hold parameters, which are
+ * replaced by literals with {@link #bind} before it is executed.
+ */
+abstract class Statement {
+
+    abstract Statement bind(String[] params);
+
+    abstract String execute(Database db);
+
+    // Command text that redoes the statement from the write-ahead log, null if it changes nothing
+    // or, like a load or store, is made durable by a checkpoint instead.
+    String redo() {
+        return null;
+    }
+
+    // Names of the tables the statement changes, locked while it runs; null if none.
+    String[] writes(Database db) {
+        return null;
+    }
+
+    // Opens a cursor over the result of a query, other statements return null.
+    ResultSet open(Database db) {
+        return null;
+    }
+
+    static class CreateTable extends Statement {
+        final String name;
+        final String[] columns;
+
+        CreateTable(String name, String[] columns) {
+            this.name = name;
+            this.columns = columns;
+        }
+
+        Statement bind(String[] params) {
+            return this;
+        }
+
+        String execute(Database db) {
+            return db.createNewTable(name, columns);
+        }
+
+        String redo() {
+            return "create table " + name + " (" + String.join(", ", columns) + ")";
+        }
+
+        String[] writes(Database db) {
+            return new String[] {name};
+        }
+    }
+
+    static class CreateAs extends Statement {
+        final String name;
+        final Select select;
+
+        CreateAs(String name, Select select) {
+            this.name = name;
+            this.select = select;
+        }
+
+        Statement bind(String[] params) {
+            return new CreateAs(name, select.bind(params));
+        }
+
+        String execute(Database db) {
+            return db.createSelectedTable(name, select);
+        }
+
+        String redo() {
+            return "create table " + name + " as " + select;
+        }
+
+        String[] writes(Database db) {
+            return new String[] {name};
+        }
+    }
+
+    static class CreateView extends Statement {
+        final String name;
+        final Select select;
+
+        CreateView(String name, Select select) {
+            this.name = name;
+            this.select = select;
+        }
+
+        Statement bind(String[] params) {
+            return new CreateView(name, select.bind(params));
+        }
+
+        String execute(Database db) {
+            return db.createView(name, select);
+        }
+
+        String redo() {
+            return "create materialized view " + name + " as " + select;
+        }
+
+        String[] writes(Database db) {
+            return new String[] {name};
+        }
+    }
+
+    static class CreateIndex extends Statement {
+        final String name;
+        final String table;
+        final String column;
+        final String kind;
+
+        CreateIndex(String name, String table, String column, String kind) {
+            this.name = name;
+            this.table = table;
+            this.column = column;
+            this.kind = kind;
+        }
+
+        Statement bind(String[] params) {
+            return this;
+        }
+
+        String execute(Database db) {
+            return db.createIndex(name, table, column, kind);
+        }
+
+        String redo() {
+            return "create index " + name + " on " + table + " (" + column + ") using " + kind;
+        }
+
+        String[] writes(Database db) {
+            return new String[] {table, name};
+        }
+    }
+
+    static class DropIndex extends Statement {
+        final String name;
+
+        DropIndex(String name) {
+            this.name = name;
+        }
+
+        Statement bind(String[] params) {
+            return this;
+        }
+
+        String execute(Database db) {
+            return db.dropIndex(name);
+        }
+
+        String redo() {
+            return "drop index " + name;
+        }
+
+        String[] writes(Database db) {
+            String table = db.indexTable(name);
+            return new String[] {table == null ? name : table};
+        }
+    }
+
+    // format is "binary", "delta", "paged", "text" or null for the default.
+    static class Load extends Statement {
+        final String name;
+        final String format;
+
+        Load(String name, String format) {
+            this.name = name;
+            this.format = format;
+        }
+
+        Statement bind(String[] params) {
+            return this;
+        }
+
+        String execute(Database db) {
+            return db.load(name, format);
+        }
+
+        String[] writes(Database db) {
+            return new String[] {name};
+        }
+    }
+
+    // format is "binary", "delta", "paged", "text" or null for the default.
+    static class Store extends Statement {
+        final String name;
+        final String format;
+
+        Store(String name, String format) {
+            this.name = name;
+            this.format = format;
+        }
+
+        Statement bind(String[] params) {
+            return this;
+        }
+
+        String execute(Database db) {
+            return db.store(name, format);
+        }
+
+        String[] writes(Database db) {
+            return new String[] {name};
+        }
+    }
+
+    static class Drop extends Statement {
+        final String name;
+
+        Drop(String name) {
+            this.name = name;
+        }
+
+        Statement bind(String[] params) {
+            return this;
+        }
+
+        String execute(Database db) {
+            return db.dropTable(name);
+        }
+
+        String redo() {
+            return "drop table " + name;
+        }
+
+        String[] writes(Database db) {
+            return new String[] {name};
+        }
+    }
+
+    static class Print extends Statement {
+        final String name;
+
+        Print(String name) {
+            this.name = name;
+        }
+
+        Statement bind(String[] params) {
+            return this;
+        }
+
+        String execute(Database db) {
+            return db.print(name);
+        }
+
+        ResultSet open(Database db) {
+            return db.cursor(name);
+        }
+    }
+
+    // Shows the plan of a select; with analyze, runs it and shows its operators' timings and row counts.
+    static class Explain extends Statement {
+        final Select select;
+        final boolean analyze;
+
+        Explain(Select select, boolean analyze) {
+            this.select = select;
+            this.analyze = analyze;
+        }
+
+        Statement bind(String[] params) {
+            return new Explain(select.bind(params), analyze);
+        }
+
+        String execute(Database db) {
+            return analyze ? db.explainAnalyze(select) : db.explain(select);
+        }
+    }
+
+    // Prints the metrics, or turns them on, off or back to zero.
+    static class Stats extends Statement {
+        final String action;
+
+        Stats(String action) {
+            this.action = action;
+        }
+
+        Statement bind(String[] params) {
+            return this;
+        }
+
+        String execute(Database db) {
+            return db.stats(action);
+        }
+    }
+
+    // One or more rows of literals; a single row is written without parentheses.
+    static class Insert extends Statement {
+        final String table;
+        final Expr[][] rows;
+
+        Insert(String table, Expr[][] rows) {
+            this.table = table;
+            this.rows = rows;
+        }
+
+        Statement bind(String[] params) {
+            Expr[][] bound = new Expr[rows.length][];
+            for (int r = 0; r < rows.length; r++) {
+                bound[r] = new Expr[rows[r].length];
+                for (int i = 0; i < rows[r].length; i++) {
+                    bound[r][i] = rows[r][i].bind(params);
+                }
+            }
+            return new Insert(table, bound);
+        }
+
+        String execute(Database db) {
+            String[][] literals = new String[rows.length][];
+            for (int r = 0; r < rows.length; r++) {
+                literals[r] = new String[rows[r].length];
+                for (int i = 0; i < rows[r].length; i++) {
+                    if (!(rows[r][i] instanceof Expr.Literal)) {
+                        return "ERROR: insert values must be literals";
+                    }
+                    literals[r][i] = ((Expr.Literal) rows[r][i]).text;
+                }
+            }
+            return db.insertRows(table, literals);
+        }
+
+        String redo() {
+            StringBuilder ret = new StringBuilder("insert into ").append(table).append(" values ");
+            for (int r = 0; r < rows.length; r++) {
+                ret.append(r == 0 ? "" : ", ").append(rows.length == 1 ? "" : "(");
+                for (int i = 0; i < rows[r].length; i++) {
+                    ret.append(i == 0 ? "" : ", ").append(rows[r][i]);
+                }
+                ret.append(rows.length == 1 ? "" : ")");
+            }
+            return ret.toString();
+        }
+
+        String[] writes(Database db) {
+            return new String[] {table};
+        }
+    }
+
+    // Rows of typed columns from an Appender, logged as the insert of their literals.
+    static class Append extends Statement {
+        final String table;
+        final Column[] data;
+        final int rows;
+
+        Append(String table, Column[] data, int rows) {
+            this.table = table;
+            this.data = data;
+            this.rows = rows;
+        }
+
+        Statement bind(String[] params) {
+            return this;
+        }
+
+        String execute(Database db) {
+            return db.appendRows(table, data, rows);
+        }
+
+        String redo() {
+            StringBuilder ret = new StringBuilder("insert into ").append(table).append(" values ");
+            for (int r = 0; r < rows; r++) {
+                ret.append(r == 0 ? "(" : ", (");
+                for (int i = 0; i < data.length; i++) {
+                    ret.append(i == 0 ? "" : ", ").append(literal(data[i], r));
+                }
+                ret.append(')');
+            }
+            return ret.toString();
+        }
+
+        // Floats are written in full, not rounded as they are rendered.
+        private static String literal(Column c, int row) {
+            if (c.isNoValue(row) || !(c instanceof FloatColumn)) {
+                return c.render(row);
+            }
+            String text = new BigDecimal(Float.toString(((FloatColumn) c).get(row))).toPlainString();
+            return text.indexOf('.') < 0 ? text + ".0" : text;
+        }
+
+        String[] writes(Database db) {
+            return new String[] {table};
+        }
+    }
+
+    static class Select extends Statement {
+        final ArrayList<Item> items;
+        final ArrayList<String> tables;
+        final ArrayList<Condition> conds;
+        // Expressions of the group by clause, empty without one.
+        final ArrayList<Expr> groups;
+        final ArrayList<Order> order;
+        // Literals or parameters of the limit clause, null without one.
+        final Expr limit;
+        final Expr offset;
+
+        Select(ArrayList<Item> items, ArrayList<String> tables, ArrayList<Condition> conds,
+                ArrayList<Expr> groups, ArrayList<Order> order, Expr limit, Expr offset) {
+            this.items = items;
+            this.tables = tables;
+            this.conds = conds;
+            this.groups = groups;
+            this.order = order;
+            this.limit = limit;
+            this.offset = offset;
+        }
+
+        // The number of rows to return, -1 for all of them.
+        int limit() {
+            return limit == null ? -1 : count(limit);
+        }
+
+        int offset() {
+            return offset == null ? 0 : count(offset);
+        }
+
+        private static int count(Expr e) {
+            if (!(e instanceof Expr.Literal) || !Column.typeOf(((Expr.Literal) e).text).equals("int")
+                    || ((Expr.Literal) e).text.startsWith("-")) {
+                throw new RuntimeException("limit and offset must be non-negative ints");
+            }
+            return Integer.parseInt(((Expr.Literal) e).text);
+        }
+
+        // Whether the select groups its rows, with a group by clause or by selecting aggregates.
+        boolean isAggregate() {
+            if (!groups.isEmpty()) {
+                return true;
+            }
+            for (Item item : items) {
+                if (item.expr instanceof Expr.Aggregate) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Select bind(String[] params) {
+            ArrayList<Item> items = new ArrayList<>();
+            for (Item item : this.items) {
+                items.add(new Item(item.expr == null ? null : item.expr.bind(params), item.alias));
+            }
+            ArrayList<Condition> conds = new ArrayList<>();
+            for (Condition c : this.conds) {
+                conds.add(c.bind(params));
+            }
+            ArrayList<Expr> groups = new ArrayList<>();
+            for (Expr e : this.groups) {
+                groups.add(e.bind(params));
+            }
+            return new Select(items, tables, conds, groups, order,
+                    limit == null ? null : limit.bind(params), offset == null ? null : offset.bind(params));
+        }
+
+        String execute(Database db) {
+            return db.select(this);
+        }
+
+        ResultSet open(Database db) {
+            return db.cursor(this);
+        }
+
+        public String toString() {
+            StringBuilder ret = new StringBuilder("select ");
+            for (int i = 0; i < items.size(); i++) {
+                ret.append(i == 0 ? "" : ", ").append(items.get(i));
+            }
+            ret.append(" from ").append(String.join(", ", tables));
+            for (int i = 0; i < conds.size(); i++) {
+                ret.append(i == 0 ? " where " : " and ").append(conds.get(i));
+            }
+            for (int i = 0; i < groups.size(); i++) {
+                ret.append(i == 0 ? " group by " : ", ").append(groups.get(i));
+            }
+            for (int i = 0; i < order.size(); i++) {
+                ret.append(i == 0 ? " order by " : ", ").append(order.get(i));
+            }
+            if (limit != null) {
+                ret.append(" limit ").append(limit);
+            }
+            if (offset != null) {
+                ret.append(" offset ").append(offset);
+            }
+            return ret.toString();
+        }
+    }
+
+    // A key of an order by clause, the name of a selected item or of a column.
+    static class Order {
+        final String column;
+        final boolean desc;
+
+        Order(String column, boolean desc) {
+            this.column = column;
+            this.desc = desc;
+        }
+
+        public String toString() {
+            return column + (desc ? " desc" : " asc");
+        }
+    }
+
+    // One projected expression of a select, a null expr stands for '*'.
+    static class Item {
+        final Expr expr;
+        final String alias;
+
+        Item(Expr expr, String alias) {
+            this.expr = expr;
+            this.alias = alias;
+        }
+
+        static ArrayList<Item> all() {
+            ArrayList<Item> ret = new ArrayList<>();
+            ret.add(new Item(null, null));
+            return ret;
+        }
+
+        public String toString() {
+            return (expr == null ? "*" : expr.toString()) + (alias == null ? "" : " as " + alias);
+        }
+
+        String name() {
+            if (alias != null) {
+                return alias;
+            } else if (expr instanceof Expr.ColumnRef) {
+                return ((Expr.ColumnRef) expr).name;
+            } else if (expr instanceof Expr.Aggregate) {
+                return ((Expr.Aggregate) expr).function;
+            }
+            throw new RuntimeException("missing alias for " + expr);
+        }
+    }
+}
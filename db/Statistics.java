@@ -0,0 +1,160 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * What the planner knows about the columns of a table: the number of
+ * rows, and per column a HyperLogLog estimate of its distinct values, its
+ * least and greatest values, how many rows are NOVALUE and whether it is
+ * in ascending order. Collected over a whole table once, then kept up to
+ * date row by row as rows are inserted.
+ */
+class Statistics {
+
+    // 2^11 registers per column, for a standard error of about 2.3%.
+    private static final int BITS = 11;
+    private static final int REGISTERS = 1 << BITS;
+    private static final int BATCH = 1 << 16;
+
+    private final byte[][] registers;
+    private final Object[] min;
+    private final Object[] max;
+    private final long[] novalues;
+    private final boolean[] sorted;
+    // The last value added per column, NOVALUE being null, which keeps sorted current.
+    private final Object[] last;
+    private long rows;
+
+    Statistics(String[] types) {
+        registers = new byte[types.length][REGISTERS];
+        min = new Object[types.length];
+        max = new Object[types.length];
+        novalues = new long[types.length];
+        sorted = new boolean[types.length];
+        last = new Object[types.length];
+        Arrays.fill(sorted, true);
+    }
+
+    static Statistics of(Table t) {
+        String[] types = new String[t.columnCount()];
+        for (int c = 0; c < types.length; c++) {
+            types[c] = t.columnType(c);
+        }
+        Statistics ret = new Statistics(types);
+        // Read a batch at a time, so the columns of a paged table are never held whole.
+        int[] ids = new int[Math.min(t.size(), BATCH)];
+        for (int start = 0; start < t.size(); start += BATCH) {
+            int n = Math.min(BATCH, t.size() - start);
+            for (int k = 0; k < n; k++) {
+                ids[k] = start + k;
+            }
+            for (int c = 0; c < types.length; c++) {
+                Column col = t.gather(c, ids, n);
+                for (int row = 0; row < n; row++) {
+                    ret.add(c, col, row);
+                }
+            }
+        }
+        ret.rows = t.size();
+        return ret;
+    }
+
+    private Statistics(Statistics other) {
+        registers = new byte[other.registers.length][];
+        for (int c = 0; c < registers.length; c++) {
+            registers[c] = other.registers[c].clone();
+        }
+        min = other.min.clone();
+        max = other.max.clone();
+        novalues = other.novalues.clone();
+        sorted = other.sorted.clone();
+        last = other.last.clone();
+        rows = other.rows;
+    }
+
+    Statistics copy() {
+        return new Statistics(this);
+    }
+
+    // Adds the row of the columns, the one just appended to them.
+    void add(Column[] data, int row) {
+        for (int c = 0; c < data.length; c++) {
+            add(c, data[c], row);
+        }
+        rows++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add(int c, Column col, int row) {
+        if (col.isNoValue(row)) {
+            // NOVALUE sorts first, so it breaks the order after any value.
+            novalues[c]++;
+            sorted[c] &= last[c] == null;
+            return;
+        }
+        Object v = col.valueAt(row);
+        Comparable<Object> value = (Comparable<Object>) v;
+        if (min[c] == null || value.compareTo(min[c]) < 0) {
+            min[c] = v;
+        }
+        if (max[c] == null || value.compareTo(max[c]) > 0) {
+            max[c] = v;
+        }
+        sorted[c] &= last[c] == null || value.compareTo(last[c]) >= 0;
+        last[c] = v;
+        long h = mix(col.hashValue(row));
+        int r = (int) (h >>> (64 - BITS));
+        byte rank = (byte) (Long.numberOfLeadingZeros((h << BITS) | (1L << (BITS - 1))) + 1);
+        if (rank > registers[c][r]) {
+            registers[c][r] = rank;
+        }
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    // Estimated number of distinct values other than NOVALUE in column c.
+    double distinct(int c) {
+        double sum = 0;
+        int zeros = 0;
+        for (byte b : registers[c]) {
+            sum += 1.0 / (1L << b);
+            if (b == 0) {
+                zeros++;
+            }
+        }
+        double m = REGISTERS;
+        double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        // Small cardinalities are better estimated by linear counting.
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log(m / zeros);
+        }
+        return Math.min(estimate, rows - novalues[c]);
+    }
+
+    double noValueFraction(int c) {
+        return rows == 0 ? 0 : (double) novalues[c] / rows;
+    }
+
+    // The least and greatest values of column c, null when it only holds NOVALUE.
+    Object min(int c) {
+        return min[c];
+    }
+
+    Object max(int c) {
+        return max[c];
+    }
+
+    boolean isSorted(int c) {
+        return sorted[c];
+    }
+}
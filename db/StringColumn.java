@@ -0,0 +1,153 @@
+package db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Dictionary-encoded string column. Each distinct string is stored once,
+ * without its surrounding quotes, and rows hold an index into the dictionary.
+ */
+class StringColumn extends Column {
+
+    private int[] codes = new int[16];
+    // Only grows, so snapshots sharing it see the entries their rows refer to.
+    private String[] dict = new String[16];
+    private int dict_size;
+    private HashMap<String, Integer> lookup = new HashMap<>();
+
+    String type() {
+        return "string";
+    }
+
+    String get(int row) {
+        return dict[codes[row]];
+    }
+
+    int code(int row) {
+        return codes[row];
+    }
+
+    void add(String v) {
+        Integer code = lookup.get(v);
+        if (code == null) {
+            code = dict_size;
+            if (dict_size == dict.length) {
+                dict = Arrays.copyOf(dict, dict_size * 2);
+            }
+            dict[dict_size++] = v;
+            lookup.put(v, code);
+        }
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, size * 2);
+        }
+        codes[size++] = code;
+    }
+
+    // Strips the surrounding quotes of a string literal.
+    static String unquote(String literal) {
+        if (literal.length() >= 2 && literal.startsWith("'") && literal.endsWith("'")) {
+            return literal.substring(1, literal.length() - 1);
+        }
+        return literal;
+    }
+
+    // Snapshots never add strings, so they go without the lookup map.
+    Column share() {
+        StringColumn c = new StringColumn();
+        c.codes = codes;
+        c.dict = dict;
+        c.dict_size = dict_size;
+        c.lookup = null;
+        return c;
+    }
+
+    void appendValue(String literal) {
+        add(unquote(literal));
+    }
+
+    void appendDefault() {
+        add("");
+    }
+
+    void appendFrom(Column src, int row) {
+        if (src.isNoValue(row)) {
+            appendNoValue();
+        } else {
+            add(((StringColumn) src).get(row));
+        }
+    }
+
+    void writeValues(FileChannel ch) throws IOException {
+        ArrayList<byte[]> bytes = new ArrayList<>();
+        int total = 4;
+        for (int i = 0; i < dict_size; i++) {
+            byte[] b = dict[i].getBytes(StandardCharsets.UTF_8);
+            bytes.add(b);
+            total += 4 + b.length;
+        }
+        ByteBuffer buf = buffer(total);
+        buf.putInt(bytes.size());
+        for (byte[] b : bytes) {
+            buf.putInt(b.length);
+            buf.put(b);
+        }
+        writeFully(ch, buf);
+        buf = buffer(4 * size);
+        buf.asIntBuffer().put(codes, 0, size);
+        buf.position(4 * size);
+        writeFully(ch, buf);
+    }
+
+    void readValues(ByteBuffer buf, int rows) {
+        int n = buf.getInt();
+        dict = new String[Math.max(n, 16)];
+        dict_size = n;
+        lookup = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            byte[] b = new byte[buf.getInt()];
+            buf.get(b);
+            dict[i] = new String(b, StandardCharsets.UTF_8);
+            lookup.put(dict[i], i);
+        }
+        codes = new int[Math.max(rows, 16)];
+        buf.asIntBuffer().get(codes, 0, rows);
+        buf.position(buf.position() + 4 * rows);
+    }
+
+    Object valueAt(int row) {
+        return get(row);
+    }
+
+    String renderValue(int row) {
+        return "'" + dict[codes[row]] + "'";
+    }
+
+    boolean sameValue(int row, Column other, int other_row) {
+        if (isNoValue(row) || other.isNoValue(other_row)) {
+            return isNoValue(row) && other.isNoValue(other_row);
+        }
+        if (other == this) {
+            return codes[row] == codes[other_row];
+        }
+        return get(row).equals(((StringColumn) other).get(other_row));
+    }
+
+    int hashValue(int row) {
+        if (isNoValue(row)) {
+            return 0;
+        }
+        return get(row).hashCode();
+    }
+
+    int compareValue(int row, Column other, int other_row) {
+        if (isNoValue(row) || other.isNoValue(other_row)) {
+            return Boolean.compare(!isNoValue(row), !other.isNoValue(other_row));
+        }
+        return get(row).compareTo(((StringColumn) other).get(other_row));
+    }
+}
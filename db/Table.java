@@ -1,496 +1,1076 @@
 package db;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 class Table implements Iterable<Row> {
 
     private String[] columns;
     private String[] column_types;
-    private ArrayList<Row> rows;
+    private Column[] data;
+    private int size;
+    private ArrayList<Index> indexes = new ArrayList<>();
+    // Inserts and index changes take the write lock; taking a snapshot and index lookups the read lock.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Encoded columns of a table read from a binary file, decoded on first access. Volatile, as
+    // are paged and view_src, since data reads the decoded columns without the lock once it is null.
+    private volatile ByteBuffer[] mapped;
+    // The file of a paged table, whose columns are read through the buffer pool rather than held.
+    // Rows inserted into a paged table are appended to data, a tail after the rows of the file.
+    private volatile PageFile paged;
+    // Whether close has let go of the file of a paged table.
+    private boolean closed;
+    // The table a snapshot was taken of, null for the table itself.
+    private Table base;
+    // The latest snapshot, reused by queries until the next insert.
+    private volatile Table version;
+    // For a view of the rows of other tables, such as the result of a merge or filter: column i
+    // is column view_col[i] of view_src[i] at the rows view_rows[i]. Queries read through to the
+    // source columns; a column is only copied when all of it is asked for.
+    private volatile Table[] view_src;
+    private int[] view_col;
+    private int[][] view_rows;
+    // Statistics for the planner, collected on first use and kept current by inserts.
+    private Statistics stats;
+    // Zone maps, kept like the statistics; a snapshot holds a copy of those of its rows.
+    private ZoneMap zones;
 
     Table(String[] input) {
         columns = new String[input.length];
         column_types = new String[input.length];
+        data = new Column[input.length];
         for (int i = 0; i < input.length; i++) {
-            String[] tmp = input[i].split("\\s+");
+            String[] tmp = input[i].trim().split("\\s+");
             if (tmp.length == 2) {
                 columns[i] = tmp[0];
                 if (tmp[1].equals("string") || tmp[1].equals("int")
                         || tmp[1].equals("float")) {
                     column_types[i] = tmp[1];
                 } else {
-                    throw new RuntimeException("ERROR: Invalid column type.");
+                    throw new RuntimeException("Invalid column type.");
                 }
             } else {
-                throw new RuntimeException("ERROR: table constructor fails.");
+                throw new RuntimeException("table constructor fails.");
             }
+            data[i] = Column.of(column_types[i]);
         }
-        rows = new ArrayList<>();
+        size = 0;
     }
 
-    String insert(Row row) {
-        String[] literals = row.getLiterals();
-        for (int i = 0; i < literals.length; i++) {
-            if (literals[i].equals("NOVALUE")) {
-                continue;
+    // A snapshot of the table as it is now, which queries read without holding any lock.
+    // Snapshots share the column storage; versions no query holds any more are garbage collected.
+    Table snapshot() {
+        if (base != null) {
+            return this;
+        }
+        lock.readLock().lock();
+        try {
+            Table v = version;
+            if (v == null || v.size != size) {
+                v = new Table(this);
+                version = v;
             }
-            String type;
-            if (literals[i].contains("'")) {
-                type = "string";
-            } else if (literals[i].contains(".")) {
-                type = "float";
-                row.set(i, String.format("%.3f", Float.parseFloat(literals[i])));
-            } else {
-                type = "int";
+            return v;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Table(Table base) {
+        this.base = base;
+        columns = base.columns;
+        column_types = base.column_types;
+        data = new Column[columns.length];
+        size = base.size;
+        synchronized (base) {
+            mapped = base.mapped;
+            paged = base.paged;
+            if (paged != null) {
+                paged.share(this);
             }
-            if (!type.equals(column_types[i])) {
-                return "ERROR: row does not match the given table";
+            for (int i = 0; i < data.length; i++) {
+                if (base.data[i] != null) {
+                    data[i] = base.data[i].snapshot(size - pagedRows());
+                }
             }
         }
-        rows.add(row);
-        return "";
     }
 
-    Table merge(Table t) {
-        String[] columns_new = new String[columns.length + t.columns.length];
-        String[] column_types_new = new String[column_types.length + t.column_types.length];
+    int size() {
+        return size;
+    }
+
+    int columnCount() {
+        return columns.length;
+    }
+
+    String columnName(int i) {
+        return columns[i];
+    }
+
+    String columnType(int i) {
+        return column_types[i];
+    }
+
+    Column data(int i) {
+        if (mapped == null && view_src == null && paged == null) {
+            return data[i];
+        }
+        synchronized (this) {
+            if (paged != null) {
+                // Held nowhere, so a paged table only takes the memory of what uses it.
+                Column ret = paged.column(i);
+                ret.appendAll(data[i]);
+                return ret;
+            }
+            if (view_src != null) {
+                if (data[i] == null) {
+                    data[i] = view_src[i] != null && view_rows[i] != null
+                            ? view_src[i].gather(view_col[i], view_rows[i], size) : gather(i, identity(size), size);
+                }
+                return data[i];
+            }
+            if (data[i] == null && base != null) {
+                data[i] = base.snapshot(i, size);
+            } else if (data[i] == null) {
+                data[i] = Column.read(column_types[i], mapped[i], size);
+                mapped[i] = null;
+            }
+            Column ret = data[i];
+            for (Column c : data) {
+                if (c == null) {
+                    return ret;
+                }
+            }
+            mapped = null;
+            return ret;
+        }
+    }
+
+    Column gather(int i, int[] ids) {
+        return gather(i, ids, ids.length);
+    }
+
+    // The first n rows of ids of column i. A view translates the ids to rows of its sources and
+    // gathers from them directly, unless it already holds a copy of the column.
+    Column gather(int i, int[] ids, int n) {
+        if (view_src == null) {
+            PageFile p = paged;
+            return p != null ? gatherPaged(p, i, ids, n) : data(i).gather(ids, n);
+        }
+        Column c;
+        synchronized (this) {
+            c = data[i];
+        }
+        if (c != null) {
+            return c.gather(ids, n);
+        }
+        int[] rows = view_rows[i];
+        int[] at = new int[n];
+        for (int k = 0; k < n; k++) {
+            at[k] = rows == null ? ids[k] : rows[ids[k]];
+        }
+        if (view_src[i] == null) {
+            return new IntColumn(at, new BitSet(), n);
+        }
+        return view_src[i].gather(view_col[i], at);
+    }
+
+    // Gathers the rows of the file and of the tail of a paged table apart and puts them together.
+    private Column gatherPaged(PageFile p, int i, int[] ids, int n) {
+        int tail = 0;
+        for (int k = 0; k < n; k++) {
+            if (ids[k] >= p.rows) {
+                tail++;
+            }
+        }
+        if (tail == 0) {
+            return p.gather(i, ids, n);
+        }
+        int[] file_ids = new int[n - tail];
+        int[] tail_ids = new int[tail];
+        int[] order = new int[n];
+        boolean ascending = true;
+        int f = 0;
+        int t = 0;
+        for (int k = 0; k < n; k++) {
+            if (ids[k] < p.rows) {
+                ascending &= t == 0;
+                order[k] = f;
+                file_ids[f++] = ids[k];
+            } else {
+                order[k] = file_ids.length + t;
+                tail_ids[t++] = ids[k] - p.rows;
+            }
+        }
+        Column rest;
+        synchronized (this) {
+            rest = data[i];
+        }
+        Column ret = p.gather(i, file_ids, f);
+        ret.appendAll(rest.gather(tail_ids, t));
+        return ascending ? ret : ret.gather(order, n);
+    }
+
+    // The rows of the file of a paged table, 0 for other tables.
+    private int pagedRows() {
+        PageFile p = paged;
+        return p == null ? 0 : p.rows;
+    }
+
+    // The column rows are appended to, for a paged table its tail.
+    private Column appendable(int i) {
+        return paged != null ? data[i] : data(i);
+    }
+
+    // A view of the first n rows.
+    Table prefix(int n) {
+        if (n == size) {
+            return this;
+        }
+        Table[] src = new Table[columns.length];
+        int[] col = new int[columns.length];
         for (int i = 0; i < columns.length; i++) {
-            columns_new[i] = columns[i];
-            column_types_new[i] = column_types[i];
+            src[i] = this;
+            col[i] = i;
         }
-        for (int i = 0; i < t.columns.length; i++) {
-            columns_new[columns.length + i] = t.columns[i];
-            column_types_new[columns.length + i] = t.column_types[i];
+        return view(header(), src, col, new int[columns.length][], n);
+    }
+
+    // A copy of the rows from up to to.
+    Table rows(int from, int to) {
+        int[] ids = new int[to - from];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = from + i;
         }
+        Column[] cols = new Column[columns.length];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = gather(i, ids);
+        }
+        return of(header(), cols, ids.length);
+    }
 
-        boolean same = false;
-        ArrayList<Integer> same_cols_ind_this = new ArrayList<Integer>();
-        ArrayList<Integer> same_cols_ind_t = new ArrayList<Integer>();
-        for (int i = 0; i < this.columns.length; i++) {
-            for (int j = 0; j < t.columns.length; j++) {
-                if (columns[i].equals(t.columns[j])) {
-                    same_cols_ind_this.add(i);
-                    same_cols_ind_t.add(j);
-                    same = true;
+    // A view with an extra int column holding the id of each row, which a merge carries along
+    // so that its rows can be put back in the order of the tables they came from, see inOrder.
+    Table numbered(String column) {
+        String[] header = Arrays.copyOf(header(), columns.length + 1);
+        header[columns.length] = column + " int";
+        Table[] src = new Table[header.length];
+        int[] col = new int[header.length];
+        for (int i = 0; i < columns.length; i++) {
+            src[i] = this;
+            col[i] = i;
+        }
+        return view(header, src, col, new int[header.length][], size);
+    }
+
+    // A view of the columns of header, with the rows ordered by the row id columns ids.
+    Table inOrder(String[] ids, String[] header) {
+        int[][] keys = new int[ids.length][];
+        for (int k = 0; k < ids.length; k++) {
+            keys[k] = ((IntColumn) data(columnIndex(ids[k]))).values();
+        }
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Sort.sort(order, (a, b) -> {
+            for (int[] key : keys) {
+                if (key[a] != key[b]) {
+                    return Integer.compare(key[a], key[b]);
                 }
             }
+            return 0;
+        });
+        Table[] src = new Table[header.length];
+        int[] col = new int[header.length];
+        int[][] rows = new int[header.length][];
+        for (int i = 0; i < header.length; i++) {
+            src[i] = this;
+            col[i] = columnIndex(header[i].split(" ")[0]);
+            rows[i] = order;
+        }
+        return view(header, src, col, rows, size);
+    }
+
+    private static int[] identity(int n) {
+        int[] ret = new int[n];
+        for (int i = 0; i < n; i++) {
+            ret[i] = i;
         }
+        return ret;
+    }
+
+    // Whether column i can be read in place rather than gathered.
+    synchronized boolean isMaterialized(int i) {
+        return paged == null && (view_src == null || data[i] != null);
+    }
+
+    // Column i of a snapshot with the given rows, decoded when the snapshot first needs it.
+    private Column snapshot(int i, int rows) {
+        lock.readLock().lock();
+        try {
+            return data(i).snapshot(rows);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    static Table of(String[] header, Column[] data, int size) {
+        Table t = new Table(header);
+        t.data = data;
+        t.size = size;
+        return t;
+    }
+
+    private static Table view(String[] header, Table[] src, int[] col, int[][] rows, int size) {
+        Table t = new Table(header);
+        t.data = new Column[header.length];
+        t.view_src = src;
+        t.view_col = col;
+        t.view_rows = rows;
+        t.size = size;
+        return t;
+    }
 
-        ArrayList<Row> rows = new ArrayList<>();
-        String[] header;
-        if (same) {
-            header = new String[this.columns.length + t.columns.length - same_cols_ind_t.size()];
-            for (int i = 0; i < this.columns.length; i++) {
-                header[i] = this.columns[i] + " " + this.column_types[i];
+    // A table of the rows of file, and an empty tail for the rows inserted after.
+    static Table paged(PageFile file) {
+        Table t = new Table(file.header);
+        t.paged = file;
+        t.size = file.rows;
+        t.zones = file.zones;
+        return t;
+    }
+
+    // Lets go of the file of a paged table that is dropped or replaced, which its snapshots still
+    // read until they are garbage collected.
+    void close() {
+        PageFile p;
+        synchronized (this) {
+            if (base != null || closed) {
+                return;
             }
-            int index = 0;
-            for (int i = 0; i < t.columns.length; i++) {
-                boolean skip = false;
-                for (int j = 0; j < same_cols_ind_t.size(); j++) {
-                    if (i == same_cols_ind_t.get(j)) {
-                        skip = true;
-                        break;
-                    }
+            closed = true;
+            p = paged;
+        }
+        if (p != null) {
+            p.release();
+        }
+    }
+
+    // Creates a table whose columns are decoded from the given buffers when first used. zones may be
+    // null, when they are collected on first use.
+    static Table mapped(String[] header, ByteBuffer[] buffers, int size, ZoneMap zones) {
+        Table t = new Table(header);
+        t.mapped = buffers;
+        t.data = new Column[header.length];
+        t.size = size;
+        t.zones = zones;
+        return t;
+    }
+
+    String insert(Row row) {
+        return insert(new String[][] {row.getLiterals()});
+    }
+
+    // Inserts all of rows or, if one of them doesn't match the columns, none.
+    String insert(String[][] rows) {
+        lock.writeLock().lock();
+        try {
+            for (int r = 0; r < rows.length; r++) {
+                String[] literals = rows[r];
+                if (literals.length != columns.length) {
+                    return mismatch(r, rows.length);
                 }
-                if (skip)
-                    continue;
-                header[this.columns.length + index] = t.columns[i] + " " + t.column_types[i];
-                index++;
-            }
-
-            for (int i = 0; i < this.rows.size(); i++) {
-                for (int j = 0; j < t.rows.size(); j++) {
-                    boolean equiv = true;
-                    for (int k = 0; k < same_cols_ind_this.size(); k++) {
-                        String a = this.rows.get(i).get(same_cols_ind_this.get(k));
-                        String b = t.rows.get(j).get(same_cols_ind_t.get(k));
-                        if (!a.equals(b)) {
-                            equiv = false;
-                            break;
-                        }
-                    }
-                    if (!equiv) {
+                for (int i = 0; i < literals.length; i++) {
+                    literals[i] = literals[i].trim();
+                    if (literals[i].equals(Column.NOVALUE)) {
                         continue;
                     }
-                    Row r = this.rows.get(i).clone();
-                    for (int k = 0; k < t.columns.length; k++) {
-                        boolean skip = false;
-                        for (int l = 0; l < same_cols_ind_t.size(); l++) {
-                            if (k == same_cols_ind_t.get(l)) {
-                                skip = true;
-                                break;
-                            }
-                        }
-                        if (skip)
-                            continue;
-                        r.add(t.rows.get(j).get(k));
+                    if (!Column.typeOf(literals[i]).equals(column_types[i])) {
+                        return mismatch(r, rows.length);
                     }
-                    rows.add(r);
                 }
             }
-        } else {
-            header = new String[columns_new.length];
-            for (int i = 0; i < columns_new.length; i++) {
-                header[i] = columns_new[i] + " " + column_types_new[i];
-            }
-            for (int i = 0; i < this.rows.size(); i++) {
-                for (int j = 0; j < t.rows.size(); j++) {
-                    Row r = new Row("");
-                    r.add(this.rows.get(i).getLiterals());
-                    r.add(t.rows.get(j).getLiterals());
-                    rows.add(r);
+            int r = 0;
+            try {
+                for (; r < rows.length; r++) {
+                    for (int i = 0; i < columns.length; i++) {
+                        appendable(i).append(rows[r][i]);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                for (int i = 0; i < data.length; i++) {
+                    appendable(i).truncate(size - pagedRows());
                 }
+                return mismatch(r, rows.length);
             }
+            added(rows.length);
+            return "";
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
 
-        Table ret = new Table(header);
-        ret.rows = rows;
+    // Appends the first n rows of typed columns, whose types are checked once for all of them.
+    String append(Column[] cols, int n) {
+        lock.writeLock().lock();
+        try {
+            if (cols.length != columns.length) {
+                return "ERROR: rows do not match the given table";
+            }
+            for (int i = 0; i < cols.length; i++) {
+                if (!cols[i].type().equals(column_types[i]) || cols[i].size() != n) {
+                    return "ERROR: rows do not match the given table";
+                }
+            }
+            for (int i = 0; i < cols.length; i++) {
+                appendable(i).appendAll(cols[i]);
+            }
+            added(n);
+            return "";
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-        return ret;
+    private static String mismatch(int row, int rows) {
+        return rows == 1 ? "ERROR: row does not match the given table"
+                : "ERROR: row " + (row + 1) + " does not match the given table";
     }
 
-    private class Info {
-        String[] col;
-        String[] type;
-        ArrayList<Row> rows;
+    // Indexes the n rows just appended to the columns and counts them in. For a paged table the
+    // columns are its tail, whose rows come after those of the file.
+    private void added(int n) {
+        int from = pagedRows();
+        for (int row = size; row < size + n; row++) {
+            for (Index idx : indexes) {
+                Column c = appendable(columnIndex(idx.column));
+                if (!c.isNoValue(row - from)) {
+                    idx.add(c.valueAt(row - from), row);
+                }
+            }
+            if (stats != null) {
+                stats.add(data, row - from);
+            }
+        }
+        if (zones != null) {
+            zones.add(data, size - from, n);
+        }
+        size += n;
+    }
 
-        @SuppressWarnings("unchecked")
-        Info(String[] col, String[] type, ArrayList<Row> rows) {
-            this.col = col.clone();
-            this.type = type.clone();
-            this.rows = (ArrayList<Row>) rows.clone();
+    // A copy of the statistics of the table a snapshot was taken of.
+    Statistics statistics() {
+        if (base != null) {
+            return base.statistics();
+        }
+        lock.readLock().lock();
+        try {
+            synchronized (this) {
+                if (stats == null) {
+                    stats = Statistics.of(this);
+                }
+                return stats.copy();
+            }
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        @SuppressWarnings("unchecked")
-        Info(String col, String type, ArrayList<Row> rows) {
-            this.col = new String[1];
-            this.type = new String[1];
-            this.col[0] = col;
-            this.type[0] = type;
-            this.rows = (ArrayList<Row>) rows.clone();
+    // The zone maps of the rows: for a snapshot a copy of those of its table, for other tables
+    // collected anew.
+    ZoneMap zoneMap() {
+        if (base == null) {
+            return ZoneMap.of(this);
+        }
+        synchronized (this) {
+            if (zones == null) {
+                zones = base.zoneMap(size);
+            }
+            return zones;
         }
     }
 
-    Table select(String[] exprs, String cond) {
-        String header = "";
-        ArrayList<Row> rows = null;
-        for (int i = 0; i < exprs.length; i++) {
-            Info info = select_helper(exprs[i].trim(), cond);
-            String tmp = "";
-            for (int j = 0; j < info.col.length; j ++) {
-                tmp += info.col[j] + " " + info.type[j];
-                if (j != info.col.length - 1) {
-                    tmp += ",";
+    private ZoneMap zoneMap(int rows) {
+        lock.readLock().lock();
+        try {
+            synchronized (this) {
+                if (zones == null) {
+                    zones = ZoneMap.of(this);
                 }
+                return zones.copy(rows);
             }
-            header += tmp;
-            if (i != exprs.length - 1) {
-                header += ",";
-            }
-            if (rows == null) {
-                rows = info.rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void createIndex(String name, String col, String kind) {
+        lock.writeLock().lock();
+        try {
+            Index idx = Index.create(name, col, kind);
+            if (paged == null) {
+                idx.addAll(column(col), 0);
             } else {
-                for (int j = 0; j < rows.size(); j++) {
-                    rows.get(j).add(info.rows.get(j).getLiterals());
+                // A batch at a time, so a paged table is never held whole.
+                int c = columnIndex(col);
+                if (c == -1) {
+                    throw new RuntimeException("no such column " + col);
+                }
+                int[] ids = new int[Math.min(size, SCAN_BATCH)];
+                for (int start = 0; start < size; start += SCAN_BATCH) {
+                    int n = Math.min(SCAN_BATCH, size - start);
+                    for (int k = 0; k < n; k++) {
+                        ids[k] = start + k;
+                    }
+                    idx.addAll(gather(c, ids, n), start);
                 }
             }
+            indexes.add(idx);
+        } finally {
+            lock.writeLock().unlock();
         }
-        Table t = new Table(header.split(","));
-        t.rows = rows;
-        return t;
     }
 
-    private Info select_helper(String expr, String cond) {
-        expr = expr.trim();
-        ArrayList<Row> results = select_helper(cond);
-        ArrayList<Row> ret = new ArrayList<>();
-        if (expr.equals("*")) {
-            return new Info(columns, column_types, results);
+    void dropIndex(String name) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < indexes.size(); i++) {
+                if (indexes.get(i).name.equals(name)) {
+                    indexes.remove(i);
+                    return;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
-        if (expr.equals(".*")) {
-            throw new RuntimeException("ERROR: invalid operator");
+    }
+
+    ArrayList<Index> indexes() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(indexes);
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        int index = -1;
-        // run only if expr is a single column name
-        for (int i = 0; i < columns.length; i++) {
-            if (expr.equals(columns[i])) {
-                index = i;
-                break;
-            }
-        }
-        if (index != -1) {
-            for (Row r : results) {
-                ret.add(new Row(r.getLiterals()[index]));
-            }
-            return new Info(columns[index], column_types[index], ret);
-        }
-        // Finds the operator
-        String operator = "+";
-        int operator_index = expr.indexOf(operator);
-        if (operator_index == -1) {
-            operator = "-";
-            operator_index = expr.indexOf(operator);
-        }
-        if (operator_index == -1) {
-            operator = "*";
-            operator_index = expr.indexOf(operator);
-        }
-        if (operator_index == -1) {
-            operator = "/";
-            operator_index = expr.indexOf(operator);
-        }
-        int end_index = expr.indexOf(" as ");
-        if (end_index == -1) {
-            end_index = expr.length() - 1;
-        }
-        String op1 = expr.substring(0, operator_index);
-        String op2 = expr.substring(operator_index + 1, end_index + 1);
-        String alias = expr.substring(end_index + 3).trim();
-        op1 = op1.trim();
-        op2 = op2.trim();
-        int op1_ind = -1;
-        int op2_ind = -1;
-        for (int i = 0; i < columns.length; i++) {
-            if (op2.equals(columns[i])) {
-                op2_ind = i;
-                break;
+    Table merge(Table t) {
+        return merge(t, new ArrayList<Condition>(), null, null);
+    }
+
+    // Joins with t, keeping only the pairs that satisfy conds, with the algorithm the planner chose
+    // or, if that is null, the one the inputs suit. ran, if given, gets the algorithm that ran.
+    Table merge(Table t, ArrayList<Condition> conds, String algorithm, String[] ran) {
+        ArrayList<Integer> same_cols_ind_this = new ArrayList<Integer>();
+        ArrayList<Integer> same_cols_ind_t = new ArrayList<Integer>();
+        for (int i = 0; i < this.columns.length; i++) {
+            for (int j = 0; j < t.columns.length; j++) {
+                if (columns[i].equals(t.columns[j])) {
+                    same_cols_ind_this.add(i);
+                    same_cols_ind_t.add(j);
+                }
             }
         }
-        for (int i = 0; i < columns.length; i++) {
-            if (op1.equals(columns[i])) {
-                op1_ind = i;
-                break;
-            }
+
+        // Columns of t that are copied into the result, shared ones are dropped.
+        int[] keep_t = new int[t.columns.length - same_cols_ind_t.size()];
+        String[] header = new String[this.columns.length + keep_t.length];
+        for (int i = 0; i < this.columns.length; i++) {
+            header[i] = this.columns[i] + " " + this.column_types[i];
         }
-        String op1_type = column_types[op1_ind];
-        String op2_type = "string";
-        float op2_float = 0;
-        int op2_int = 0;
-        if (op2_ind == -1) {
-            try {
-                op2_float = Float.parseFloat(op2);
-                op2_type = "float";
-            } catch (NumberFormatException e) {
-                op2_type = "string";
+        int index = 0;
+        for (int i = 0; i < t.columns.length; i++) {
+            if (same_cols_ind_t.contains(i)) {
+                continue;
             }
-            if ((int)op2_float == op2_float) {
-                op2_int = (int)op2_float;
-                op2_type = "int";
+            header[this.columns.length + index] = t.columns[i] + " " + t.column_types[i];
+            keep_t[index] = i;
+            index++;
+        }
+
+        Table ret = new Table(header);
+        Column[] keys_this = new Column[same_cols_ind_this.size()];
+        Column[] keys_t = new Column[same_cols_ind_t.size()];
+        for (int k = 0; k < keys_this.length; k++) {
+            keys_this[k] = this.data(same_cols_ind_this.get(k));
+            keys_t[k] = t.data(same_cols_ind_t.get(k));
+            if (!keys_this[k].type().equals(keys_t[k].type())) {
+                return ret;
             }
+        }
+
+        String used = keys_this.length == 0 ? Join.CROSS : Join.choose(algorithm, keys_this, this.size, keys_t, t.size);
+        if (ran != null) {
+            ran[0] = used;
+        }
+        Join join;
+        if (conds.isEmpty()) {
+            join = keys_this.length == 0 ? Join.cross(this.size, t.size)
+                    : Join.of(used, keys_this, this.size, keys_t, t.size);
+        } else if (keys_this.length == 0) {
+            join = crossWhere(t, keep_t, ret, conds);
         } else {
-            op2_type = column_types[op2_ind];
+            join = where(t, keep_t, ret, Join.of(used, keys_this, this.size, keys_t, t.size), conds);
         }
+        // The pairs are kept as row ids, columns are only read for the rows a query ends up using.
+        Table[] src = new Table[header.length];
+        int[] col = new int[header.length];
+        int[][] rows = new int[header.length][];
+        for (int k = 0; k < header.length; k++) {
+            boolean left = k < this.data.length;
+            src[k] = left ? this : t;
+            col[k] = left ? k : keep_t[k - this.data.length];
+            rows[k] = left ? join.left : join.right;
+        }
+        return view(header, src, col, rows, join.size());
+    }
 
-        String type = "string";
-        for (Row r : results) {
-            if ((op1_type.equals("string") && !op2_type.equals("string")) ||
-                    (!op1_type.equals("string") && op2_type.equals("string"))) {
-                throw new RuntimeException("ERROR: can't compute string and non-string");
-            }
-            op1 = r.getLiterals()[op1_ind];
-            if (op2_ind != -1) {
-                op2 = r.getLiterals()[op2_ind];
-            }
-            if (op1_type.equals("string") && op2_type.equals("string")) {
-                if (operator.equals("+")) {
-                    op1 = op1.substring(0, op1.length() - 1);
-                    op2 = op2.substring(1);
-                }
-                ret.add(new Row(op1 + op2));
-                type = "string";
-            } else if (op1_type.equals("int") && op2_type.equals("int")) {
-                int op1_int = Integer.parseInt(op1);
-                if (op2_ind != -1) {
-                    op2_int = Integer.parseInt(op2);
-                }
-                int result = 0;
-                if (operator.equals("+")) {
-                    result = op1_int + op2_int;
-                } else if (operator.equals("-")) {
-                    result = op1_int - op2_int;
-                } else if (operator.equals("*")) {
-                    result = op1_int * op2_int;
-                } else if (operator.equals("/")) {
-                    result = op1_int / op2_int;
-                }
-                ret.add(new Row(Integer.toString(result)));
-                type = "int";
-            } else {
-                float op1_float = Float.parseFloat(op1);
-                if (op2_ind != -1) {
-                    op2_float = Float.parseFloat(op2);
-                }
-                float result = 0;
-                if (operator.equals("+")) {
-                    result = op1_float + op2_float;
-                } else if (operator.equals("-")) {
-                    result = op1_float - op2_float;
-                } else if (operator.equals("*")) {
-                    result = op1_float * op2_float;
-                } else if (operator.equals("/")) {
-                    result = op1_float / op2_float;
+    private static final int PAIR_CHUNK = 4096;
+
+    // Cross product with conds applied chunk by chunk, so rejected pairs are never all held.
+    private Join crossWhere(Table t, int[] keep_t, Table schema, ArrayList<Condition> conds) {
+        IntList left = new IntList();
+        IntList right = new IntList();
+        int[] l = new int[PAIR_CHUNK];
+        int[] r = new int[PAIR_CHUNK];
+        int n = 0;
+        for (int i = 0; i < this.size; i++) {
+            for (int j = 0; j < t.size; j++) {
+                l[n] = i;
+                r[n] = j;
+                n++;
+                if (n == PAIR_CHUNK) {
+                    keepMatching(t, keep_t, schema, l, r, n, conds, left, right);
+                    n = 0;
                 }
-                ret.add(new Row(String.format("%.3f", result)));
-                type = "float";
             }
         }
-        return new Info(alias, type, ret);
+        keepMatching(t, keep_t, schema, l, r, n, conds, left, right);
+        return new Join(left.toArray(), right.toArray());
     }
 
-    private ArrayList<Row> select_helper(String cond) {
-        if (cond == "") {
-            return rows;
+    private Join where(Table t, int[] keep_t, Table schema, Join join, ArrayList<Condition> conds) {
+        IntList left = new IntList();
+        IntList right = new IntList();
+        int[] l = new int[PAIR_CHUNK];
+        int[] r = new int[PAIR_CHUNK];
+        for (int start = 0; start < join.size(); start += PAIR_CHUNK) {
+            int n = Math.min(PAIR_CHUNK, join.size() - start);
+            System.arraycopy(join.left, start, l, 0, n);
+            System.arraycopy(join.right, start, r, 0, n);
+            keepMatching(t, keep_t, schema, l, r, n, conds, left, right);
         }
-        String operator = "==";
-        int operator_index = cond.indexOf(operator);
-        if (operator_index == -1) {
-            operator = "!=";
-            operator_index = cond.indexOf(operator);
+        return new Join(left.toArray(), right.toArray());
+    }
+
+    // Evaluates conds on the first n pairs, gathering only the columns they reference.
+    private void keepMatching(Table t, int[] keep_t, Table schema, int[] l, int[] r, int n,
+                              ArrayList<Condition> conds, IntList left, IntList right) {
+        if (n == 0) {
+            return;
         }
-        if (operator_index == -1) {
-            operator = "<=";
-            operator_index = cond.indexOf(operator);
+        ArrayList<String> names = new ArrayList<>();
+        for (Condition c : conds) {
+            c.columns(names);
         }
-        if (operator_index == -1) {
-            operator = ">=";
-            operator_index = cond.indexOf(operator);
+        Table scratch = new Table(schema.header());
+        for (String name : names) {
+            int k = schema.columnIndex(name);
+            if (k == -1) {
+                throw new RuntimeException("no such column " + name);
+            } else if (k < this.data.length) {
+                scratch.data[k] = this.gather(k, l, n);
+            } else {
+                scratch.data[k] = t.gather(keep_t[k - this.data.length], r, n);
+            }
         }
-        if (operator_index == -1) {
-            operator = "<";
-            operator_index = cond.indexOf(operator);
+        scratch.size = n;
+        int[] ids = scratch.rowIds(conds);
+        for (int id : ids) {
+            left.add(l[id]);
+            right.add(r[id]);
         }
-        if (operator_index == -1) {
-            operator = ">";
-            operator_index = cond.indexOf(operator);
+    }
+
+    String[] header() {
+        String[] ret = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            ret[i] = columns[i] + " " + column_types[i];
         }
+        return ret;
+    }
 
-        String col1 = cond.substring(0, operator_index);
-        String col2 = cond.substring(operator_index + operator.length());
-        col1 = col1.trim();
-        col2 = col2.trim();
-        int col1_ind = -1;
-        int col2_ind = -1;
-        boolean unary = true;
+    boolean hasColumn(String name) {
+        return columnIndex(name) != -1;
+    }
 
-        for (int i = 0; i < columns.length; i++) {
-            if (col2.equals(columns[i])) {
-                col2_ind = i;
-                unary = false;
-                break;
+    // Ids of the rows that satisfy all of conds, starting from an index lookup when one applies.
+    private int[] rowIds(ArrayList<Condition> conds) {
+        return rowIds(conds, null);
+    }
+
+    // Without an index to use, the blocks the zone maps rule out are skipped; blocks, if given,
+    // gets the number of them and of all blocks.
+    private int[] rowIds(ArrayList<Condition> conds, int[] blocks) {
+        int[] ids = null;
+        Condition used = null;
+        for (int pass = 0; pass < 2 && ids == null; pass++) {
+            for (Condition c : conds) {
+                if ((pass == 0) == c.op.equals("==")) {
+                    ids = lookup(c);
+                    if (ids != null) {
+                        used = c;
+                        break;
+                    }
+                }
             }
         }
-        for (int i = 0; i < columns.length; i++) {
-            if (col1.equals(columns[i])) {
-                col1_ind = i;
-                break;
-            }
-        }
-
-        ArrayList<Row> ret = new ArrayList<>();
-        int ijk = 0;
-        while (ijk < rows.size()) {
-            col1 = rows.get(ijk).getLiterals()[col1_ind];
-            String col1_type = column_types[col1_ind];
-            if (!unary) {
-                col2 = rows.get(ijk).getLiterals()[col2_ind];
-                String col2_type = column_types[col2_ind];
-                if ((col1_type.equals("string") && !col2_type.equals("string")) ||
-                        (!col1_type.equals("string") && col2_type.equals("string"))) {
-                    throw new RuntimeException("ERROR: can't compare string and non-string");
-                }
+        if (ids == null && !conds.isEmpty()) {
+            ids = unskipped(conds, blocks);
+        }
+        // Ranges of the candidate rows are filtered in parallel, a null base stands for all rows.
+        final int[] base = ids;
+        final Condition skip = used;
+        List<int[]> parts = Parallel.map(base == null ? size : base.length, (from, to) -> {
+            if (paged == null || to - from <= SCAN_BATCH) {
+                return filterRange(conds, skip, base, from, to);
+            }
+            // A range of a paged table is filtered a batch at a time, so only a batch of it is gathered.
+            ArrayList<int[]> batches = new ArrayList<>();
+            for (int b = from; b < to; b += SCAN_BATCH) {
+                batches.add(filterRange(conds, skip, base, b, Math.min(to, b + SCAN_BATCH)));
             }
+            return Parallel.concat(batches);
+        });
+        return Parallel.concat(parts);
+    }
 
-            boolean result;
-            if (col1_type.equals("string")) {
-                result = compare(col1, operator, col2);
-            } else {
-                result = compare(Float.parseFloat(col1), operator, Float.parseFloat(col2));
+    private static final int SCAN_BATCH = 1 << 16;
+
+    // The rows of the blocks that may hold rows satisfying conds, or null when that is all of them.
+    // Only snapshots of tables of a few blocks or more have zone maps to go by.
+    private int[] unskipped(ArrayList<Condition> conds, int[] blocks) {
+        if (base == null || size < 2 * ZoneMap.BLOCK) {
+            return null;
+        }
+        ZoneMap z = zoneMap();
+        boolean[] keep = new boolean[ZoneMap.blocks(size)];
+        Arrays.fill(keep, true);
+        for (Condition c : conds) {
+            z.prune(c, this, keep);
+        }
+        int n = 0;
+        int kept = 0;
+        for (int b = 0; b < keep.length; b++) {
+            if (keep[b]) {
+                kept++;
+                n += Math.min(ZoneMap.BLOCK, size - b * ZoneMap.BLOCK);
             }
-            if (result) {
-                ret.add(rows.get(ijk));
+        }
+        Metrics.blocks(keep.length, keep.length - kept);
+        if (blocks != null) {
+            blocks[0] = keep.length - kept;
+            blocks[1] = keep.length;
+        }
+        if (kept == keep.length) {
+            return null;
+        }
+        int[] ret = new int[n];
+        int k = 0;
+        for (int b = 0; b < keep.length; b++) {
+            if (!keep[b]) {
+                continue;
+            }
+            int end = Math.min(size, (b + 1) * ZoneMap.BLOCK);
+            for (int i = b * ZoneMap.BLOCK; i < end; i++) {
+                ret[k++] = i;
             }
-            ijk += 1;
         }
         return ret;
     }
 
-    private boolean compare(String col1, String operator, String col2) {
-        if (operator.equals("==")) {
-            if (col1.equals(col2)) {
-                return true;
-            }
-        } else if (operator.equals("!=")) {
-            if (!col1.equals(col2)) {
-                return true;
+    private int[] filterRange(ArrayList<Condition> conds, Condition skip, int[] base, int from, int to) {
+        int[] part;
+        if (base == null) {
+            part = new int[to - from];
+            for (int i = from; i < to; i++) {
+                part[i - from] = i;
             }
-        } else if (operator.equals("<=")) {
-            if (col1.compareTo(col2) <= 0)  {
-                return true;
-            }
-        } else if (operator.equals(">=")) {
-            if (col1.compareTo(col2) >= 0) {
-                return true;
+        } else {
+            part = from == 0 && to == base.length ? base : Arrays.copyOfRange(base, from, to);
+        }
+        for (Condition c : conds) {
+            if (c != skip) {
+                part = c.filter(this, part);
             }
-        } else if (operator.equals("<")) {
-            if (col1.compareTo(col2) < 0) {
-                return true;
+        }
+        return part;
+    }
+
+    // Answers a comparison of a column with a literal from an index on that column, or returns null.
+    private int[] lookup(Condition c) {
+        if (base != null) {
+            base.lock.readLock().lock();
+            try {
+                int[] ids = base.lookup(c);
+                if (ids == null) {
+                    return null;
+                }
+                // Rows inserted after the snapshot come last in the ascending ids.
+                int n = ids.length;
+                while (n > 0 && ids[n - 1] >= size) {
+                    n--;
+                }
+                return n == ids.length ? ids : Arrays.copyOf(ids, n);
+            } finally {
+                base.lock.readLock().unlock();
             }
-        } else if (operator.equals(">")) {
-            if (col1.compareTo(col2) > 0) {
-                return true;
+        }
+        if (indexes.isEmpty()) {
+            return null;
+        }
+        Expr col = c.left;
+        Expr lit = c.right;
+        String op = c.op;
+        if (col instanceof Expr.Literal && lit instanceof Expr.ColumnRef) {
+            col = c.right;
+            lit = c.left;
+            op = op.equals("<") ? ">" : op.equals(">") ? "<"
+                    : op.equals("<=") ? ">=" : op.equals(">=") ? "<=" : op;
+        }
+        if (!(col instanceof Expr.ColumnRef) || !(lit instanceof Expr.Literal)
+                || ((Expr.Literal) lit).isNoValue()) {
+            return null;
+        }
+        String name = ((Expr.ColumnRef) col).name;
+        Index best = null;
+        for (Index idx : indexes) {
+            if (idx.column.equals(name) && idx.supports(op)
+                    && (best == null || idx instanceof HashIndex)) {
+                best = idx;
             }
         }
-        return false;
+        if (best == null) {
+            return null;
+        }
+        Object key = Index.key(column_types[columnIndex(name)], ((Expr.Literal) lit).text);
+        if (key == null) {
+            return null;
+        }
+        // Only != reads the column, for the rows without a value.
+        return best.lookup(op, key, op.equals("!=") ? column(name) : null);
+    }
+
+    // A view of the rows that satisfy conds.
+    Table filter(ArrayList<Condition> conds) {
+        int[] ids = where(conds);
+        Table[] src = new Table[data.length];
+        int[] col = new int[data.length];
+        int[][] rows = new int[data.length][];
+        for (int i = 0; i < data.length; i++) {
+            src[i] = this;
+            col[i] = i;
+            rows[i] = ids;
+        }
+        return view(header(), src, col, rows, ids.length);
     }
 
-    private boolean compare(float col1, String operator, float col2) {
-        if (operator.equals("==")) {
-            if (col1 == col2) {
-                return true;
+    // Items of the rows that satisfy conds, ordered and limited as select asks.
+    Table select(ArrayList<Statement.Item> items, ArrayList<Condition> conds, Statement.Select select) {
+        int[] ids = order(where(conds), items, select);
+        long start = Metrics.start();
+        Table t = new Table(header(items));
+        t.data = project(compile(items), ids);
+        t.size = ids.length;
+        Metrics.end(start, Metrics.Phase.PROJECT, 1, "project", items, ids.length, ids.length);
+        return t;
+    }
+
+    // One row per group of the rows that satisfy conds, see Aggregation.
+    Table aggregate(ArrayList<Statement.Item> items, ArrayList<Expr> groups, ArrayList<Condition> conds) {
+        return aggregate(items, groups, conds, new LinkedHashMap<Object, Aggregation.Group>());
+    }
+
+    // The same with the rows folded into into, which may hold the groups of other rows. The rows are
+    // found as for any select, so indexes and zone maps apply.
+    Table aggregate(ArrayList<Statement.Item> items, ArrayList<Expr> groups, ArrayList<Condition> conds,
+            LinkedHashMap<Object, Aggregation.Group> into) {
+        Aggregation a = new Aggregation(this, items, groups);
+        return a.run(into, conds.isEmpty() ? null : where(conds));
+    }
+
+    ResultSet cursor(ArrayList<Statement.Item> items, ArrayList<Condition> conds, Statement.Select select) {
+        return new ResultSet(this, order(where(conds), items, select), items);
+    }
+
+    // rowIds, measured as a filter of the table when there are conditions.
+    private int[] where(ArrayList<Condition> conds) {
+        long start = conds.isEmpty() ? Metrics.OFF : Metrics.start();
+        int[] blocks = new int[2];
+        int[] ids = rowIds(conds, blocks);
+        Object detail = conds;
+        if (blocks[1] > 0) {
+            ArrayList<Object> d = new ArrayList<Object>(conds);
+            d.add("skipped " + blocks[0] + " of " + blocks[1] + " blocks");
+            detail = d;
+        }
+        Metrics.end(start, Metrics.Phase.SCAN, 1, "filter", detail, size, ids.length);
+        return ids;
+    }
+
+    // Applies the order by and limit clauses of select to ids. Keys name a selected item or a column.
+    private int[] order(int[] ids, ArrayList<Statement.Item> items, Statement.Select select) {
+        int limit = select.limit();
+        int offset = select.offset();
+        if (select.order.isEmpty()) {
+            if (limit < 0 && offset == 0) {
+                return ids;
             }
-        } else if (operator.equals("!=")) {
-            if (col1 != col2) {
-                return true;
+            int from = Math.min(offset, ids.length);
+            int to = limit < 0 ? ids.length : (int) Math.min(ids.length, (long) from + limit);
+            Metrics.end(Metrics.start(), Metrics.Phase.SORT, 1, "limit", select.limit, ids.length, to - from);
+            return Arrays.copyOfRange(ids, from, to);
+        }
+        long start = Metrics.start();
+        Kernel[] keys = new Kernel[select.order.size()];
+        boolean[] desc = new boolean[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            Statement.Order o = select.order.get(k);
+            Expr key = new Expr.ColumnRef(o.column);
+            for (Statement.Item item : items) {
+                if (item.expr != null && o.column.equals(item.alias)) {
+                    key = item.expr;
+                }
             }
-        } else if (operator.equals("<=")) {
-            if (col1 <= col2) {
-                return true;
+            keys[k] = key.compile(this);
+            desc[k] = o.desc;
+        }
+        int[] ret = Sort.order(this, ids, keys, desc, offset, limit);
+        Metrics.end(start, Metrics.Phase.SORT, 1, "sort", select.order, ids.length, ret.length);
+        return ret;
+    }
+
+    ResultSet cursor() {
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+        return new ResultSet(this, ids, Statement.Item.all());
+    }
+
+    // Names and types of the columns that items produce.
+    String[] header(ArrayList<Statement.Item> items) {
+        ArrayList<String> header = new ArrayList<>();
+        for (Statement.Item item : items) {
+            if (item.expr == null) {
+                for (int i = 0; i < columns.length; i++) {
+                    header.add(columns[i] + " " + column_types[i]);
+                }
+            } else {
+                header.add(item.name() + " " + item.expr.type(this));
             }
-        } else if (operator.equals(">=")) {
-            if (col1 >= col2) {
-                return true;
+        }
+        return header.toArray(new String[0]);
+    }
+
+    // One kernel per column that items produce, type checked here once for all the batches.
+    Kernel[] compile(ArrayList<Statement.Item> items) {
+        ArrayList<Kernel> ret = new ArrayList<>();
+        for (Statement.Item item : items) {
+            if (item.expr == null) {
+                for (int i = 0; i < columns.length; i++) {
+                    ret.add(new Kernel.Ref(column_types[i], i));
+                }
+            } else {
+                ret.add(item.expr.compile(this));
             }
-        } else if (operator.equals("<")) {
-            if (col1 < col2) {
-                return true;
+        }
+        return ret.toArray(new Kernel[0]);
+    }
+
+    Column[] project(Kernel[] kernels, int[] ids) {
+        List<Column[]> parts = Parallel.map(ids.length, (from, to) -> projectRange(kernels,
+                from == 0 && to == ids.length ? ids : Arrays.copyOfRange(ids, from, to)));
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        Column[] ret = new Column[parts.get(0).length];
+        for (int k = 0; k < ret.length; k++) {
+            ArrayList<Column> col = new ArrayList<>();
+            for (Column[] part : parts) {
+                col.add(part[k]);
             }
-        } else if (operator.equals(">")) {
-            if (col1 > col2) {
-                return true;
+            ret[k] = Column.concat(col);
+        }
+        return ret;
+    }
+
+    private Column[] projectRange(Kernel[] kernels, int[] ids) {
+        Column[] ret = new Column[kernels.length];
+        for (int k = 0; k < kernels.length; k++) {
+            ret[k] = kernels[k].eval(this, ids);
+        }
+        return ret;
+    }
+
+    Column column(String name) {
+        int index = columnIndex(name);
+        if (index == -1) {
+            throw new RuntimeException("no such column " + name);
+        }
+        return data(index);
+    }
+
+    int columnIndex(String name) {
+        for (int i = 0; i < columns.length; i++) {
+            if (name.equals(columns[i])) {
+                return i;
             }
         }
-        return false;
+        return -1;
+    }
+
+    private Row row(int i) {
+        String[] literals = new String[data.length];
+        for (int k = 0; k < data.length; k++) {
+            literals[k] = paged != null ? gather(k, new int[] {i}).render(0) : data(k).render(i);
+        }
+        return new Row(literals);
     }
 
     @Override
     public Iterator<Row> iterator() {
-        return rows.iterator();
+        return new Iterator<Row>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            public Row next() {
+                return row(next++);
+            }
+        };
     }
 
     public String toString() {
-        String ret = "";
-        for (int i = 0; i < columns.length; i++) {
-            ret += columns[i] + " " + column_types[i];
-            if (i != columns.length - 1) {
-                ret += ",";
-            }
+        StringWriter out = new StringWriter();
+        try {
+            TableWriter.write(cursor(), out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        for (Row row : rows) {
-            ret += "\n";
-            ret += row;
-        }
-        return ret;
+        return out.toString();
     }
 }
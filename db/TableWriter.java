@@ -0,0 +1,33 @@
+package db;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a result in the .tbl text format: a header line followed by one
+ * line per row, without a trailing newline.
+ */
+class TableWriter {
+
+    static void write(ResultSet rs, Writer out) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int i = 1; i <= rs.getColumnCount(); i++) {
+            line.append(rs.getColumnName(i)).append(' ').append(rs.getColumnType(i));
+            if (i != rs.getColumnCount()) {
+                line.append(',');
+            }
+        }
+        out.append(line);
+        while (rs.next()) {
+            line.setLength(0);
+            line.append('\n');
+            for (int i = 1; i <= rs.getColumnCount(); i++) {
+                line.append(rs.getString(i));
+                if (i != rs.getColumnCount()) {
+                    line.append(',');
+                }
+            }
+            out.append(line);
+        }
+    }
+}
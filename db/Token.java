@@ -0,0 +1,30 @@
+package db;
+
+class Token {
+
+    enum Kind {
+        IDENT, INT, FLOAT, STRING, SYMBOL, PARAM, EOF
+    }
+
+    final Kind kind;
+    final String text;
+    final int pos;
+
+    Token(Kind kind, String text, int pos) {
+        this.kind = kind;
+        this.text = text;
+        this.pos = pos;
+    }
+
+    boolean is(String s) {
+        return (kind == Kind.IDENT || kind == Kind.SYMBOL) && text.equals(s);
+    }
+
+    boolean isLiteral() {
+        return kind == Kind.INT || kind == Kind.FLOAT || kind == Kind.STRING;
+    }
+
+    public String toString() {
+        return text;
+    }
+}
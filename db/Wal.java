@@ -0,0 +1,257 @@
+package db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of the commands that change the database.
+ * Each record is its length, a CRC32 of the payload and the command text.
+ *
+ * Records are buffered by {@link #append} and written by a single flusher
+ * thread. With SyncPolicy.EVERY_COMMIT and BATCHED, {@link #commit} waits
+ * until the record has been forced to disk; commits that arrive while a
+ * sync is running are written together by the next one, so concurrent
+ * writers share fsyncs. BATCHED additionally holds a sync for a short
+ * window to collect more records. With INTERVAL, commit returns at once and
+ * the log is synced periodically, so a crash can lose the last interval.
+ * Once a write or sync fails the log refuses further records, so no change
+ * is made that it can't hold. A checkpoint empties the log.
+ */
+class Wal implements AutoCloseable {
+
+    private static final int MAGIC = 0x4D57414C;
+    private static final int HEADER = 4;
+
+    private final FileChannel ch;
+    private final Database.SyncPolicy policy;
+    private final long window_nanos;
+
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private int pending_records;
+    private long appended;
+    private long durable;
+    // Counts truncations, so records taken for writing before one are dropped.
+    private long epoch;
+    // Held while writing to the file, which truncate must not interleave with.
+    private final Object io = new Object();
+    private IOException failure;
+    private boolean closed;
+    private final Thread flusher;
+
+    private Wal(FileChannel ch, Database.SyncPolicy policy, long window_millis) {
+        this.ch = ch;
+        this.policy = policy;
+        this.window_nanos = window_millis * 1000000L;
+        flusher = new Thread(this::flushLoop, "wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Replays the valid prefix of the log, drops a torn or corrupt tail and opens it for appending.
+    static Wal open(Path file, Database.SyncPolicy policy, long window_millis,
+                    Consumer<String> replay) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long end = HEADER;
+        if (ch.size() < HEADER) {
+            ByteBuffer magic = ByteBuffer.allocate(HEADER).putInt(MAGIC);
+            magic.flip();
+            ch.truncate(0);
+            ch.write(magic, 0);
+            ch.force(true);
+        } else {
+            ByteBuffer magic = ByteBuffer.allocate(HEADER);
+            ch.read(magic, 0);
+            if (magic.getInt(0) != MAGIC) {
+                ch.close();
+                throw new IOException("not a write-ahead log: " + file);
+            }
+            end = replay(ch, replay);
+            ch.truncate(end);
+        }
+        ch.position(end);
+        return new Wal(ch, policy, window_millis);
+    }
+
+    private static long replay(FileChannel ch, Consumer<String> replay) throws IOException {
+        long pos = HEADER;
+        ByteBuffer head = ByteBuffer.allocate(8);
+        while (true) {
+            head.clear();
+            if (ch.read(head, pos) < 8 || head.hasRemaining()) {
+                return pos;
+            }
+            int length = head.getInt(0);
+            int crc = head.getInt(4);
+            if (length < 0 || pos + 8 + length > ch.size()) {
+                return pos;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            ch.read(payload, pos + 8);
+            CRC32 check = new CRC32();
+            check.update(payload.array());
+            if ((int) check.getValue() != crc) {
+                return pos;
+            }
+            replay.accept(new String(payload.array(), StandardCharsets.UTF_8));
+            pos += 8 + length;
+        }
+    }
+
+    // Throws if the log can take no more records, before a change is made that it would have to hold.
+    synchronized void check() {
+        if (failure != null) {
+            throw new RuntimeException("write-ahead log failed: " + failure.getMessage());
+        } else if (closed) {
+            throw new RuntimeException("write-ahead log is closed");
+        }
+    }
+
+    // Buffers a record and returns its sequence number for commit.
+    synchronized long append(String command) {
+        check();
+        byte[] payload = command.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer head = ByteBuffer.allocate(8).putInt(payload.length).putInt((int) crc.getValue());
+        pending.write(head.array(), 0, 8);
+        pending.write(payload, 0, payload.length);
+        pending_records++;
+        appended++;
+        notifyAll();
+        return appended;
+    }
+
+    // Waits until the record with the given sequence number is durable, as the sync policy defines it.
+    synchronized void commit(long lsn) {
+        if (policy == Database.SyncPolicy.INTERVAL) {
+            check();
+            return;
+        }
+        while (durable < lsn && failure == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while committing");
+            }
+        }
+        if (failure != null) {
+            throw new RuntimeException("write-ahead log failed: " + failure.getMessage());
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            byte[] bytes;
+            long upto;
+            long taken;
+            synchronized (this) {
+                try {
+                    waitForRecords();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (pending.size() == 0 && closed) {
+                    return;
+                }
+                bytes = pending.toByteArray();
+                pending.reset();
+                pending_records = 0;
+                upto = appended;
+                taken = epoch;
+            }
+            if (bytes.length == 0) {
+                continue;
+            }
+            try {
+                synchronized (io) {
+                    // Records from before a truncation are in the checkpoint instead.
+                    if (taken == epoch) {
+                        ByteBuffer buf = ByteBuffer.wrap(bytes);
+                        while (buf.hasRemaining()) {
+                            ch.write(buf);
+                        }
+                        ch.force(false);
+                    }
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                durable = Math.max(durable, upto);
+                notifyAll();
+            }
+        }
+    }
+
+    // Empties the log once a checkpoint holds all it records, which therefore count as durable.
+    void truncate() throws IOException {
+        synchronized (io) {
+            synchronized (this) {
+                check();
+                pending.reset();
+                pending_records = 0;
+                epoch++;
+                durable = appended;
+                notifyAll();
+            }
+            try {
+                ch.truncate(HEADER);
+                ch.position(HEADER);
+                ch.force(true);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void waitForRecords() throws InterruptedException {
+        if (policy == Database.SyncPolicy.INTERVAL) {
+            long deadline = System.nanoTime() + window_nanos;
+            long left;
+            while (!closed && (left = deadline - System.nanoTime()) > 0) {
+                wait(Math.max(left / 1000000L, 1));
+            }
+            return;
+        }
+        while (pending.size() == 0 && !closed) {
+            wait();
+        }
+        if (policy == Database.SyncPolicy.BATCHED) {
+            long deadline = System.nanoTime() + window_nanos;
+            long left;
+            while (!closed && pending_records < 1024 && (left = deadline - System.nanoTime()) > 0) {
+                wait(left / 1000000L, (int) (left % 1000000L));
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ch.close();
+    }
+}
@@ -0,0 +1,273 @@
+package db;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The least and greatest values of every block of BLOCK rows of each
+ * column, kept as rows are appended; a block of only NOVALUE has none. A
+ * scan skips the blocks where a comparison of a column with a literal
+ * can't hold, which for a table loaded mostly in key order leaves few
+ * blocks to read for a range of keys. Numbers are held as doubles, which
+ * represent every int and float exactly.
+ */
+class ZoneMap {
+
+    static final int BLOCK = 4096;
+
+    private final boolean[] strings;
+    private double[][] lo;
+    private double[][] hi;
+    private String[][] slo;
+    private String[][] shi;
+    private int rows;
+
+    // For the columns of a table header.
+    ZoneMap(String[] header) {
+        int n = header.length;
+        strings = new boolean[n];
+        lo = new double[n][];
+        hi = new double[n][];
+        slo = new String[n][];
+        shi = new String[n][];
+        for (int c = 0; c < n; c++) {
+            strings[c] = header[c].endsWith(" string");
+            grow(c, 16, 0);
+        }
+    }
+
+    static ZoneMap of(Table t) {
+        ZoneMap ret = new ZoneMap(t.header());
+        int[] ids = new int[Math.min(t.size(), BLOCK)];
+        Column[] cols = new Column[t.columnCount()];
+        for (int start = 0; start < t.size(); start += BLOCK) {
+            int n = Math.min(BLOCK, t.size() - start);
+            for (int k = 0; k < n; k++) {
+                ids[k] = start + k;
+            }
+            for (int c = 0; c < cols.length; c++) {
+                cols[c] = t.gather(c, ids, n);
+            }
+            ret.add(cols, 0, n);
+        }
+        return ret;
+    }
+
+    // A copy of the blocks of the first rows rows.
+    ZoneMap copy(int rows) {
+        ZoneMap ret = new ZoneMap(this, Math.max(blocks(rows), 1));
+        ret.rows = Math.min(rows, this.rows);
+        return ret;
+    }
+
+    private ZoneMap(ZoneMap other, int blocks) {
+        int n = other.strings.length;
+        strings = other.strings;
+        lo = new double[n][];
+        hi = new double[n][];
+        slo = new String[n][];
+        shi = new String[n][];
+        for (int c = 0; c < n; c++) {
+            if (strings[c]) {
+                slo[c] = Arrays.copyOf(other.slo[c], blocks);
+                shi[c] = Arrays.copyOf(other.shi[c], blocks);
+            } else {
+                lo[c] = Arrays.copyOf(other.lo[c], blocks);
+                hi[c] = Arrays.copyOf(other.hi[c], blocks);
+            }
+        }
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    static int blocks(int rows) {
+        return (rows + BLOCK - 1) / BLOCK;
+    }
+
+    // Takes in n rows of data from row from, appended after the rows already taken in.
+    void add(Column[] data, int from, int n) {
+        for (int c = 0; c < data.length; c++) {
+            Column col = data[c];
+            for (int i = from, row = rows; i < from + n; i++, row++) {
+                int b = row / BLOCK;
+                if (b == (strings[c] ? slo[c].length : lo[c].length)) {
+                    grow(c, 2 * b, b);
+                }
+                if (col.isNoValue(i)) {
+                    continue;
+                } else if (strings[c]) {
+                    String v = ((StringColumn) col).get(i);
+                    if (slo[c][b] == null || v.compareTo(slo[c][b]) < 0) {
+                        slo[c][b] = v;
+                    }
+                    if (shi[c][b] == null || v.compareTo(shi[c][b]) > 0) {
+                        shi[c][b] = v;
+                    }
+                } else {
+                    double v = col instanceof IntColumn ? ((IntColumn) col).get(i) : ((FloatColumn) col).get(i);
+                    lo[c][b] = Math.min(lo[c][b], v);
+                    hi[c][b] = Math.max(hi[c][b], v);
+                }
+            }
+        }
+        rows += n;
+    }
+
+    // Grows the arrays of column c to hold blocks blocks, those from from being empty.
+    private void grow(int c, int blocks, int from) {
+        if (strings[c]) {
+            slo[c] = slo[c] == null ? new String[blocks] : Arrays.copyOf(slo[c], blocks);
+            shi[c] = shi[c] == null ? new String[blocks] : Arrays.copyOf(shi[c], blocks);
+        } else {
+            lo[c] = lo[c] == null ? new double[blocks] : Arrays.copyOf(lo[c], blocks);
+            hi[c] = hi[c] == null ? new double[blocks] : Arrays.copyOf(hi[c], blocks);
+            Arrays.fill(lo[c], from, blocks, Double.POSITIVE_INFINITY);
+            Arrays.fill(hi[c], from, blocks, Double.NEGATIVE_INFINITY);
+        }
+    }
+
+    // Clears keep for the blocks of t where cond, if it compares a column with a literal, can't hold.
+    void prune(Condition cond, Table t, boolean[] keep) {
+        Expr col = cond.left;
+        Expr lit = cond.right;
+        String op = cond.op;
+        if (col instanceof Expr.Literal && lit instanceof Expr.ColumnRef) {
+            col = cond.right;
+            lit = cond.left;
+            op = op.equals("<") ? ">" : op.equals(">") ? "<"
+                    : op.equals("<=") ? ">=" : op.equals(">=") ? "<=" : op;
+        }
+        if (!(col instanceof Expr.ColumnRef) || !(lit instanceof Expr.Literal)) {
+            return;
+        }
+        int c = t.columnIndex(((Expr.ColumnRef) col).name);
+        Expr.Literal l = (Expr.Literal) lit;
+        if (c == -1 || l.isNoValue()) {
+            return;
+        }
+        String type = Column.typeOf(l.text);
+        if (strings[c] != type.equals("string")) {
+            return;
+        }
+        // Mixed ints and floats compare as floats, as the scan does.
+        boolean floats = type.equals("float") || t.columnType(c).equals("float");
+        String s = strings[c] ? StringColumn.unquote(l.text) : null;
+        double v = strings[c] ? 0 : floats ? (float) Double.parseDouble(l.text) : Double.parseDouble(l.text);
+        for (int b = 0; b < keep.length; b++) {
+            if (!keep[b]) {
+                continue;
+            }
+            // The last block of a copy may hold values of rows after its own, which only widen it.
+            if (strings[c] ? slo[c][b] == null : lo[c][b] > hi[c][b]) {
+                keep[b] = false;
+            } else if (strings[c]) {
+                keep[b] = holds(op, s.compareTo(slo[c][b]), s.compareTo(shi[c][b]));
+            } else if (floats) {
+                keep[b] = holds(op, compare(v, (float) lo[c][b]), compare(v, (float) hi[c][b]));
+            } else {
+                keep[b] = holds(op, compare(v, lo[c][b]), compare(v, hi[c][b]));
+            }
+        }
+    }
+
+    // Compares as the scan does, so -0.0 equals 0.0.
+    private static int compare(double a, double b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    // Whether column op literal may hold for a value between the least and the greatest, given
+    // how the literal compares with them.
+    private static boolean holds(String op, int vs_lo, int vs_hi) {
+        if (op.equals("==")) {
+            return vs_lo >= 0 && vs_hi <= 0;
+        } else if (op.equals("!=")) {
+            return vs_lo != 0 || vs_hi != 0;
+        } else if (op.equals("<")) {
+            return vs_lo > 0;
+        } else if (op.equals("<=")) {
+            return vs_lo >= 0;
+        } else if (op.equals(">")) {
+            return vs_hi < 0;
+        }
+        return vs_hi <= 0;
+    }
+
+    // The size of write's output.
+    int bytes() {
+        int ret = 8;
+        int blocks = blocks(rows);
+        for (int c = 0; c < strings.length; c++) {
+            for (int b = 0; b < blocks; b++) {
+                ret += strings[c] ? 8 + length(slo[c][b]) + length(shi[c][b]) : 16;
+            }
+        }
+        return ret;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    // int rows, int block rows, then per column and block the least and the greatest value. Numbers
+    // are doubles, infinite for none, strings their length, -1 for none, and bytes.
+    void write(ByteBuffer buf) {
+        buf.putInt(rows).putInt(BLOCK);
+        int blocks = blocks(rows);
+        for (int c = 0; c < strings.length; c++) {
+            for (int b = 0; b < blocks; b++) {
+                if (strings[c]) {
+                    putString(buf, slo[c][b]);
+                    putString(buf, shi[c][b]);
+                } else {
+                    buf.putDouble(lo[c][b]).putDouble(hi[c][b]);
+                }
+            }
+        }
+    }
+
+    // Returns null for zone maps of another block size, which are then collected again.
+    static ZoneMap read(ByteBuffer buf, String[] header) {
+        ZoneMap ret = new ZoneMap(header);
+        int rows = buf.getInt();
+        if (buf.getInt() != BLOCK) {
+            return null;
+        }
+        int blocks = blocks(rows);
+        for (int c = 0; c < header.length; c++) {
+            ret.grow(c, Math.max(blocks, 16), 0);
+            for (int b = 0; b < blocks; b++) {
+                if (ret.strings[c]) {
+                    ret.slo[c][b] = string(buf);
+                    ret.shi[c][b] = string(buf);
+                } else {
+                    ret.lo[c][b] = buf.getDouble();
+                    ret.hi[c][b] = buf.getDouble();
+                }
+            }
+        }
+        ret.rows = rows;
+        return ret;
+    }
+
+    private static void putString(ByteBuffer buf, String s) {
+        if (s == null) {
+            buf.putInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        buf.putInt(b.length).put(b);
+    }
+
+    private static String string(ByteBuffer buf) {
+        int n = buf.getInt();
+        if (n < 0) {
+            return null;
+        }
+        byte[] b = new byte[n];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
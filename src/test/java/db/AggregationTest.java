@@ -0,0 +1,104 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class AggregationTest {
+
+    @AfterEach
+    void resetThreshold() {
+        Database.setParallelThreshold(50000);
+    }
+
+    private static Database small() {
+        Database db = new Database();
+        db.transact("create table t (g string, k int, v float)");
+        db.transact("insert into t values ('a', 1, 1.5), ('b', 2, NOVALUE), ('a', NOVALUE, 2.5), "
+                + "(NOVALUE, 4, 0.25), ('b', 5, -1.0), ('a', 6, 3.0)");
+        return db;
+    }
+
+    @Test
+    void aggregatesPerGroup() {
+        Database db = small();
+        assertEquals("g string,n int,c int,s int,a float,lo float,hi int\n"
+                + "'a',3,2,7,2.333,1.500,6\n"
+                + "'b',2,2,7,-1.000,-1.000,5\n"
+                + "NOVALUE,1,1,4,0.250,0.250,4",
+                db.transact("select g, count(*) as n, count(k) as c, sum(k) as s, avg(v) as a, min(v) as lo, "
+                        + "max(k) as hi from t group by g"));
+        assertEquals("count int,sum int,max string\n6,18,'b'", db.transact("select count(*), sum(k), max(g) from t"));
+        assertEquals("k int,v float,count int\n4,0.250,1\n5,-1.000,1\n6,3.000,1",
+                db.transact("select k, v, count(*) from t where k > 3 group by k, v"));
+    }
+
+    // No rows make one group without a group by clause and none with it.
+    @Test
+    void noRows() {
+        Database db = small();
+        assertEquals("count int,sum int,min string\n0,NOVALUE,NOVALUE",
+                db.transact("select count(*), sum(k), min(g) from t where k > 100"));
+        assertEquals("g string,count int", db.transact("select g, count(*) from t where k > 100 group by g"));
+    }
+
+    @Test
+    void groupedExpressionsAndTables() {
+        Database db = small();
+        assertEquals("m int,count int\n1,2\n0,3\nNOVALUE,1", db.transact("select k - k / 2 * 2 as m, count(*) "
+                + "from t group by k - k / 2 * 2"));
+        assertEquals("", db.transact("create table totals as select g, sum(v) as total from t group by g"));
+        assertEquals("g string,total float\n'a',7.000\n'b',-1.000\nNOVALUE,0.250", db.transact("print totals"));
+    }
+
+    @Test
+    void errors() {
+        Database db = small();
+        assertEquals("ERROR: can't compute sum of a string", db.transact("select sum(g) from t"));
+        assertEquals("ERROR: k is neither grouped nor aggregated", db.transact("select k, count(*) from t group by g"));
+        assertEquals("ERROR: * can't be selected with aggregates", db.transact("select * from t group by g"));
+        db.transact("insert into t values ('c', 2147483647, 1.0)");
+        assertEquals("ERROR: sum 2147483665 doesn't fit an int", db.transact("select sum(k) from t"));
+    }
+
+    // Partial aggregates of parallel partitions merge into what one pass over the rows gives.
+    @Test
+    void partitionsMatchOnePass() {
+        Database db = new Database();
+        db.transact("create table big (g int, k int)");
+        Random rnd = new Random(17);
+        TreeMap<Integer, long[]> expected = new TreeMap<>();
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < 60000; i++) {
+            int g = rnd.nextInt(40);
+            int k = rnd.nextInt(2000) - 1000;
+            rows.append(rows.length() == 0 ? "" : ", ").append("(").append(g).append(", ").append(k).append(")");
+            long[] e = expected.computeIfAbsent(g, x -> new long[] {0, 0, Long.MAX_VALUE, Long.MIN_VALUE});
+            e[0]++;
+            e[1] += k;
+            e[2] = Math.min(e[2], k);
+            e[3] = Math.max(e[3], k);
+            if (i % 5000 == 4999) {
+                db.transact("insert into big values " + rows);
+                rows.setLength(0);
+            }
+        }
+        StringBuilder want = new StringBuilder("g int,count int,sum int,min int,max int");
+        for (int g : expected.keySet()) {
+            long[] e = expected.get(g);
+            want.append("\n").append(g).append(",").append(e[0]).append(",").append(e[1]).append(",")
+                    .append(e[2]).append(",").append(e[3]);
+        }
+        String query = "select g, count(*), sum(k), min(k), max(k) from big group by g order by g";
+        String filtered = "select g, count(*), avg(k) from big where k > 0 group by g";
+        assertEquals(want.toString(), db.transact(query));
+        String expected_filtered = db.transact(filtered);
+        Database.setParallelThreshold(100);
+        assertEquals(want.toString(), db.transact(query));
+        assertEquals(expected_filtered, db.transact(filtered));
+    }
+}
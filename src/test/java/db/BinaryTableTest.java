@@ -0,0 +1,97 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BinaryTableTest {
+
+    @TempDir
+    Path dir;
+
+    private static final String TABLE = "binary_test";
+
+    @AfterEach
+    void deleteTable() throws IOException {
+        Files.deleteIfExists(Paths.get(TABLE + ".tbl"));
+        Files.deleteIfExists(Paths.get(TABLE + BinaryTable.EXTENSION));
+    }
+
+    static String render(Table t) throws IOException {
+        StringWriter out = new StringWriter();
+        TableWriter.write(t.cursor(), out);
+        return out.toString();
+    }
+
+    private static Table table(int rows) {
+        Table t = new Table(new String[] {"k int", "v float", "s string"});
+        String[][] data = new String[rows][];
+        for (int i = 0; i < rows; i++) {
+            data[i] = new String[] {Integer.toString(i), i % 7 == 0 ? Column.NOVALUE : i / 4.0 + "",
+                    i % 11 == 0 ? Column.NOVALUE : "'s" + i % 100 + "'"};
+        }
+        assertEquals("", t.insert(data));
+        return t;
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        Table t = table(10000);
+        Path file = dir.resolve("t" + BinaryTable.EXTENSION);
+        BinaryTable.write(t, file);
+        Table read = BinaryTable.read(file);
+        assertEquals(t.size(), read.size());
+        assertEquals(render(t), render(read));
+        assertEquals(String.join(",", t.header()), String.join(",", read.header()));
+    }
+
+    @Test
+    void emptyTable() throws IOException {
+        Path file = dir.resolve("e" + BinaryTable.EXTENSION);
+        BinaryTable.write(table(0), file);
+        assertEquals(0, BinaryTable.read(file).size());
+    }
+
+    // A table mapped from a file is written over that file; both keep their rows.
+    @Test
+    void writeOverOwnMapping() throws IOException {
+        Table t = table(200000);
+        String expected = render(t);
+        Path file = dir.resolve("m" + BinaryTable.EXTENSION);
+        BinaryTable.write(t, file);
+        Table mapped = BinaryTable.read(file);
+        BinaryTable.write(mapped, file);
+        assertEquals(expected, render(mapped));
+        assertEquals(expected, render(BinaryTable.read(file)));
+        assertFalse(Files.exists(dir.resolve("m" + BinaryTable.EXTENSION + ".tmp")));
+    }
+
+    @Test
+    void storeLoadedBinaryTable() throws IOException {
+        StringBuilder text = new StringBuilder("k int,s string\n");
+        for (int i = 0; i < 50000; i++) {
+            text.append(i).append(",'x").append(i % 13).append("'\n");
+        }
+        Files.writeString(Paths.get(TABLE + ".tbl"), text);
+        Database db = new Database();
+        db.transact("load " + TABLE);
+        String expected = db.transact("select count(*), max(s) from " + TABLE);
+        assertEquals("", db.transact("store " + TABLE + " binary"));
+        assertEquals("", db.transact("load " + TABLE + " binary"));
+        assertEquals("", db.transact("store " + TABLE + " binary"));
+        assertEquals(expected, db.transact("select count(*), max(s) from " + TABLE));
+        assertEquals("", db.transact("load " + TABLE + " binary"));
+        assertEquals(expected, db.transact("select count(*), max(s) from " + TABLE));
+        assertTrue(expected.endsWith("50000,'x9'"), expected);
+    }
+}
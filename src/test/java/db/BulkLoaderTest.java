@@ -0,0 +1,97 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BulkLoaderTest {
+
+    @TempDir
+    Path dir;
+
+    private static final String TABLE = "bulk_test";
+
+    @AfterEach
+    void deleteTable() throws IOException {
+        Files.deleteIfExists(Paths.get(TABLE + ".tbl"));
+    }
+
+    private Path write(String name, CharSequence text) throws IOException {
+        Path file = dir.resolve(name + ".tbl");
+        Files.writeString(file, text);
+        return file;
+    }
+
+    @Test
+    void skipsRowsThatDontFitTheHeader() throws IOException {
+        Path file = write("t", "k int, v float, s string\n"
+                + "1, 1.5, 'a'\n"
+                + "2, 2, 'b'\n"
+                + "\n"
+                + "3, NOVALUE, 'c'\n"
+                + "x, 1.0, 'd'\n"
+                + "4, 4.25\n"
+                + "5, -0.5, e\n"
+                + "-6, 6.0, NOVALUE\n");
+        BulkLoader loaded = BulkLoader.load(file);
+        assertEquals("k int,v float,s string\n1,1.500,'a'\n3,NOVALUE,'c'\n-6,6.000,NOVALUE",
+                BinaryTableTest.render(loaded.table).trim());
+        assertEquals("[3, 6, 7, 8]", Arrays.toString(loaded.rejected.toArray()));
+        assertEquals("bad float value 2", loaded.reasons.get(0));
+        assertEquals("bad int value x", loaded.reasons.get(1));
+        assertEquals("expected 3 values, found 2", loaded.reasons.get(2));
+        assertEquals("bad string value e", loaded.reasons.get(3));
+        assertTrue(loaded.report().startsWith("loaded 3 rows in "), loaded.report());
+        assertTrue(loaded.report().contains(", rejected 4\nrejected line 3: bad float value 2"), loaded.report());
+    }
+
+    // Rows spread over many chunks come out in file order, with line numbers counted across chunks.
+    @Test
+    void keepsTheOrderOfChunks() throws IOException {
+        StringBuilder text = new StringBuilder("k int,s string\n");
+        int rows = 600000;
+        for (int i = 0; i < rows; i++) {
+            text.append(i).append(",'").append(i % 1000 == 999 ? "" : "row").append(i).append("'\n");
+        }
+        text.append("oops\n");
+        BulkLoader loaded = BulkLoader.load(write("big", text));
+        assertTrue(Files.size(dir.resolve("big.tbl")) > 8 << 20);
+        assertEquals(rows, loaded.table.size());
+        Column k = loaded.table.data(0);
+        for (int i = 0; i < rows; i++) {
+            assertEquals(i, ((IntColumn) k).get(i));
+        }
+        assertEquals(1, loaded.rejected.size());
+        assertEquals(rows + 2, loaded.rejected.get(0));
+    }
+
+    @Test
+    void missingHeader() throws IOException {
+        IOException e = assertThrows(IOException.class, () -> BulkLoader.load(write("empty", "\n")));
+        assertEquals("missing header", e.getMessage());
+    }
+
+    // A text load prints nothing, as it always has; stats shows how the last one went.
+    @Test
+    void loadReportsThroughStats() throws IOException {
+        Files.writeString(Paths.get(TABLE + ".tbl"), "a int,b string\n1,'x'\n2,y\n3,'z'\n");
+        Database db = new Database();
+        assertTrue(db.transact("stats").endsWith("bulk loader: no table loaded"));
+        assertEquals("", db.transact("load " + TABLE));
+        assertEquals("a int,b string\n1,'x'\n3,'z'", db.transact("print " + TABLE));
+        String stats = db.transact("stats");
+        assertTrue(stats.contains("bulk loader: " + TABLE + " loaded 2 rows in "), stats);
+        assertTrue(stats.endsWith("rejected line 3: bad string value y"), stats);
+        assertEquals("ERROR: couldn't find table nosuch (LOAD).", db.transact("load nosuch"));
+    }
+}
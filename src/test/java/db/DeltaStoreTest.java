@@ -0,0 +1,120 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DeltaStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private static String render(Table t) throws IOException {
+        StringWriter out = new StringWriter();
+        TableWriter.write(t.cursor(), out);
+        return out.toString();
+    }
+
+    private static void insert(Table t, int from, int to) {
+        String[][] rows = new String[to - from][];
+        for (int i = from; i < to; i++) {
+            rows[i - from] = new String[] {Integer.toString(i), i % 5 == 0 ? Column.NOVALUE : "'s" + i + "'"};
+        }
+        assertEquals("", t.insert(rows));
+    }
+
+    private List<String> manifest(String name) throws IOException {
+        return Files.readAllLines(dir.resolve(name + DeltaStore.EXTENSION));
+    }
+
+    @Test
+    void storesOnlyNewRowsAsDeltas() throws IOException {
+        DeltaStore store = new DeltaStore(dir);
+        Table t = new Table(new String[] {"k int", "s string"});
+        insert(t, 0, 100);
+        store.store("t", t, t.snapshot());
+        insert(t, 100, 130);
+        store.store("t", t, t.snapshot());
+        store.store("t", t, t.snapshot());
+        List<String> segments = manifest("t");
+        assertEquals(List.of("t.0.tbin 100", "t.1.tbin 30"), segments);
+        assertEquals(render(t), render(store.load("t")));
+        store.close();
+    }
+
+    @Test
+    void loadedTableStoresDeltas() throws IOException {
+        DeltaStore store = new DeltaStore(dir);
+        Table t = new Table(new String[] {"k int", "s string"});
+        insert(t, 0, 10);
+        store.store("t", t, t.snapshot());
+        Table loaded = store.load("t");
+        insert(loaded, 10, 12);
+        store.store("t", loaded, loaded.snapshot());
+        assertEquals(List.of("t.0.tbin 10", "t.1.tbin 2"), manifest("t"));
+
+        // Another table of the same name replaces the segments with a new base.
+        Table other = new Table(new String[] {"k int", "s string"});
+        insert(other, 50, 53);
+        store.store("t", other, other.snapshot());
+        assertEquals(List.of("t.2.tbin 3"), manifest("t"));
+        assertFalse(Files.exists(dir.resolve("t.0.tbin")));
+        assertEquals(render(other), render(store.load("t")));
+        store.close();
+    }
+
+    @Test
+    void compactionMergesDeltas() throws IOException {
+        DeltaStore store = new DeltaStore(dir);
+        Table t = new Table(new String[] {"k int", "s string"});
+        for (int i = 0; i < 6; i++) {
+            insert(t, i * 10, i * 10 + 10);
+            store.store("t", t, t.snapshot());
+        }
+        assertEquals(6, manifest("t").size());
+        store.compact("t");
+        assertEquals(List.of("t.6.tbin 60"), manifest("t"));
+        assertEquals(render(t), render(store.load("t")));
+
+        insert(t, 60, 65);
+        store.store("t", t, t.snapshot());
+        assertEquals(List.of("t.6.tbin 60", "t.7.tbin 5"), manifest("t"));
+        assertEquals(render(t), render(store.load("t")));
+
+        // Enough deltas merge in the background.
+        for (int i = 0; i < 10; i++) {
+            insert(t, 65 + i, 66 + i);
+            store.store("t", t, t.snapshot());
+        }
+        store.close();
+        assertTrue(manifest("t").size() <= 8, manifest("t").toString());
+        assertEquals(render(t), render(store.load("t")));
+    }
+
+    @Test
+    void drop() throws IOException {
+        DeltaStore store = new DeltaStore(dir);
+        Table t = new Table(new String[] {"k int", "s string"});
+        insert(t, 0, 3);
+        store.store("t", t, t.snapshot());
+        insert(t, 3, 4);
+        store.store("t", t, t.snapshot());
+        store.drop("t");
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+        assertThrows(NoSuchFileException.class, () -> store.load("t"));
+        store.close();
+    }
+}
@@ -0,0 +1,145 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class IndexTest {
+
+    private static final String TABLE = "index_test";
+    private static final String[] OPS = {"==", "!=", "<", "<=", ">", ">="};
+
+    @AfterEach
+    void deleteTable() throws IOException {
+        Files.deleteIfExists(Paths.get(TABLE + ".tbl"));
+    }
+
+    // Every third value is NOVALUE, which no comparison matches.
+    private static IntColumn column(int[] values) {
+        IntColumn c = new IntColumn();
+        for (int i = 0; i < values.length; i++) {
+            if (i % 3 == 2) {
+                c.appendNoValue();
+            } else {
+                c.add(values[i]);
+            }
+        }
+        return c;
+    }
+
+    private static int[] expected(int[] values, String op, int key) {
+        IntList ret = new IntList();
+        for (int i = 0; i < values.length; i++) {
+            int v = values[i];
+            boolean match = op.equals("==") ? v == key : op.equals("!=") ? v != key : op.equals("<") ? v < key
+                    : op.equals("<=") ? v <= key : op.equals(">") ? v > key : v >= key;
+            if (i % 3 != 2 && match) {
+                ret.add(i);
+            }
+        }
+        return ret.toArray();
+    }
+
+    @Test
+    void lookupsMatchAScan() {
+        Random rnd = new Random(13);
+        int[] values = new int[2000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rnd.nextInt(50) - 10;
+        }
+        IntColumn col = column(values);
+        for (String kind : new String[] {"hash", "ordered"}) {
+            Index idx = Index.create("i", "k", kind);
+            idx.addAll(col, 0);
+            for (String op : OPS) {
+                if (!idx.supports(op)) {
+                    continue;
+                }
+                for (int key : new int[] {-11, -10, 0, 17, 39, 40}) {
+                    assertArrayEquals(expected(values, op, key), idx.lookup(op, key, col), kind + " " + op + " " + key);
+                }
+            }
+        }
+        assertTrue(Index.create("i", "k", "hash").supports("!="));
+        assertFalse(Index.create("i", "k", "hash").supports("<"));
+        assertFalse(Index.create("i", "k", "ordered").supports("!="));
+    }
+
+    @Test
+    void keysOfLiterals() {
+        assertEquals(3, Index.key("int", "3"));
+        assertEquals(null, Index.key("int", "3.5"));
+        assertEquals(3.5f, Index.key("float", "3.5"));
+        assertEquals(3f, Index.key("float", "3"));
+        assertEquals("a", Index.key("string", "'a'"));
+        assertEquals(null, Index.key("string", "3"));
+        assertEquals(null, Index.key("float", "'a'"));
+    }
+
+    // Selects answered through an index, including rows inserted after it was made, match a scan.
+    @Test
+    void indexedSelectsMatchScans() {
+        Database db = new Database();
+        db.transact("create table t (k int, v float, s string)");
+        db.transact("create table u (k int, v float, s string)");
+        Random rnd = new Random(29);
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            if (i == 1500) {
+                db.transact("insert into t values " + rows.substring(2));
+                db.transact("insert into u values " + rows.substring(2));
+                db.transact("create index ik on t (k) using hash");
+                db.transact("create index iv on t (v)");
+                db.transact("create index is on t (s) using ordered");
+                rows.setLength(0);
+            }
+            rows.append(", (").append(rnd.nextInt(100)).append(", ")
+                    .append(i % 7 == 0 ? "NOVALUE" : rnd.nextInt(40) / 4.0).append(", 's")
+                    .append(rnd.nextInt(30)).append("')");
+        }
+        db.transact("insert into t values " + rows.substring(2));
+        db.transact("insert into u values " + rows.substring(2));
+        String[] conds = {"k == 42", "k != 42", "k == 1000", "v < 3.5", "v >= 9.75", "v == 2.0", "v == 2",
+            "s <= 's15'", "s > 's3'", "s == 's7'", "k == 42 and v > 5.0", "42 == k", "k < 50"};
+        for (String c : conds) {
+            String expected = db.transact("select k, v, s from u where " + c);
+            assertFalse(expected.startsWith("ERROR"), expected);
+            assertEquals(expected, db.transact("select k, v, s from t where " + c), c);
+        }
+    }
+
+    @Test
+    void managingIndexes() throws IOException {
+        Database db = new Database();
+        db.transact("create table " + TABLE + " (k int, s string)");
+        db.transact("insert into " + TABLE + " values (1, 'a'), (2, 'b'), (2, 'c')");
+        assertEquals("", db.transact("create index ik on " + TABLE + " (k)"));
+        assertEquals("ERROR: index ik already exists", db.transact("create index ik on " + TABLE + " (s)"));
+        assertEquals("ERROR: unknown index type btree", db.transact("create index ib on " + TABLE + " (s) using btree"));
+        assertEquals("ERROR: no such column z", db.transact("create index iz on " + TABLE + " (z)"));
+        assertEquals("", db.transact("create index iz on " + TABLE + " (s)"));
+        assertEquals("ERROR: nosuch table doesn't exist", db.transact("create index in on nosuch (k)"));
+
+        // A table loaded over an indexed one gets its indexes back.
+        assertEquals("", db.transact("store " + TABLE));
+        db.transact("insert into " + TABLE + " values (3, 'd')");
+        assertEquals("", db.transact("load " + TABLE));
+        assertEquals(TABLE, db.indexTable("ik"));
+        assertEquals("s string\n'b'\n'c'", db.transact("select s from " + TABLE + " where k == 2"));
+        assertEquals("k int", db.transact("select k from " + TABLE + " where k == 3"));
+
+        assertEquals("", db.transact("drop index ik"));
+        assertEquals("ERROR: no index to drop", db.transact("drop index ik"));
+        assertEquals(null, db.indexTable("ik"));
+        assertEquals("s string\n'b'\n'c'", db.transact("select s from " + TABLE + " where k == 2"));
+    }
+}
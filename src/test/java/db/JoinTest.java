@@ -0,0 +1,182 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class JoinTest {
+
+    @AfterEach
+    void resetThreshold() {
+        Database.setParallelThreshold(50000);
+    }
+
+    // The pairs of a nested loop over both inputs, which every join must produce in the same order.
+    private static Join nestedLoop(Column[] left, int left_size, Column[] right, int right_size) {
+        IntList l = new IntList();
+        IntList r = new IntList();
+        for (int i = 0; i < left_size; i++) {
+            for (int j = 0; j < right_size; j++) {
+                boolean same = true;
+                for (int k = 0; k < left.length; k++) {
+                    same &= left[k].sameValue(i, right[k], j);
+                }
+                if (same) {
+                    l.add(i);
+                    r.add(j);
+                }
+            }
+        }
+        return new Join(l.toArray(), r.toArray());
+    }
+
+    private static IntColumn ints(Random rnd, int n, int bound, boolean sorted) {
+        int[] v = new int[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = rnd.nextInt(bound);
+        }
+        if (sorted) {
+            Arrays.sort(v);
+        }
+        IntColumn c = new IntColumn();
+        for (int x : v) {
+            c.add(x);
+        }
+        return c;
+    }
+
+    private static void assertSame(Join expected, Join actual) {
+        assertArrayEquals(expected.left, actual.left);
+        assertArrayEquals(expected.right, actual.right);
+    }
+
+    @Test
+    void hashJoinMatchesNestedLoop() {
+        Random rnd = new Random(7);
+        int[][] sizes = {{0, 5}, {5, 0}, {1, 1}, {40, 3000}, {3000, 40}, {2000, 2000}};
+        for (int[] s : sizes) {
+            Column[] left = {ints(rnd, s[0], 50, false), ints(rnd, s[0], 3, false)};
+            Column[] right = {ints(rnd, s[1], 50, false), ints(rnd, s[1], 3, false)};
+            assertSame(nestedLoop(left, s[0], right, s[1]), Join.hash(left, s[0], right, s[1]));
+        }
+    }
+
+    @Test
+    void parallelProbeKeepsTheOrder() {
+        Database.setParallelThreshold(100);
+        Random rnd = new Random(11);
+        Column[] left = {ints(rnd, 5000, 200, false)};
+        Column[] right = {ints(rnd, 700, 200, false)};
+        assertSame(nestedLoop(left, 5000, right, 700), Join.hash(left, 5000, right, 700));
+        assertSame(nestedLoop(right, 700, left, 5000), Join.hash(right, 700, left, 5000));
+    }
+
+    @Test
+    void noValueKeysMatchEachOther() {
+        IntColumn left = new IntColumn();
+        IntColumn right = new IntColumn();
+        for (int i = 0; i < 10; i++) {
+            if (i % 4 == 1) {
+                left.appendNoValue();
+            } else {
+                left.add(i % 3);
+            }
+            if (i % 5 == 0) {
+                right.appendNoValue();
+            } else {
+                right.add(i % 4);
+            }
+        }
+        Column[] l = {left};
+        Column[] r = {right};
+        assertSame(nestedLoop(l, 10, r, 10), Join.hash(l, 10, r, 10));
+    }
+
+    @Test
+    void sortMergeMatchesNestedLoop() {
+        Random rnd = new Random(3);
+        Column[] left = {ints(rnd, 1500, 100, true)};
+        Column[] right = {ints(rnd, 900, 100, true)};
+        Join expected = nestedLoop(left, 1500, right, 900);
+        assertSame(expected, Join.sortMerge(left, 1500, right, 900));
+        assertEquals(Join.MERGE, Join.choose(null, left, 1500, right, 900));
+        assertSame(expected, Join.of(Join.MERGE, left, 1500, right, 900));
+        assertSame(expected, Join.of(Join.HASH, left, 1500, right, 900));
+    }
+
+    // The merge runs the join the plan chose, unless its inputs turn out not to suit it.
+    @Test
+    void mergeRunsThePlannedJoin() {
+        Database db = new Database();
+        db.transact("create table a (k int, x int)");
+        db.transact("create table b (k int, y int)");
+        db.transact("create table c (k int, z int)");
+        for (int i = 0; i < 50; i++) {
+            db.transact("insert into a values (" + i + ", " + i + ")");
+            db.transact("insert into b values (" + i / 2 + ", " + i + ")");
+            db.transact("insert into c values (" + (49 - i) + ", " + i + ")");
+        }
+        assertTrue(db.transact("explain select k, x, y from a, b").contains(Join.MERGE));
+        assertTrue(db.transact("explain select k, x, z from a, c").contains(Join.HASH));
+        String sorted = db.transact("explain analyze select k, x, y from a, b");
+        assertTrue(sorted.contains(Join.MERGE) && !sorted.contains(Join.HASH), sorted);
+        String unsorted = db.transact("explain analyze select k, x, z from a, c");
+        assertTrue(unsorted.contains(Join.HASH) && !unsorted.contains(Join.MERGE), unsorted);
+        assertEquals(db.transact("select k, x, y from a, b where x < 10"),
+                db.transact("select k, x, y from a, b where x < 10 order by x, y"));
+
+        ArrayList<Condition> none = new ArrayList<>();
+        String[] ran = new String[1];
+        Table a = db.table("a").snapshot();
+        a.merge(db.table("c").snapshot(), none, Join.MERGE, ran);
+        assertEquals(Join.HASH, ran[0]);
+        a.merge(db.table("b").snapshot(), none, Join.HASH, ran);
+        assertEquals(Join.HASH, ran[0]);
+        a.merge(db.table("b").snapshot(), none, Join.MERGE, ran);
+        assertEquals(Join.MERGE, ran[0]);
+    }
+
+    // -0.0 and 0.0 are one key to both algorithms, whichever way the inputs are ordered.
+    @Test
+    void negativeZeroFloatKeys() {
+        FloatColumn left = new FloatColumn();
+        FloatColumn right = new FloatColumn();
+        for (float v : new float[] {-1f, -0f, 0f, 0f, 2f}) {
+            left.add(v);
+        }
+        for (float v : new float[] {-1f, 0f, -0f, 3f}) {
+            right.add(v);
+        }
+        Column[] l = {left};
+        Column[] r = {right};
+        Join expected = nestedLoop(l, 5, r, 4);
+        assertEquals(7, expected.size());
+        assertTrue(Join.isSorted(l, 5) && Join.isSorted(r, 4));
+        assertSame(expected, Join.sortMerge(l, 5, r, 4));
+        assertSame(expected, Join.hash(l, 5, r, 4));
+    }
+
+    @Test
+    void joinedSelectMatchesCrossProductFilter() {
+        Database db = new Database();
+        db.transact("create table a (k int, x int)");
+        db.transact("create table b (k int, y string)");
+        Random rnd = new Random(5);
+        for (int i = 0; i < 300; i++) {
+            db.transact("insert into a values (" + rnd.nextInt(40) + ", " + i + ")");
+            db.transact("insert into b values (" + rnd.nextInt(40) + ", 's" + i + "')");
+        }
+        db.transact("create table c as select k as k2, y from b");
+        String joined = db.transact("select k, x, y from a, b order by x, y");
+        String filtered = db.transact("select k, x, y from a, c where k == k2 order by x, y");
+        assertTrue(joined.split("\n").length > 1000, joined);
+        assertArrayEquals(filtered.split("\n"), joined.split("\n"));
+    }
+}
@@ -0,0 +1,117 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class MaterializedViewTest {
+
+    private static final String[] SELECTS = {
+        "select k, v from a where v > 20",
+        "select k, v * 2 as w from a where k != 3",
+        "select k, v, s from a, b where v < s",
+        "select k, count(*), sum(v), min(v), max(v) from a group by k",
+        "select count(*), avg(v) from a where v > 10",
+        "select k, s from a, b where k > 5 order by s desc limit 7",
+    };
+
+    // The rows of a result, in no particular order.
+    private static String[] rows(String result) {
+        String[] ret = result.split("\n");
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    // Inserts into the tables of the views and checks after each insert that every view holds what
+    // its select returns.
+    @Test
+    void viewsStayEqualToTheirSelect() {
+        Database db = new Database();
+        db.transact("create table a (k int, v float)");
+        db.transact("create table b (k int, s int)");
+        for (int i = 0; i < SELECTS.length; i++) {
+            assertEquals("", db.transact("create materialized view v" + i + " as " + SELECTS[i]));
+        }
+        Random rnd = new Random(17);
+        for (int n = 0; n < 60; n++) {
+            int k = rnd.nextInt(10);
+            if (rnd.nextInt(3) == 0) {
+                db.transact("insert into b values (" + k + ", " + rnd.nextInt(50) + ")");
+            } else {
+                db.transact("insert into a values (" + k + ", " + rnd.nextInt(500) / 10.0 + "), ("
+                        + rnd.nextInt(10) + ", NOVALUE)");
+            }
+            for (int i = 0; i < SELECTS.length; i++) {
+                String expected = db.transact(SELECTS[i]);
+                assertTrue(!expected.startsWith("ERROR"), expected);
+                assertEquals(String.join("\n", rows(expected)), String.join("\n", rows(db.transact("print v" + i))),
+                        SELECTS[i]);
+            }
+        }
+    }
+
+    // Inserts into both tables of a view at once; the view published last has taken in all of them.
+    @Test
+    void concurrentInsertsIntoDifferentTables() throws Exception {
+        Database db = new Database();
+        db.transact("create table a (k int, v int)");
+        db.transact("create table b (k int, w int)");
+        String select = "select k, count(*), sum(v), sum(w) from a, b group by k";
+        db.transact("create materialized view c as " + select);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 20; round++) {
+                final int r = round;
+                Future<?> fa = pool.submit(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        db.transact("insert into a values (" + i % 4 + ", " + (r * 25 + i) + ")");
+                    }
+                });
+                Future<?> fb = pool.submit(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        db.transact("insert into b values (" + i % 4 + ", " + (r * 25 + i) + ")");
+                    }
+                });
+                fa.get();
+                fb.get();
+                assertEquals(String.join("\n", rows(db.transact(select))), String.join("\n", rows(db.transact("print c"))));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void viewsOfViews() {
+        Database db = new Database();
+        db.transact("create table a (k int, v float)");
+        db.transact("insert into a values (1, 1.5), (2, 2.5)");
+        db.transact("create materialized view big as select k, v from a where v > 2");
+        db.transact("create materialized view total as select count(*), sum(v) from big");
+        db.transact("insert into a values (3, 3.5), (4, 0.5)");
+        assertTrue(db.transact("print total").endsWith("\n2,6.000"), db.transact("print total"));
+        assertEquals(db.transact("select count(*), sum(v) from a where v > 2"), db.transact("print total"));
+        assertTrue(db.transact("insert into big values (5, 9.0)").startsWith("ERROR"));
+        assertTrue(db.transact("create materialized view a2 as select k from a2").startsWith("ERROR"));
+    }
+
+    // A view that was computed in full once its table was replaced is kept up to date again.
+    @Test
+    void replacedTable() {
+        Database db = new Database();
+        db.transact("create table a (k int, v float)");
+        db.transact("insert into a values (1, 1.5)");
+        db.transact("create materialized view c as select k, count(*) from a group by k");
+        db.transact("create table a (k int, v float)");
+        db.transact("insert into a values (2, 1.0), (2, 3.0)");
+        assertTrue(db.transact("print c").endsWith("\n2,2"), db.transact("print c"));
+        assertEquals(db.transact("select k, count(*) from a group by k"), db.transact("print c"));
+    }
+}
@@ -0,0 +1,96 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PagedTableTest {
+
+    private static final String TABLE = "paged_test";
+    private static final int ROWS = 300000;
+
+    private Database db;
+
+    @BeforeEach
+    void load() throws IOException {
+        StringBuilder text = new StringBuilder("a int,b string\n");
+        for (int i = 0; i < ROWS; i++) {
+            text.append(i).append(",'s").append(i % 100).append("'\n");
+        }
+        Files.writeString(Paths.get(TABLE + ".tbl"), text);
+        Files.deleteIfExists(Paths.get(TABLE + PageFile.EXTENSION));
+        // A pool far smaller than the table, so pages are evicted and read again.
+        Database.setBufferPoolSize(64 * 1024);
+        db = new Database();
+        db.transact("load " + TABLE + " paged");
+    }
+
+    @AfterEach
+    void delete() throws IOException {
+        db.close();
+        Database.setBufferPoolSize(64L << 20);
+        Files.deleteIfExists(Paths.get(TABLE + ".tbl"));
+        Files.deleteIfExists(Paths.get(TABLE + PageFile.EXTENSION));
+    }
+
+    // Reads the rest of a cursor, whose first column counts up from next, and returns its rows.
+    private int drain(ResultSet rs, int next) {
+        int n = next;
+        while (rs.next()) {
+            assertEquals(n, rs.getInt(1));
+            n++;
+        }
+        rs.close();
+        return n - next;
+    }
+
+    @Test
+    void cursorSurvivesInsert() {
+        ResultSet rs = db.query("select a, b from " + TABLE);
+        assertTrue(rs.next());
+        assertEquals("", db.transact("insert into " + TABLE + " values (" + ROWS + ", 'x')"));
+        assertEquals(ROWS - 1, drain(rs, 1));
+        assertEquals(ROWS + 1, drain(db.query("select a from " + TABLE), 0));
+    }
+
+    @Test
+    void cursorSurvivesDrop() {
+        ResultSet rs = db.query("select a, b from " + TABLE);
+        assertEquals("", db.transact("drop table " + TABLE));
+        System.gc();
+        assertEquals(ROWS, drain(rs, 0));
+    }
+
+    // Rows inserted into a paged table go to a tail after the rows of its file.
+    @Test
+    void insertsKeepTheTablePaged() {
+        db.transact("insert into " + TABLE + " values (" + ROWS + ", 'x'), (" + (ROWS + 1) + ", NOVALUE)");
+        assertFalse(db.table(TABLE).snapshot().isMaterialized(0));
+        assertEquals("count int\n" + (ROWS + 2), db.transact("select count(*) from " + TABLE));
+        assertEquals("a int,b string\n" + ROWS + ",'x'", db.transact("select a, b from " + TABLE + " where b == 'x'"));
+        assertEquals("a int\n299999\n" + ROWS, db.transact("select a from " + TABLE + " where a > 299998 and a < " + (ROWS + 1)));
+        assertEquals("", db.transact("create index i on " + TABLE + " (a) using hash"));
+        db.transact("insert into " + TABLE + " values (" + (ROWS + 2) + ", 'y')");
+        assertFalse(db.table(TABLE).snapshot().isMaterialized(0));
+        assertEquals("b string\n's7'", db.transact("select b from " + TABLE + " where a == 7"));
+        assertEquals("b string\n'y'", db.transact("select b from " + TABLE + " where a == " + (ROWS + 2)));
+    }
+
+    @Test
+    void storeWithTail() {
+        db.transact("insert into " + TABLE + " values (" + ROWS + ", 'x')");
+        String expected = db.transact("select count(*), max(a), min(b) from " + TABLE);
+        assertEquals("", db.transact("store " + TABLE + " paged"));
+        assertEquals("", db.transact("load " + TABLE + " paged"));
+        assertEquals(expected, db.transact("select count(*), max(a), min(b) from " + TABLE));
+        assertTrue(expected.endsWith((ROWS + 1) + "," + ROWS + ",'s0'"), expected);
+    }
+}
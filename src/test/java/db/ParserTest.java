@@ -0,0 +1,106 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ParserTest {
+
+    private static Database open() {
+        Database db = new Database();
+        db.transact("create table t (k int, v float, s string)");
+        db.transact("insert into t values (1, 0.5, 'a'), (2, -1.5, 'b'), (3, 2.0, 'a'), (4, NOVALUE, 'c')");
+        return db;
+    }
+
+    @Test
+    void expressionsBindTighterThanConditions() {
+        Database db = open();
+        assertEquals("x int,y int\n7,9", db.transact("select 1 + 2 * 3 as x, (1 + 2) * 3 as y from t where k == 1"));
+        assertEquals("n int\n-1\n-2", db.transact("select -k as n from t where k * 2 <= 4"));
+        assertEquals("k int,s string\n3,'a'", db.transact("select k, s from t where s == 'a' and v > 1.0"));
+        assertEquals("k int\n3", db.transact("select k from t where 2 < k and k != 4"));
+    }
+
+    @Test
+    void selectClauses() {
+        Database db = open();
+        assertEquals("s string,n int\n'c',1\n'b',1\n'a',2",
+                db.transact("select s, count(*) as n from t group by s order by s desc"));
+        assertEquals("k int\n3\n2", db.transact("select k from t order by k desc limit 2 offset 1"));
+        assertEquals("k int\n1\n3", db.transact("select k from t where s == 'a' order by v asc"));
+    }
+
+    @Test
+    void malformedQueries() {
+        Database db = open();
+        assertEquals("ERROR: Malformed query: unexpected end\n", db.transact("select k from"));
+        assertEquals("ERROR: Malformed query: unterminated string at 27\n",
+                db.transact("select k from t where s == 'a"));
+        assertEquals("ERROR: Malformed query: unexpected '=' at 24\n", db.transact("select k from t where k = 1"));
+        assertEquals("ERROR: Malformed query: unexpected 'k' at 22\n", db.transact("select k from t order k"));
+        assertEquals("ERROR: Malformed query: unexpected ';' at 15\n", db.transact("select k from t;"));
+    }
+
+    // Queries that differ only in their literals share a plan, which is bound to each one's values.
+    @Test
+    void cachedPlansTakeEachQuerysLiterals() {
+        Database db = open();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 300; i++) {
+                String expected = i >= 1 && i <= 4 ? "k int\n" + i : "k int";
+                assertEquals(expected, db.transact("select k from t where k == " + i));
+            }
+        }
+        assertEquals("ERROR: can't compare string and non-string", db.transact("select k from t where k == 'a'"));
+        assertEquals("k int\n2", db.transact("select k from t where k == 2"));
+        assertEquals("k int\n1\n3", db.transact("select k from t where s == 'a'"));
+        assertEquals("s string\n'b'", db.transact("select s from t where v < -1.0"));
+        assertEquals("s string\n'b'", db.transact("select s from t where v < -1.25"));
+    }
+
+    @Test
+    void preparedQueries() {
+        Database db = open();
+        PreparedQuery insert = db.prepare("insert into t values (?, ?, ?)");
+        assertEquals(3, insert.parameterCount());
+        assertEquals("", insert.setInt(1, 5).setFloat(2, 5.5f).setString(3, "e").execute());
+        assertEquals("", insert.setInt(1, 6).setNoValue(2).setString(3, "f").execute());
+        PreparedQuery select = db.prepare("select k, v from t where k > ? and s != ?");
+        ResultSet rs = select.setInt(1, 4).setString(2, "f").executeQuery();
+        assertTrue(rs.next());
+        assertEquals(5, rs.getInt(1));
+        assertEquals(5.5f, rs.getFloat(2));
+        assertFalse(rs.next());
+        rs.close();
+        assertEquals("k int,v float\n6,NOVALUE", select.setString(2, "e").execute());
+        assertThrows(IndexOutOfBoundsException.class, () -> select.setInt(3, 1));
+        assertThrows(IllegalArgumentException.class, () -> select.setString(2, "it's"));
+        assertTrue(db.transact("select k from t where k == ?").startsWith("ERROR: unbound parameter"));
+    }
+
+    // Errors, whether returned or thrown while a command runs, are printed with one prefix.
+    @Test
+    void errorsHaveOnePrefix() {
+        Database db = new Database();
+        db.transact("create table t (k int, v int)");
+        assertEquals("ERROR: nosuch table doesn't exist", db.transact("print nosuch"));
+        assertEquals("ERROR: nosuch table doesn't exist", db.transact("select k from nosuch"));
+        assertEquals("ERROR: no such column q", db.transact("select q from t"));
+        assertEquals("ERROR: max(v) can only be selected on its own", db.transact("select max(v) + 1 from t"));
+        assertEquals("ERROR: Malformed query: unexpected 'selec' at 0\n", db.transact("selec k from t"));
+    }
+
+    @Test
+    void floatWithoutLeadingDigits() {
+        Database db = new Database();
+        db.transact("create table f (k int, v float)");
+        assertEquals("", db.transact("insert into f values (1, .5), (2, -.25), (3, 1.)"));
+        assertEquals("k int,v float\n1,0.500\n2,-0.250\n3,1.000", db.transact("print f"));
+        assertEquals("k int\n1", db.transact("select k from f where v == .5"));
+        assertEquals("ERROR: Malformed query: unexpected '.' at 28\n", db.transact("insert into f values (4, 1, .)"));
+    }
+}
@@ -0,0 +1,98 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ResultCacheTest {
+
+    private static Database open() {
+        Database db = new Database();
+        db.setResultCacheSize(1 << 20);
+        db.transact("create table t (k int, s string)");
+        db.transact("insert into t values (1, 'a'), (2, 'b')");
+        return db;
+    }
+
+    private static void assertStats(Database db, int hits, int misses) {
+        String stats = db.resultCacheStats();
+        assertTrue(stats.contains(hits + " hits, " + misses + " misses"), stats);
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsed() {
+        ResultCache cache = new ResultCache();
+        assertFalse(cache.enabled());
+        // Each entry takes 2 * (1 + 10) + 64 = 86 bytes.
+        cache.setBudget(3 * 86);
+        assertTrue(cache.enabled());
+        cache.put("a", "0123456789");
+        cache.put("b", "0123456789");
+        cache.put("c", "0123456789");
+        assertEquals("0123456789", cache.get("a"));
+        cache.put("d", "0123456789");
+        assertEquals(null, cache.get("b"));
+        assertEquals("0123456789", cache.get("a"));
+        assertEquals("0123456789", cache.get("c"));
+        assertEquals("0123456789", cache.get("d"));
+        cache.put("e", "x".repeat(200));
+        assertEquals(null, cache.get("e"));
+        cache.setBudget(86);
+        assertEquals("0123456789", cache.get("d"));
+        assertEquals(null, cache.get("c"));
+        assertTrue(cache.stats().contains("1 entries, 86 of 86 bytes, 5 hits, 3 misses"), cache.stats());
+        assertTrue(cache.stats().endsWith("3 evictions"), cache.stats());
+    }
+
+    // Queries that are written differently but parse the same share a result.
+    @Test
+    void normalizedQueries() {
+        Database db = open();
+        assertEquals("k int\n2", db.transact("select k from t where s == 'b'"));
+        assertEquals("k int\n2", db.transact("select   k  from t where s=='b'"));
+        assertEquals("k int\n1", db.transact("select k from t where s == 'a'"));
+        assertStats(db, 1, 2);
+    }
+
+    // Every change to a table a select reads makes it run again.
+    @Test
+    void changesInvalidate() {
+        Database db = open();
+        db.transact("create table u (k int, x int)");
+        db.transact("insert into u values (1, 10), (2, 20)");
+        String join = "select k, s, x from t, u";
+        assertEquals("k int,s string,x int\n1,'a',10\n2,'b',20", db.transact(join));
+        assertEquals("k int,s string,x int\n1,'a',10\n2,'b',20", db.transact(join));
+        assertStats(db, 1, 1);
+        db.transact("insert into u values (1, 11)");
+        assertEquals("k int,s string,x int\n1,'a',10\n1,'a',11\n2,'b',20", db.transact(join));
+        assertStats(db, 1, 2);
+        db.transact("drop table u");
+        assertEquals("ERROR: u table doesn't exist", db.transact(join));
+        db.transact("create table u (k int, x int)");
+        assertEquals("k int,s string,x int", db.transact(join));
+        db.transact("create table t as select k, s from t where k == 2");
+        assertEquals("k int,s string,x int", db.transact(join));
+        assertEquals("k int\n2", db.transact("select k from t"));
+        assertStats(db, 1, 6);
+        db.setResultCacheSize(0);
+        assertEquals("k int\n2", db.transact("select k from t"));
+        assertStats(db, 1, 6);
+    }
+
+    // An insert that fails changes nothing, so the results of the table stay cached.
+    @Test
+    void failedInsertKeepsResults() {
+        Database db = open();
+        assertEquals("k int\n1\n2", db.transact("select k from t"));
+        assertTrue(db.transact("insert into t values (3, 4)").startsWith("ERROR"));
+        assertTrue(db.transact("insert into t values (3, 'c'), (4)").startsWith("ERROR"));
+        assertEquals("k int\n1\n2", db.transact("select k from t"));
+        assertStats(db, 1, 1);
+        db.transact("insert into t values (3, 'c')");
+        assertEquals("k int\n1\n2\n3", db.transact("select k from t"));
+        assertStats(db, 1, 2);
+    }
+}
@@ -0,0 +1,104 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class SortTest {
+
+    private static final int ROWS = 20000;
+
+    @AfterEach
+    void resetBudget() {
+        Database.setSortMemory(64L << 20);
+    }
+
+    private static Table table(Random rnd) {
+        Table t = new Table(new String[] {"k int", "s string"});
+        String[][] rows = new String[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new String[] {i % 13 == 0 ? Column.NOVALUE : Integer.toString(rnd.nextInt(500) - 250),
+                i % 17 == 0 ? Column.NOVALUE : "'s" + rnd.nextInt(40) + "'"};
+        }
+        assertEquals("", t.insert(rows));
+        return t;
+    }
+
+    // k ascending then s descending, NOVALUE first, ties in the order of the rows.
+    private static int[] expected(Table t, int offset, int limit) {
+        IntColumn k = (IntColumn) t.data(0);
+        StringColumn s = (StringColumn) t.data(1);
+        Comparator<Integer> by_k = (a, b) -> k.compareValue(a, k, b);
+        Comparator<Integer> by_s = (a, b) -> s.compareValue(b, s, a);
+        Integer[] ids = new Integer[t.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        Arrays.sort(ids, by_k.thenComparing(by_s));
+        int from = Math.min(offset, ids.length);
+        int to = limit < 0 ? ids.length : Math.min(ids.length, from + limit);
+        return Arrays.stream(ids, from, to).mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] order(Table t, int offset, int limit) {
+        Kernel[] keys = {new Expr.ColumnRef("k").compile(t), new Expr.ColumnRef("s").compile(t)};
+        int[] ids = new int[t.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        return Sort.order(t, ids, keys, new boolean[] {false, true}, offset, limit);
+    }
+
+    @Test
+    void inMemory() {
+        Table t = table(new Random(1));
+        assertArrayEquals(expected(t, 0, -1), order(t, 0, -1));
+        assertArrayEquals(expected(t, 150, -1), order(t, 150, -1));
+        assertArrayEquals(expected(t, 0, ROWS), order(t, 0, ROWS));
+    }
+
+    // A limit below the rows keeps only the best of them in a heap.
+    @Test
+    void topK() {
+        Table t = table(new Random(2));
+        for (int[] window : new int[][] {{0, 0}, {0, 1}, {0, 100}, {37, 250}, {ROWS - 5, 4}, {ROWS + 5, 3}}) {
+            assertArrayEquals(expected(t, window[0], window[1]), order(t, window[0], window[1]),
+                    window[0] + " " + window[1]);
+        }
+    }
+
+    // A budget far below the keys spills sorted runs and merges them, in more than one pass when
+    // there are many.
+    @Test
+    void external() {
+        Table t = table(new Random(3));
+        int[] expected = expected(t, 0, -1);
+        for (long budget : new long[] {52 * 100, 100000}) {
+            Database.setSortMemory(budget);
+            assertArrayEquals(expected, order(t, 0, -1), "budget " + budget);
+            assertArrayEquals(expected(t, 500, ROWS), order(t, 500, ROWS), "budget " + budget);
+        }
+    }
+
+    @Test
+    void orderByAndLimit() {
+        Database db = new Database();
+        db.transact("create table t (k int, v float, s string)");
+        db.transact("insert into t values (2, 1.5, 'b'), (1, NOVALUE, 'c'), (2, -0.5, 'a'), (NOVALUE, 3.0, 'd'), "
+                + "(3, 1.5, 'e')");
+        assertEquals("k int,s string\nNOVALUE,'d'\n1,'c'\n2,'b'\n2,'a'\n3,'e'", db.transact("select k, s from t order by k"));
+        assertEquals("s string\n'e'\n'b'\n'a'\n'c'\n'd'", db.transact("select s from t order by k desc, v desc"));
+        assertEquals("s string\n'a'\n'b'", db.transact("select s from t order by v limit 2 offset 1"));
+        assertEquals("s string\n'b'\n'a'", db.transact("select s from t where k == 2 limit 5"));
+        assertEquals("s string", db.transact("select s from t order by s limit 3 offset 5"));
+        assertEquals("t2 int\n6\n4", db.transact("select k * 2 as t2 from t order by t2 desc limit 2"));
+        Database.setSortMemory(16);
+        assertEquals("s string\n'd'\n'c'\n'b'\n'a'\n'e'", db.transact("select s from t order by k, v desc"));
+    }
+}
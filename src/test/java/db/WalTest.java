@@ -0,0 +1,109 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WalTest {
+
+    @TempDir
+    Path dir;
+
+    // Tables are loaded from and stored to the working directory.
+    private static final String TABLE = "wal_test";
+
+    @AfterEach
+    void deleteTable() throws IOException {
+        Files.deleteIfExists(Paths.get(TABLE + ".tbl"));
+    }
+
+    private Database open(Database.SyncPolicy policy) throws IOException {
+        return new Database(dir.resolve("db.wal").toString(), policy);
+    }
+
+    @Test
+    void replaysChanges() throws IOException {
+        for (Database.SyncPolicy policy : Database.SyncPolicy.values()) {
+            String name = "t_" + policy.name().toLowerCase();
+            String expected;
+            try (Database db = open(policy)) {
+                db.transact("create table " + name + " (a int, b string)");
+                db.transact("insert into " + name + " values (1, 'a'), (2, 'b')");
+                db.transact("create table gone (a int)");
+                db.transact("drop table gone");
+                db.transact("create index i_" + name + " on " + name + " (a) using hash");
+                db.transact("insert into " + name + " values (3, 'c')");
+                expected = db.transact("print " + name);
+            }
+            try (Database db = open(policy)) {
+                assertEquals(expected, db.transact("print " + name));
+                assertTrue(db.transact("print gone").startsWith("ERROR"));
+                assertTrue(db.transact("create index i_" + name + " on " + name + " (b)").startsWith("ERROR"));
+            }
+        }
+    }
+
+    @Test
+    void storeDoesNotDuplicateLoadedRows() throws IOException {
+        Files.writeString(Paths.get(TABLE + ".tbl"), "a int,b string\n1,'a'\n2,'b'\n");
+        try (Database db = open(Database.SyncPolicy.EVERY_COMMIT)) {
+            db.transact("load " + TABLE);
+            db.transact("insert into " + TABLE + " values (3, 'c')");
+            assertEquals("", db.transact("store " + TABLE));
+        }
+        try (Database db = open(Database.SyncPolicy.EVERY_COMMIT)) {
+            assertEquals("a int,b string\n1,'a'\n2,'b'\n3,'c'", db.transact("print " + TABLE));
+            db.transact("insert into " + TABLE + " values (4, 'd')");
+        }
+        try (Database db = open(Database.SyncPolicy.EVERY_COMMIT)) {
+            assertEquals("a int,b string\n1,'a'\n2,'b'\n3,'c'\n4,'d'", db.transact("print " + TABLE));
+        }
+    }
+
+    // A load is recovered from the checkpoint it writes, not from the file, which may have changed.
+    @Test
+    void loadSurvivesChangedFile() throws IOException {
+        Files.writeString(Paths.get(TABLE + ".tbl"), "a int,b string\n1,'a'\n2,'b'\n");
+        try (Database db = open(Database.SyncPolicy.EVERY_COMMIT)) {
+            db.transact("load " + TABLE);
+            db.transact("insert into " + TABLE + " values (3, 'c')");
+        }
+        Files.writeString(Paths.get(TABLE + ".tbl"), "a int,b string\n9,'z'\n");
+        try (Database db = open(Database.SyncPolicy.EVERY_COMMIT)) {
+            assertEquals("a int,b string\n1,'a'\n2,'b'\n3,'c'", db.transact("print " + TABLE));
+        }
+        Files.delete(Paths.get(TABLE + ".tbl"));
+        try (Database db = open(Database.SyncPolicy.EVERY_COMMIT)) {
+            assertEquals("a int,b string\n1,'a'\n2,'b'\n3,'c'", db.transact("print " + TABLE));
+        }
+    }
+
+    @Test
+    void checkpointKeepsViewsAndIndexes() throws IOException {
+        String expected;
+        try (Database db = open(Database.SyncPolicy.BATCHED)) {
+            db.transact("create table " + TABLE + " (a int, b string)");
+            db.transact("insert into " + TABLE + " values (1, 'a'), (2, 'b')");
+            db.transact("create materialized view v as select a from " + TABLE + " where a > 1");
+            db.transact("create materialized view w as select count(*) from v");
+            db.transact("create index i on " + TABLE + " (a) using hash");
+            assertEquals("", db.transact("store " + TABLE));
+            db.transact("insert into " + TABLE + " values (3, 'c')");
+            expected = db.transact("print v") + db.transact("print w");
+        }
+        try (Database db = open(Database.SyncPolicy.BATCHED)) {
+            assertEquals(expected, db.transact("print v") + db.transact("print w"));
+            assertTrue(db.transact("create index i on v (a)").startsWith("ERROR"));
+            db.transact("insert into " + TABLE + " values (4, 'd')");
+            assertEquals("a int\n2\n3\n4", db.transact("print v"));
+        }
+    }
+}
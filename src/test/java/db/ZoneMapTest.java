@@ -0,0 +1,124 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ZoneMapTest {
+
+    private static final int BLOCK = ZoneMap.BLOCK;
+    private static final int BLOCKS = 10;
+
+    @TempDir
+    Path dir;
+
+    // k counts up, v is k / 2 as a float, s is 'b' followed by the block, and the fourth block
+    // holds nothing but NOVALUE.
+    private static Table table() {
+        Table t = new Table(new String[] {"k int", "v float", "s string"});
+        String[][] rows = new String[BLOCKS * BLOCK][];
+        for (int i = 0; i < rows.length; i++) {
+            boolean none = i / BLOCK == 3;
+            rows[i] = new String[] {none ? Column.NOVALUE : Integer.toString(i),
+                none ? Column.NOVALUE : i / 2.0 + "", none ? Column.NOVALUE : "'b" + i / BLOCK + "'"};
+        }
+        assertEquals("", t.insert(rows));
+        return t;
+    }
+
+    private static boolean[] kept(Table t, String column, String op, String literal) {
+        boolean[] keep = new boolean[ZoneMap.blocks(t.size())];
+        Arrays.fill(keep, true);
+        Expr col = new Expr.ColumnRef(column);
+        Expr lit = new Expr.Literal(literal);
+        t.zoneMap().prune(new Condition(col, op, lit), t, keep);
+        return keep;
+    }
+
+    private static boolean[] blocks(int... kept) {
+        boolean[] ret = new boolean[BLOCKS];
+        for (int b : kept) {
+            ret[b] = true;
+        }
+        return ret;
+    }
+
+    @Test
+    void prunesBlocksOutsideTheRange() {
+        Table t = table().snapshot();
+        assertArrayEquals(blocks(2, 4), and(kept(t, "k", ">=", Integer.toString(2 * BLOCK + 5)),
+                kept(t, "k", "<", Integer.toString(5 * BLOCK))));
+        assertArrayEquals(blocks(1), and(kept(t, "k", ">", Integer.toString(BLOCK - 1)),
+                kept(t, "k", "<", Integer.toString(2 * BLOCK))));
+        assertArrayEquals(blocks(7), kept(t, "k", "==", Integer.toString(7 * BLOCK + 1)));
+        assertArrayEquals(blocks(0, 1, 2, 4, 5, 6, 7, 8, 9), kept(t, "k", "!=", "5"));
+        assertArrayEquals(blocks(), kept(t, "k", "<", "0"));
+        assertArrayEquals(blocks(0), kept(t, "v", "<", "1.0"));
+        assertArrayEquals(blocks(0), kept(t, "v", "<=", "0"));
+        assertArrayEquals(blocks(8), kept(t, "s", "==", "'b8'"));
+        assertArrayEquals(blocks(5, 6, 7, 8, 9), kept(t, "s", ">", "'b4'"));
+        // Literals of another type and NOVALUE leave every block.
+        assertArrayEquals(blocks(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), kept(t, "s", "==", "4"));
+        assertArrayEquals(blocks(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), kept(t, "k", "==", Column.NOVALUE));
+    }
+
+    private static boolean[] and(boolean[] a, boolean[] b) {
+        boolean[] ret = new boolean[a.length];
+        for (int i = 0; i < a.length; i++) {
+            ret[i] = a[i] && b[i];
+        }
+        return ret;
+    }
+
+    // Selects skip blocks, and get the same rows as without zone maps, including those inserted later.
+    @Test
+    void selectsSkipBlocks() {
+        Database db = new Database();
+        db.transact("create table t (k int, v float)");
+        db.transact("create table u (k int, v float)");
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < BLOCKS * BLOCK; i++) {
+            rows.append(i == 0 ? "" : ", ").append("(").append(i).append(", ").append(i % 5 == 0 ? "-0.0" : i / 4.0 + "")
+                    .append(")");
+        }
+        db.transact("insert into t values " + rows);
+        db.transact("insert into u values " + rows);
+        db.transact("insert into t values (5, 1.5), (" + BLOCKS * BLOCK + ", 0.0)");
+        db.transact("insert into u values (5, 1.5), (" + BLOCKS * BLOCK + ", 0.0)");
+        db.transact("create table one (x int)");
+        db.transact("insert into one values (1)");
+
+        String[] conds = {"k < 3", "k >= " + (BLOCKS * BLOCK - 2), "k == 5", "v == 0.0", "v == 0", "v <= -0.0",
+            "k > 9000 and k < 9010", "4 >= k"};
+        for (String c : conds) {
+            // A merge with a one row table gives rows of a new table without zone maps.
+            String expected = db.transact("select k, v from u, one where " + c);
+            assertEquals(expected, db.transact("select k, v from t where " + c), c);
+        }
+        String plan = db.transact("explain analyze select k from t where k > " + (8 * BLOCK + 3));
+        assertTrue(plan.contains("skipped 8 of " + (BLOCKS + 1) + " blocks"), plan);
+    }
+
+    // The binary and paged formats keep the zone maps of the table.
+    @Test
+    void storedWithTheTable() throws IOException {
+        Table t = table();
+        Path bin = dir.resolve("z" + BinaryTable.EXTENSION);
+        BinaryTable.write(t, bin);
+        Path pages = dir.resolve("z" + PageFile.EXTENSION);
+        PageFile.write(t.snapshot(), pages);
+        Table paged = Table.paged(PageFile.open(pages));
+        for (Table read : new Table[] {BinaryTable.read(bin).snapshot(), paged.snapshot()}) {
+            assertArrayEquals(kept(t.snapshot(), "k", "==", "100"), kept(read, "k", "==", "100"));
+            assertArrayEquals(kept(t.snapshot(), "s", "<", "'b2'"), kept(read, "s", "<", "'b2'"));
+        }
+        paged.close();
+    }
+}